@@ -0,0 +1,119 @@
+package turtlepp;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import turtlepp.exec.ProgramCache;
+
+/**
+ * Compiles the code of a {@link CodeTextPane} in the background while the user
+ * is typing. The compiled program is put into the {@link ProgramCache}, so
+ * that running the code afterwards can start immediately. Errors found while
+ * compiling are marked in the pane. This includes errors inside of subroutine
+ * bodies: they are only built when they are run, but their lines are checked
+ * when the program is compiled.
+ */
+class BackgroundCompiler implements ActionListener {
+	/**
+	 * milliseconds to wait after the last change before compiling
+	 */
+	private static final int DELAY = 400;
+
+	/**
+	 * the pane whose code is compiled
+	 */
+	private CodeTextPane pane;
+
+	/**
+	 * restarted on every change, fires when the user stopped typing
+	 */
+	private Timer timer;
+
+	/**
+	 * runs the compilations one after another
+	 */
+	private ExecutorService worker;
+
+	/**
+	 * the code that was read from the pane most recently. Older code is not
+	 * compiled any more.
+	 */
+	private volatile String latestCode;
+
+	public BackgroundCompiler(CodeTextPane pane) {
+		this.pane = pane;
+		timer = new Timer(DELAY, this);
+		timer.setRepeats(false);
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Background Compiler");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * compiles the code as soon as it has not been changed for some time
+	 */
+	public void codeChanged() {
+		timer.restart();
+	}
+
+	/**
+	 * stops compiling
+	 */
+	public void stop() {
+		timer.stop();
+		worker.shutdownNow();
+	}
+
+	/**
+	 * invoked by the timer when the user stopped typing
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		final String code = pane.getText();
+		latestCode = code;
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				compile(code);
+			}
+		});
+	}
+
+	private void compile(final String code) {
+		// skip code that has been replaced while waiting for the worker
+		if (code != latestCode)
+			return;
+
+		InterpreterException error = null;
+		try {
+			ProgramCache.getProgram(code);
+		} catch (InterpreterException ie) {
+			error = ie;
+		} catch (RuntimeException re) {
+			// not an error in the code; running it will show what went wrong
+			return;
+		}
+
+		final InterpreterException compileError = error;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				// the marker would be misplaced if the code changed meanwhile
+				if (code.equals(pane.getText()))
+					pane.setCompileError(compileError);
+			}
+		});
+	}
+}
@@ -2,9 +2,11 @@ package turtlepp;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 
 import javax.swing.JTextPane;
+import javax.swing.ToolTipManager;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
@@ -33,6 +35,22 @@ public class CodeTextPane extends JTextPane implements DocumentListener {
 	 */
 	private SyntaxHighlighter syntaxHighlighter;
 
+	/**
+	 * compiles the code while typing, <code>null</code> if disabled
+	 */
+	private BackgroundCompiler backgroundCompiler;
+
+	/**
+	 * the highlighting marking the line of the last compile error,
+	 * <code>null</code> if there is none
+	 */
+	private Object errorMarker;
+
+	/**
+	 * the last compile error, <code>null</code> if there is none
+	 */
+	private InterpreterException compileError;
+
 	/**
 	 * creates and initializes the pane
 	 */
@@ -55,27 +73,11 @@ public class CodeTextPane extends JTextPane implements DocumentListener {
 	 *            never removed.
 	 */
 	public void highlightLine(int lineNumber, int millis) {
-		String text = super.getText();
-		String[] lines = text.split("\\n");
-		if (lineNumber >= lines.length)
+		if (lineNumber < 0
+				|| lineNumber >= getDocument().getDefaultRootElement()
+						.getElementCount())
 			return;
 
-		int lineCount = 0;
-		for (int i = 0; i < getDocument().getDefaultRootElement()
-				.getElementCount() - 1; i++) {
-			String line = getLine(i);
-
-			/*
-			 * TODO bug fix: comment line ending with " _" must be ignored
-			 */
-			boolean twoeeew = !line.matches("(.|\\s)*//(.|\\s|\\n)*");
-			// boolean twoeeew2 = "//ff".matches("//(.|\\s|\\n)*");
-			if (!line.matches(".*[\\t\\ ]_\\s*") && twoeeew)
-				lineCount++;
-			if (lineCount == lineNumber)
-				lineNumber = i + 1;
-		}
-
 		Element e = this.getDocument().getDefaultRootElement()
 				.getElement(lineNumber);
 
@@ -102,6 +104,74 @@ public class CodeTextPane extends JTextPane implements DocumentListener {
 		}
 	}
 
+	/**
+	 * enables or disables compiling the code in the background while the user
+	 * is typing
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to enable compiling in the background
+	 */
+	public void setBackgroundCompiling(boolean enabled) {
+		if (enabled && backgroundCompiler == null) {
+			backgroundCompiler = new BackgroundCompiler(this);
+			ToolTipManager.sharedInstance().registerComponent(this);
+			backgroundCompiler.codeChanged();
+		} else if (!enabled && backgroundCompiler != null) {
+			backgroundCompiler.stop();
+			backgroundCompiler = null;
+			ToolTipManager.sharedInstance().unregisterComponent(this);
+			setCompileError(null);
+		}
+	}
+
+	/**
+	 * marks the line where compiling the code failed. The marker is removed
+	 * as soon as the code changes.
+	 * 
+	 * @param error
+	 *            the error or <code>null</code> to remove the marker
+	 */
+	public void setCompileError(InterpreterException error) {
+		if (errorMarker != null) {
+			getHighlighter().removeHighlight(errorMarker);
+			errorMarker = null;
+		}
+		compileError = error;
+
+		if (error == null || error.getCodeLocationInfo() == null)
+			return;
+		int lineNumber = error.getCodeLocationInfo().getLineNumber();
+		Element root = getDocument().getDefaultRootElement();
+		if (lineNumber < 0 || lineNumber >= root.getElementCount())
+			return;
+
+		Element e = root.getElement(lineNumber);
+		try {
+			HighlightPainter p = new DefaultHighlighter.DefaultHighlightPainter(
+					new Color(255, 190, 190));
+			errorMarker = getHighlighter().addHighlight(e.getStartOffset(),
+					e.getEndOffset(), p);
+		} catch (BadLocationException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * shows the message of the compile error when hovering its line
+	 */
+	@Override
+	public String getToolTipText(MouseEvent event) {
+		if (compileError == null || errorMarker == null)
+			return super.getToolTipText(event);
+
+		int offset = viewToModel2D(event.getPoint());
+		Element root = getDocument().getDefaultRootElement();
+		if (root.getElementIndex(offset) == compileError
+				.getCodeLocationInfo().getLineNumber())
+			return compileError.getMessage();
+		return super.getToolTipText(event);
+	}
+
 	public SyntaxHighlighter getSyntaxHighlighter() {
 		return syntaxHighlighter;
 	}
@@ -125,14 +195,27 @@ public class CodeTextPane extends JTextPane implements DocumentListener {
 		}
 	}
 
+	/**
+	 * invoked, when text was inserted or removed; unlike
+	 * {@link #contentChanged()} not for changes of the formatting
+	 */
+	private void textChanged() {
+		if (backgroundCompiler != null) {
+			setCompileError(null);
+			backgroundCompiler.codeChanged();
+		}
+	}
+
 	@Override
 	public void insertUpdate(DocumentEvent e) {
 		contentChanged();
+		textChanged();
 	}
 
 	@Override
 	public void removeUpdate(DocumentEvent e) {
 		contentChanged();
+		textChanged();
 	}
 
 	@Override
@@ -100,6 +100,7 @@ public class CommandDialog implements ActionListener, WindowListener {
 
 		textPane = new CodeTextPane();
 		textPane.setText("");
+		textPane.setBackgroundCompiling(true);
 
 		textPane.getDocument().addUndoableEditListener(
 				new UndoableEditListener() {
@@ -20,6 +20,7 @@ import turtlepp.exec.CodeLocationInfo;
 import turtlepp.exec.Compiler;
 import turtlepp.exec.Executable;
 import turtlepp.exec.OrderInterpreter;
+import turtlepp.exec.ProgramCache;
 
 /**
  * some sort of a console; it can display text.
@@ -347,8 +348,8 @@ public class ConsolePanel extends UtilityPanel {
 			@Override
 			public void run() {
 				try {
-					OrderInterpreter oi = new OrderInterpreter(lda
-							.getCodeSource().getText());
+					OrderInterpreter oi = new OrderInterpreter(ProgramCache
+							.getProgram(lda.getCodeSource().getText()));
 					Executable cmd = Compiler.compile(command, null);
 					cmd.execute(lda.getRenderer(), oi);
 					lda.repaint();
@@ -0,0 +1,204 @@
+package turtlepp;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import turtlepp.exec.CodeLocationInfo;
+import turtlepp.exec.CompiledProgram;
+import turtlepp.exec.MemoTable;
+import turtlepp.exec.OptimizerFeature;
+import turtlepp.exec.OrderInterpreter;
+import turtlepp.exec.ProgramFile;
+
+/**
+ * Runs a program without opening any window. The output of the program is
+ * written to the standard output and the drawing is saved as an image.
+ *
+ * Usage:
+ * <ul>
+ * <li><code>HeadlessRunner -compile program.txt program.tppc</code> writes a
+ * precompiled program: the preprocessed and tokenized code. Running it skips
+ * the work on the source text; the program is still compiled and optimized.</li>
+ * <li><code>HeadlessRunner [-stats] [-O0|-O1|-O2|-O3] program [image.png
+ * [width height]]</code> runs a program, either precompiled or as source
+ * code. With <code>-stats</code>, what the optimizer has removed, the time
+ * spent optimizing, what every enabled feature has changed and how often the
+ * results of pure functions have been reused is written to the standard error
+ * stream afterwards. Only the features working apart from the walk over the
+ * code are timed one by one. <code>-O</code> chooses the optimization level,
+ * the highest one by default.</li>
+ * </ul>
+ */
+public class HeadlessRunner {
+	private static final int DEFAULT_WIDTH = 800;
+	private static final int DEFAULT_HEIGHT = 600;
+
+	/**
+	 * console writing to the standard streams
+	 */
+	private static class StandardConsole extends ConsolePanel {
+		private static final long serialVersionUID = 2953601238429145873L;
+
+		private BufferedReader input = new BufferedReader(
+				new InputStreamReader(System.in));
+
+		@Override
+		public void printLine(String str) {
+			System.out.println(str);
+		}
+
+		@Override
+		public void print(String str) {
+			System.out.print(str);
+		}
+
+		@Override
+		public void printErrLine(String errStr) {
+			System.err.println(errStr);
+		}
+
+		@Override
+		public String popInputString() {
+			try {
+				String line = input.readLine();
+				return line != null ? line.trim() : "";
+			} catch (IOException e) {
+				return "";
+			}
+		}
+
+		@Override
+		public void clear() {
+		}
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		boolean statistics = false;
+		int level = OptimizerFeature.DEFAULT_LEVEL;
+		while (args.length > 0 && !args[0].equals("-compile")
+				&& args[0].startsWith("-")) {
+			if (args[0].equals("-stats")) {
+				statistics = true;
+			} else if (args[0].matches("-O[0-9]")
+					&& args[0].charAt(2) - '0' <= OptimizerFeature.MAX_LEVEL) {
+				level = args[0].charAt(2) - '0';
+			} else {
+				printUsage();
+				System.exit(2);
+			}
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+		try {
+			if (args.length == 3 && args[0].equals("-compile")) {
+				String source = readSource(Paths.get(args[1]));
+				ProgramFile.write(source, Paths.get(args[2]));
+			} else if (args.length == 1 || args.length == 2
+					|| args.length == 4) {
+				int width = DEFAULT_WIDTH;
+				int height = DEFAULT_HEIGHT;
+				if (args.length == 4) {
+					width = Integer.parseInt(args[2]);
+					height = Integer.parseInt(args[3]);
+				}
+				BufferedImage image = run(Paths.get(args[0]), width, height,
+						level, statistics);
+				if (args.length >= 2)
+					ImageIO.write(image, "png", new File(args[1]));
+			} else {
+				printUsage();
+				System.exit(2);
+			}
+		} catch (InterpreterException ie) {
+			CodeLocationInfo cli = ie.getCodeLocationInfo();
+			if (cli != null)
+				System.err.println("line " + (cli.getLineNumber() + 1) + ": "
+						+ ie.getMessage());
+			else
+				System.err.println(ie.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * runs a program
+	 *
+	 * @param path
+	 *            a precompiled program or source code
+	 * @param width
+	 *            the width of the image to draw on
+	 * @param height
+	 *            the height of the image to draw on
+	 * @return the image the program has drawn on
+	 */
+	public static BufferedImage run(Path path, int width, int height)
+			throws IOException {
+		return run(path, width, height, OptimizerFeature.DEFAULT_LEVEL, false);
+	}
+
+	/**
+	 * runs a program
+	 *
+	 * @param level
+	 *            the optimization level
+	 * @param statistics
+	 *            <code>true</code> to write what the optimizer has removed
+	 *            from the program to the standard error stream
+	 * @see #run(Path, int, int)
+	 * @see OptimizerFeature
+	 */
+	public static BufferedImage run(Path path, int width, int height,
+			int level, boolean statistics) throws IOException {
+		// without a console, nothing can call the subroutines the program
+		// does not call itself
+		CompiledProgram program;
+		if (path.toString().endsWith(ProgramFile.EXTENSION))
+			program = ProgramFile.load(path, level, true);
+		else
+			program = new CompiledProgram(readSource(path), level, true);
+
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		LogoRenderer2D renderer = new LogoRenderer2D(null);
+		renderer.setOutputPanel(new StandardConsole());
+		renderer.setImage(image);
+		renderer.reset();
+
+		OrderInterpreter interpreter = new OrderInterpreter(program);
+		interpreter.run(renderer);
+		if (statistics) {
+			System.err.println(program.getStatistics());
+			List<MemoTable> tables = interpreter.getMemoTables();
+			for (int i = 0; i < tables.size(); i++)
+				System.err.println("memoized " + tables.get(i));
+		}
+		return image;
+	}
+
+	private static String readSource(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), Charset.forName("UTF-8"));
+	}
+
+	private static void printUsage() {
+		System.err.println("usage: HeadlessRunner -compile <program> <output"
+				+ ProgramFile.EXTENSION + ">");
+		System.err.println("           stores the tokenized program; it is"
+				+ " still compiled when it is run");
+		System.err.println("       HeadlessRunner [-stats] [-O<level>]"
+				+ " <program> [<image.png> [<width> <height>]]");
+	}
+}
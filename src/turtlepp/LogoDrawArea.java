@@ -23,6 +23,7 @@ import turtlepp.datatypes.Value;
 import turtlepp.exec.CodeLocationInfo;
 import turtlepp.exec.Invokeable;
 import turtlepp.exec.OrderInterpreter;
+import turtlepp.exec.ProgramCache;
 
 /**
  * The panel on which the whole drawing is done
@@ -288,7 +289,8 @@ public class LogoDrawArea extends JPanel implements MouseListener,
 		new Thread() {
 			public void run() {
 				try {
-					interpreter = new OrderInterpreter(code);
+					interpreter = new OrderInterpreter(ProgramCache
+							.getProgram(code));
 					isRunning = true;
 
 					if (tryLock(1000)) {
@@ -7,11 +7,11 @@ import turtlepp.LogoRenderer2D;
 import turtlepp.exec.CodeLocationInfo;
 import turtlepp.exec.Function;
 import turtlepp.exec.Invokeable;
+import turtlepp.exec.OptimizerFeature;
 import turtlepp.exec.OrderInterpreter;
 import turtlepp.exec.OrderOptimizer;
 import turtlepp.exec.OrderOptimizer.StackType;
 import turtlepp.exec.Tokenizer.ArrayAccessToken;
-import turtlepp.exec.Tokenizer.TermToken;
 import turtlepp.exec.Tokenizer.TextToken;
 import turtlepp.exec.Tokenizer.Token;
 
@@ -55,6 +55,161 @@ public abstract class Value {
 		return this;
 	}
 
+	/**
+	 * gets a version of the value for places that only read the evaluated
+	 * variable, but never change or keep it. Constants do not have to be
+	 * copied on every evaluation there.
+	 * 
+	 * @return the value to use in such a place
+	 */
+	public Value getReadOnly() {
+		return this;
+	}
+
+	/**
+	 * determines if the value stays the same while the loop the optimizer is
+	 * checking runs. The value must not have been optimized yet.
+	 * 
+	 * @see OrderOptimizer#hoist(Value)
+	 * @return <code>true</code> if every evaluation inside of the loop gives
+	 *         the same result
+	 */
+	public boolean isInvariant(OrderOptimizer oo) {
+		return false;
+	}
+
+	/**
+	 * @return the class of the variable every evaluation of the optimized
+	 *         value gives, <code>null</code> if it is not known while
+	 *         optimizing
+	 */
+	public Class<? extends Variable> getResultType() {
+		return null;
+	}
+
+	/**
+	 * evaluates the value as an integer. Values whose result type is a
+	 * number compute it without creating a variable if they can.
+	 * 
+	 * @see #getVarValue(LogoRenderer2D, OrderInterpreter, CodeLocationInfo)
+	 */
+	public long getLongValue(LogoRenderer2D renderer, OrderInterpreter oi,
+			CodeLocationInfo cli) {
+		return getVarValue(renderer, oi, cli).getLongValue();
+	}
+
+	/**
+	 * evaluates the value as a floating point number
+	 * 
+	 * @see #getLongValue(LogoRenderer2D, OrderInterpreter, CodeLocationInfo)
+	 */
+	public double getDoubleValue(LogoRenderer2D renderer,
+			OrderInterpreter oi, CodeLocationInfo cli) {
+		return getVarValue(renderer, oi, cli).getDoubleValue();
+	}
+
+	/**
+	 * determines if evaluating the optimized value changes nothing and
+	 * depends on nothing but variables, so that evaluating it again gives the
+	 * same result as long as no variable is assigned in between
+	 */
+	public boolean isPure() {
+		return false;
+	}
+
+	/**
+	 * @return the number of values this value is computed from
+	 */
+	public int getNOperands() {
+		return 0;
+	}
+
+	/**
+	 * @param i
+	 *            the index of the operand; the operands are evaluated in the
+	 *            order of their indices
+	 * @return a value this value is computed from
+	 */
+	public Value getOperand(int i) {
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * replaces an operand by a value giving the same result
+	 */
+	public void setOperand(int i, Value operand) {
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * determines if two optimized values always give the same result when
+	 * evaluated one after another, as long as no variable is assigned in
+	 * between
+	 *
+	 * @param other
+	 *            the value evaluated first
+	 * @param localShift
+	 *            the number of variables declared on the stack of the running
+	 *            subroutine since the other value has been evaluated
+	 * @param globalShift
+	 *            the number of variables declared on the global stack since
+	 *            then
+	 */
+	public final boolean isEquivalent(Value other, int localShift,
+			int globalShift) {
+		Value value = this;
+		while (value instanceof CommonValue)
+			value = ((CommonValue) value).value;
+		while (other instanceof CommonValue)
+			other = ((CommonValue) other).value;
+		return value.equivalent(other, localShift, globalShift);
+	}
+
+	/**
+	 * @see #isEquivalent(Value, int, int)
+	 * @param other
+	 *            a value that is not a {@link CommonValue}
+	 */
+	protected boolean equivalent(Value other, int localShift, int globalShift) {
+		return false;
+	}
+
+	/**
+	 * @see #isEquivalent(Value, int, int)
+	 */
+	protected static boolean equivalent(Value[] values, Value[] others,
+			int localShift, int globalShift) {
+		if (values.length != others.length)
+			return false;
+		for (int i = 0; i < values.length; i++) {
+			if (!values[i].isEquivalent(others[i], localShift, globalShift))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * evaluates a value that does not depend on anything at runtime
+	 * 
+	 * @return the constant the value evaluates to, or <code>null</code> if
+	 *         evaluating it fails; the error is then reported when the value
+	 *         is evaluated at runtime. If the optimizer does not enable
+	 *         {@link OptimizerFeature#FOLDING}, it is always <code>null</code>.
+	 */
+	protected static ConstantValue fold(Value value, OrderOptimizer oo) {
+		if (!oo.isEnabled(OptimizerFeature.FOLDING))
+			return null;
+		try {
+			Variable v = value.getVarValue(null, null, null);
+			if (v == null)
+				return null;
+			oo.count(OptimizerFeature.FOLDING);
+			return new ConstantValue(v);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * A single integer value
 	 * 
@@ -76,6 +231,28 @@ public abstract class Value {
 				OrderInterpreter oi, CodeLocationInfo cli) {
 			return new Integer64(null, value);
 		}
+
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			return true;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other instanceof IntegerValue
+					&& ((IntegerValue) other).value == value;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return Integer64.class;
+		}
 	}
 
 	/**
@@ -90,15 +267,47 @@ public abstract class Value {
 		 */
 		protected int fromTop;
 
+		/**
+		 * the class of the variable, <code>null</code> if it is not known
+		 */
+		protected Class<? extends Variable> type;
+
 		public StackReferenceValue(int fromTop) {
 			this.fromTop = fromTop;
 		}
 
+		/**
+		 * @param type
+		 *            the class of the variable, as it has been declared
+		 */
+		public StackReferenceValue(int fromTop, Class<? extends Variable> type) {
+			this.fromTop = fromTop;
+			this.type = type;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return type;
+		}
+
 		@Override
 		public Variable getVarValue(LogoRenderer2D renderer,
 				OrderInterpreter oi, CodeLocationInfo cli) {
 			return oi.getVariableFromCallStack(fromTop);
 		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other.getClass() == StackReferenceValue.class
+					&& ((StackReferenceValue) other).fromTop + localShift
+							== fromTop;
+		}
 	}
 
 	/**
@@ -112,35 +321,176 @@ public abstract class Value {
 			super(fromTop);
 		}
 
+		public GlobalStackReferenceValue(int fromTop,
+				Class<? extends Variable> type) {
+			super(fromTop, type);
+		}
+
 		@Override
 		public Variable getVarValue(LogoRenderer2D renderer,
 				OrderInterpreter oi, CodeLocationInfo cli) {
 			return oi.getVariableFromGlobalStack(fromTop);
 		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other instanceof GlobalStackReferenceValue
+					&& ((GlobalStackReferenceValue) other).fromTop
+							+ globalShift == fromTop;
+		}
 	}
 
 	public static abstract class TermValue extends Value {
 		protected Value[] operands;
 
+		@Override
+		public int getNOperands() {
+			return operands.length;
+		}
+
+		@Override
 		public Value getOperand(int i) {
 			return operands[i];
 		}
 
-		abstract public Value simplify();
+		@Override
+		public void setOperand(int i, Value operand) {
+			operands[i] = operand;
+		}
+
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			for (int i = 0; i < operands.length; i++) {
+				if (!operands[i].isInvariant(oo))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isPure() {
+			for (int i = 0; i < operands.length; i++) {
+				if (!operands[i].isPure())
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other.getClass() == getClass()
+					&& hasSameOperators((TermValue) other)
+					&& equivalent(operands, ((TermValue) other).operands,
+							localShift, globalShift);
+		}
 
 		/**
-		 * determines if the value does not need to be wrapped in a TermValue
-		 * but is a normal value.
+		 * @param other
+		 *            a term of the same kind
+		 * @return <code>true</code> if the operands of both terms are
+		 *         combined by the same operators
 		 */
-		public abstract boolean isNotAnOperation();
+		protected boolean hasSameOperators(TermValue other) {
+			return true;
+		}
 
 		@Override
 		public Value getOptimized(OrderOptimizer oo) {
+			if (oo.isExpressionRoot())
+				return oo.optimizeExpression(this);
+
+			Value hoisted = oo.hoist(this);
+			if (hoisted != null)
+				return hoisted;
+
+			for (int i = 0; i < operands.length; i++) {
+				operands[i] = operands[i].getOptimized(oo).getReadOnly();
+			}
+
+			// the operands are evaluated from left to right, so leading
+			// constants can be combined into one without changing the result
+			int nConstants = 0;
+			while (nConstants < operands.length
+					&& operands[nConstants] instanceof ConstantValue)
+				nConstants++;
+			if (nConstants < 2)
+				return getNumeric(oo);
+
+			ConstantValue folded = fold(createTerm(0, nConstants), oo);
+			if (folded == null || nConstants == operands.length)
+				return folded != null ? folded : getNumeric(oo);
+
+			// the operator in front of the first operand is ignored
+			TermValue rest = createTerm(nConstants - 1, operands.length);
+			rest.operands[0] = folded.getReadOnly();
+			return rest.getNumeric(oo);
+		}
+
+		/**
+		 * @return a term computing the same without creating variables if
+		 *         all operands are known to be numbers, this term otherwise
+		 */
+		protected Value getNumeric(OrderOptimizer oo) {
+			if (!oo.isEnabled(OptimizerFeature.NUMBERS))
+				return this;
+			int nIntegers = 0;
+			boolean floating = false;
 			for (int i = 0; i < operands.length; i++) {
-				operands[i] = operands[i].getOptimized(oo);
+				Class<? extends Variable> type = operands[i].getResultType();
+				if (type == Float64.class)
+					floating = true;
+				else if (type != Integer64.class)
+					return this;
+				else if (!floating)
+					nIntegers++;
 			}
+			TermValue numeric = createNumeric(nIntegers);
+			if (numeric == null)
+				return this;
+			oo.count(OptimizerFeature.NUMBERS);
+			if (!oo.isEnabled(OptimizerFeature.STRENGTH_REDUCTION))
+				return numeric;
+
+			Value reduced = numeric.getReduced();
+			if (reduced != numeric)
+				oo.count(OptimizerFeature.STRENGTH_REDUCTION);
+			return reduced;
+		}
+
+		/**
+		 * replaces the operations of a term computing with numbers by cheaper
+		 * ones giving exactly the same result
+		 * 
+		 * @return a term computing the same, this term if there is no cheaper
+		 *         one
+		 */
+		protected Value getReduced() {
 			return this;
 		}
+
+		/**
+		 * creates a term of the same kind computing with numbers
+		 * 
+		 * @param nIntegers
+		 *            the number of integer operands in front of the first
+		 *            floating point one
+		 * @return the term, <code>null</code> if there is no such kind
+		 */
+		protected TermValue createNumeric(int nIntegers) {
+			return null;
+		}
+
+		/**
+		 * creates a term of the same kind out of a part of the operands
+		 * 
+		 * @param from
+		 *            the index of the first operand
+		 * @param to
+		 *            the index after the last operand
+		 */
+		protected abstract TermValue createTerm(int from, int to);
 	}
 
 	public static class NegativeVarValue extends Value {
@@ -162,13 +512,109 @@ public abstract class Value {
 			return v;
 		}
 
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			return val.isInvariant(oo);
+		}
+
+		@Override
+		public boolean isPure() {
+			return val.isPure();
+		}
+
+		@Override
+		public int getNOperands() {
+			return 1;
+		}
+
+		@Override
+		public Value getOperand(int i) {
+			if (i != 0)
+				throw new IndexOutOfBoundsException();
+			return val;
+		}
+
+		@Override
+		public void setOperand(int i, Value operand) {
+			if (i != 0)
+				throw new IndexOutOfBoundsException();
+			val = operand;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other instanceof NegativeVarValue
+					&& val.isEquivalent(((NegativeVarValue) other).val,
+							localShift, globalShift);
+		}
+
 		@Override
 		public Value getOptimized(OrderOptimizer oo) {
-			val = val.getOptimized(oo);
+			if (oo.isExpressionRoot())
+				return oo.optimizeExpression(this);
+
+			Value hoisted = oo.hoist(this);
+			if (hoisted != null)
+				return hoisted;
+
+			val = val.getOptimized(oo).getReadOnly();
+			if (val instanceof ConstantValue) {
+				ConstantValue folded = fold(this, oo);
+				if (folded != null)
+					return folded;
+			}
+			Class<? extends Variable> type = val.getResultType();
+			if ((type == Integer64.class || type == Float64.class)
+					&& oo.isEnabled(OptimizerFeature.NUMBERS)) {
+				oo.count(OptimizerFeature.NUMBERS);
+				return new NumberNegativeValue(val);
+			}
 			return this;
 		}
 	}
 
+	/**
+	 * The negative of a number whose type is known while optimizing.
+	 */
+	public static class NumberNegativeValue extends NegativeVarValue {
+		private final boolean integer;
+
+		public NumberNegativeValue(Value val) {
+			super(val);
+			integer = val.getResultType() == Integer64.class;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (integer)
+				return new Integer64(null, getLongValue(renderer, oi, cli));
+			return new Float64(null, getDoubleValue(renderer, oi, cli));
+		}
+
+		@Override
+		public long getLongValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (integer)
+				return -val.getLongValue(renderer, oi, cli);
+			return (long) getDoubleValue(renderer, oi, cli);
+		}
+
+		@Override
+		public double getDoubleValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (integer)
+				return getLongValue(renderer, oi, cli);
+			return -val.getDoubleValue(renderer, oi, cli);
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return integer ? Integer64.class : Float64.class;
+		}
+	}
+
 	/**
 	 * An array of summands with positive or negative signs
 	 * 
@@ -181,39 +627,21 @@ public abstract class Value {
 		 */
 		byte[] signs;
 
-		private static final byte or = 1;
-		private static final byte and = 2;
-		private static final byte xor = 3;
+		public static final byte or = 1;
+		public static final byte and = 2;
+		public static final byte xor = 3;
 
 		/**
-		 * creates a new sum from the given tokens
+		 * creates a new boolean term
 		 * 
-		 * @param token
-		 *            the {@link TermToken} to parse
-		 */
-		public BoolTermValue(TermToken token) {
-			TermToken[] toks = token.getNormalized().split("and|or|xor");
-			operands = new Value[toks.length];
-			signs = new byte[toks.length];
-
-			for (int i = 0; i < toks.length; i++) {
-				if (toks[i].getNTokens() == 1
-						|| toks[i].getToken(0).matches("or"))
-					signs[i] = or;
-				else if (toks[i].getToken(0).matches("and"))
-					signs[i] = and;
-				else if (toks[i].getToken(0).matches("xor"))
-					signs[i] = xor;
-				if (toks[i] instanceof TermToken
-						&& ((TermToken) toks[i]).getNTokens() > 1) {
-					if (ComparisonValue.isComparison(toks[i]))
-						operands[i] = new ComparisonValue(toks[i]);
-					else
-						operands[i] = new AddSubValue(toks[i]).simplify();
-				} else
-					operands[i] = toks[i].getToken(toks[i].getNTokens() - 1)
-							.createValue();
-			}
+		 * @param operands
+		 *            the operands
+		 * @param signs
+		 *            the operator in front of each operand
+		 */
+		public BoolTermValue(Value[] operands, byte[] signs) {
+			this.operands = operands;
+			this.signs = signs;
 		}
 
 		@Override
@@ -242,23 +670,22 @@ public abstract class Value {
 		}
 
 		@Override
-		public String toString() {
-			return "BoolTermValue [signs=" + Arrays.toString(signs)
-					+ ", operands=" + Arrays.toString(operands) + "]";
+		protected boolean hasSameOperators(TermValue other) {
+			return Arrays.equals(signs, ((BoolTermValue) other).signs);
 		}
 
-		public boolean isNotAnOperation() {
-			return signs.length == 1;
+		@Override
+		protected TermValue createTerm(int from, int to) {
+			return new BoolTermValue(Arrays.copyOfRange(operands, from, to),
+					Arrays.copyOfRange(signs, from, to));
 		}
 
 		@Override
-		public Value simplify() {
-			if (isNotAnOperation()) {
-				return operands[0];
-			} else {
-				return this;
-			}
+		public String toString() {
+			return "BoolTermValue [signs=" + Arrays.toString(signs)
+					+ ", operands=" + Arrays.toString(operands) + "]";
 		}
+
 	}
 
 	/**
@@ -274,37 +701,16 @@ public abstract class Value {
 		boolean[] signs;
 
 		/**
-		 * creates a new sum from the given tokens
+		 * creates a new sum
 		 * 
-		 * @param token
-		 *            the {@link TermToken} to parse
+		 * @param operands
+		 *            the summands
+		 * @param signs
+		 *            the signs of the summands
 		 */
-		public AddSubValue(TermToken token) {
-			TermToken[] toks = token.getNormalized().split("[\\+\\-]");
-			operands = new Value[toks.length];
-			signs = new boolean[toks.length];
-
-			for (int i = 0; i < toks.length; i++) {
-				if (toks[i].getNTokens() == 1
-						|| toks[i].getToken(0).matches("\\+"))
-					signs[i] = true;
-				if (toks[i] instanceof TermToken
-						&& ((TermToken) toks[i]).getNTokens() > 1) {
-					operands[i] = new MultDivValue(toks[i]).simplify();
-					// System.out.println(operands[i]);
-				} else
-					operands[i] = toks[i].getToken(toks[i].getNTokens() - 1)
-							.createValue();
-			}
-		}
-
-		@Override
-		public Value simplify() {
-			if (isNotAnOperation()) {
-				return operands[0];
-			} else {
-				return this;
-			}
+		public AddSubValue(Value[] operands, boolean[] signs) {
+			this.operands = operands;
+			this.signs = signs;
 		}
 
 		@Override
@@ -336,15 +742,27 @@ public abstract class Value {
 			}
 		}
 
+		@Override
+		protected boolean hasSameOperators(TermValue other) {
+			return Arrays.equals(signs, ((AddSubValue) other).signs);
+		}
+
+		@Override
+		protected TermValue createTerm(int from, int to) {
+			return new AddSubValue(Arrays.copyOfRange(operands, from, to),
+					Arrays.copyOfRange(signs, from, to));
+		}
+
+		@Override
+		protected TermValue createNumeric(int nIntegers) {
+			return new NumberSumValue(operands, signs, nIntegers);
+		}
+
 		@Override
 		public String toString() {
 			return "AddSubValue [signs=" + Arrays.toString(signs)
 					+ ", operands=" + Arrays.toString(operands) + "]";
 		}
-
-		public boolean isNotAnOperation() {
-			return signs.length == 1 && signs[0] == true;
-		}
 	}
 
 	/**
@@ -357,262 +775,1021 @@ public abstract class Value {
 		Comparison comparison;
 
 		/**
-		 * creates a new comparison from the given tokens
+		 * creates a new comparison value
 		 * 
-		 * @param token
-		 *            the {@link TermToken} to parse
-		 */
-		public ComparisonValue(TermToken token) {
-			TermToken[] toks = token.getNormalized().split("[<>=]|==|<=|>=|!=");
-			if (toks.length != 2 || toks[1].getNTokens() <= 1)
-				throw new InterpreterException("Invalid comparison");
-			Value a = toks[0].createValue();
-			Value b = toks[1].getToken(1).createValue();
-			Token comp = toks[1].getToken(0);
-			if (comp.isTextCommand("<")) {
-				comparison = new LessThan(a, b);
-			} else if (comp.isTextCommand("<=")) {
-				comparison = new LessEqual(a, b);
-			} else if (comp.isTextCommand("==")) {
-				comparison = new Equal(a, b);
-			} else if (comp.isTextCommand(">")) {
-				comparison = new LessThan(b, a);
-			} else if (comp.isTextCommand(">=")) {
-				comparison = new LessEqual(b, a);
-			} else if (comp.isTextCommand("!=")) {
-				comparison = new NotEqual(b, a);
-			} else {
-				throw new InterpreterException("Unknown comparative operand");
-			}
+		 * @param comparison
+		 *            the comparison to evaluate
+		 */
+		public ComparisonValue(Comparison comparison) {
+			this.comparison = comparison;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			return new Bool(null, comparison.compare(renderer, oi, cli));
+		}
+
+		public boolean getBooleanValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			return comparison.compare(renderer, oi, cli);
+		}
+
+		public Comparison getComparison() {
+			return comparison;
+		}
+
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			return comparison.left.isInvariant(oo)
+					&& comparison.right.isInvariant(oo);
+		}
+
+		@Override
+		public boolean isPure() {
+			return comparison.left.isPure() && comparison.right.isPure();
+		}
+
+		@Override
+		public int getNOperands() {
+			return 2;
+		}
+
+		@Override
+		public Value getOperand(int i) {
+			if (i == 0)
+				return comparison.left;
+			if (i == 1)
+				return comparison.right;
+			throw new IndexOutOfBoundsException();
+		}
+
+		@Override
+		public void setOperand(int i, Value operand) {
+			if (i == 0)
+				comparison.left = operand;
+			else if (i == 1)
+				comparison.right = operand;
+			else
+				throw new IndexOutOfBoundsException();
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			if (!(other instanceof ComparisonValue))
+				return false;
+			Comparison o = ((ComparisonValue) other).comparison;
+			return o.getClass() == comparison.getClass()
+					&& comparison.left.isEquivalent(o.left, localShift,
+							globalShift)
+					&& comparison.right.isEquivalent(o.right, localShift,
+							globalShift);
+		}
+
+		@Override
+		public Value getOptimized(OrderOptimizer oo) {
+			if (oo.isExpressionRoot())
+				return oo.optimizeExpression(this);
+
+			Value hoisted = oo.hoist(this);
+			if (hoisted != null)
+				return hoisted;
+
+			comparison = comparison.getOptimized(oo);
+			if (comparison.left instanceof ConstantValue
+					&& comparison.right instanceof ConstantValue) {
+				ConstantValue folded = fold(this, oo);
+				if (folded != null)
+					return folded;
+			}
+			if (isNumber(comparison.left) && isNumber(comparison.right)
+					&& oo.isEnabled(OptimizerFeature.NUMBERS)) {
+				oo.count(OptimizerFeature.NUMBERS);
+				return new NumberComparisonValue(comparison);
+			}
+			return this;
+		}
+
+		private static boolean isNumber(Value value) {
+			Class<? extends Variable> type = value.getResultType();
+			return type == Integer64.class || type == Float64.class;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return Bool.class;
+		}
+	}
+
+	/**
+	 * A comparison of two numbers whose types are known while optimizing.
+	 * Two integers are compared as integers, anything else as floating point
+	 * numbers.
+	 */
+	public static class NumberComparisonValue extends ComparisonValue {
+		private final boolean integers;
+
+		public NumberComparisonValue(Comparison comparison) {
+			super(comparison);
+			integers = comparison.left.getResultType() == Integer64.class
+					&& comparison.right.getResultType() == Integer64.class;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			return new Bool(null, getBooleanValue(renderer, oi, cli));
+		}
+
+		@Override
+		public boolean getBooleanValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (integers)
+				return comparison.compareLongs(
+						comparison.left.getLongValue(renderer, oi, cli),
+						comparison.right.getLongValue(renderer, oi, cli));
+			return comparison.compareDoubles(
+					comparison.left.getDoubleValue(renderer, oi, cli),
+					comparison.right.getDoubleValue(renderer, oi, cli));
+		}
+	}
+
+	/**
+	 * An array of factors
+	 * 
+	 * @author Nicolas Winkler
+	 * 
+	 */
+	public static class MultDivValue extends TermValue {
+		/**
+		 * the exponents of the factors; true is 1, false -1
+		 */
+		boolean[] signs;
+
+		/**
+		 * creates a new product
+		 * 
+		 * @param operands
+		 *            the factors
+		 * @param signs
+		 *            the exponents of the factors
+		 */
+		public MultDivValue(Value[] operands, boolean[] signs) {
+			this.operands = operands;
+			this.signs = signs;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			Variable var = operands[0].getVarValue(renderer, oi, cli).getCopy(
+					null);
+
+			try {
+				boolean integer = var instanceof Integer64;
+				for (int i = 1; i < operands.length; i++) {
+					Variable v = operands[i].getVarValue(renderer, oi, cli);
+
+					if (integer && v instanceof Float64) {
+						var = new Float64(null, var.getDoubleValue());
+						integer = false;
+					}
+
+					if (signs[i])
+						var.multiply(v);
+					else
+						var.divide(v);
+				}
+			} catch (InterpreterException ie) {
+				ie.setCodeLocationInfo(cli);
+				throw ie;
+			}
+			return var;
+		}
+
+		@Override
+		protected boolean hasSameOperators(TermValue other) {
+			return Arrays.equals(signs, ((MultDivValue) other).signs);
+		}
+
+		@Override
+		protected TermValue createTerm(int from, int to) {
+			return new MultDivValue(Arrays.copyOfRange(operands, from, to),
+					Arrays.copyOfRange(signs, from, to));
+		}
+
+		@Override
+		protected TermValue createNumeric(int nIntegers) {
+			return new NumberProductValue(operands, signs, nIntegers);
+		}
+
+		@Override
+		public String toString() {
+			return "MultDivValue [signs=" + Arrays.toString(signs)
+					+ ", operands=" + Arrays.toString(operands) + "]";
+		}
+	}
+
+	public static class PowerValue extends TermValue {
+
+		/**
+		 * creates a new power, evaluated from left to right
+		 * 
+		 * @param operands
+		 *            the base followed by the exponents
+		 */
+		public PowerValue(Value[] operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli)
+				throws InterpreterException {
+			Variable var = operands[0].getVarValue(renderer, oi, cli).getCopy(
+					null);
+
+			try {
+				boolean integer = var instanceof Integer64;
+				for (int i = 1; i < operands.length; i++) {
+					Variable v = operands[i].getVarValue(renderer, oi, cli);
+					if (integer && v instanceof Float64) {
+						var = new Float64(null, var.getDoubleValue());
+						integer = false;
+					}
+					var.pow(v);
+				}
+			} catch (InterpreterException ie) {
+				ie.setCodeLocationInfo(cli);
+				throw ie;
+			}
+			return var;
+		}
+
+		@Override
+		protected TermValue createTerm(int from, int to) {
+			return new PowerValue(Arrays.copyOfRange(operands, from, to));
+		}
+
+		@Override
+		protected TermValue createNumeric(int nIntegers) {
+			return new NumberPowerValue(operands, nIntegers);
+		}
+	}
+
+	/**
+	 * A sum of numbers whose types are known while optimizing. Like
+	 * {@link AddSubValue}, it adds the leading integers as integers and
+	 * everything from the first floating point number on as floating point
+	 * numbers, but it does not create a variable for every step.
+	 */
+	public static class NumberSumValue extends AddSubValue {
+		/**
+		 * the number of integer operands in front of the first floating
+		 * point one
+		 */
+		private final int nIntegers;
+
+		public NumberSumValue(Value[] operands, boolean[] signs, int nIntegers) {
+			super(operands, signs);
+			this.nIntegers = nIntegers;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers == operands.length)
+				return new Integer64(null, getLongValue(renderer, oi, cli));
+			return new Float64(null, getDoubleValue(renderer, oi, cli));
+		}
+
+		@Override
+		public long getLongValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers < operands.length)
+				return (long) getDoubleValue(renderer, oi, cli);
+			return sumIntegers(renderer, oi, cli);
+		}
+
+		@Override
+		public double getDoubleValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers == 0)
+				return sumFloats(operands[0].getDoubleValue(renderer, oi, cli),
+						1, renderer, oi, cli);
+			return sumFloats(sumIntegers(renderer, oi, cli), nIntegers,
+					renderer, oi, cli);
+		}
+
+		private long sumIntegers(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			long sum = operands[0].getLongValue(renderer, oi, cli);
+			for (int i = 1; i < nIntegers; i++) {
+				if (signs[i])
+					sum += operands[i].getLongValue(renderer, oi, cli);
+				else
+					sum -= operands[i].getLongValue(renderer, oi, cli);
+			}
+			return sum;
+		}
+
+		private double sumFloats(double sum, int from,
+				LogoRenderer2D renderer, OrderInterpreter oi,
+				CodeLocationInfo cli) {
+			for (int i = from; i < operands.length; i++) {
+				if (signs[i])
+					sum += operands[i].getDoubleValue(renderer, oi, cli);
+				else
+					sum -= operands[i].getDoubleValue(renderer, oi, cli);
+			}
+			return sum;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return nIntegers == operands.length ? Integer64.class
+					: Float64.class;
+		}
+	}
+
+	/**
+	 * A product of numbers whose types are known while optimizing.
+	 * 
+	 * @see NumberSumValue
+	 */
+	public static class NumberProductValue extends MultDivValue {
+		private final int nIntegers;
+
+		/**
+		 * <code>true</code> if the last factor is 2 and the product of the
+		 * other ones is added to itself instead
+		 */
+		private final boolean doubled;
+
+		public NumberProductValue(Value[] operands, boolean[] signs,
+				int nIntegers) {
+			this(operands, signs, nIntegers, false);
+		}
+
+		private NumberProductValue(Value[] operands, boolean[] signs,
+				int nIntegers, boolean doubled) {
+			super(operands, signs);
+			this.nIntegers = nIntegers;
+			this.doubled = doubled;
+		}
+
+		/**
+		 * divides by powers of two by multiplying with their reciprocal and
+		 * multiplies by 2 by adding a number to itself; both give exactly the
+		 * same result. Other divisions are kept, since the reciprocal would be
+		 * rounded.
+		 */
+		@Override
+		protected Value getReduced() {
+			Value[] reduced = operands.clone();
+			boolean[] reducedSigns = signs.clone();
+			boolean changed = false;
+			for (int i = Math.max(nIntegers, 1); i < reduced.length; i++) {
+				double reciprocal = getExactReciprocal(reduced[i]);
+				if (!reducedSigns[i] && reciprocal != 0) {
+					reduced[i] = new ConstantValue(new Float64(null,
+							reciprocal)).getReadOnly();
+					reducedSigns[i] = true;
+					changed = true;
+				}
+			}
+
+			int nIntegers = this.nIntegers;
+			if (reduced.length == 2 && reducedSigns[1] && isTwo(reduced[0])) {
+				// a constant does not change anything when it is evaluated,
+				// so it can as well be the last factor
+				reduced[0] = reduced[1];
+				reduced[1] = operands[0];
+				if (reduced[0].getResultType() == Float64.class)
+					nIntegers = 0;
+				else if (reduced[1].getResultType() == Float64.class)
+					nIntegers = 1;
+				else
+					nIntegers = 2;
+			}
+
+			boolean doubled = reducedSigns[reduced.length - 1]
+					&& isTwo(reduced[reduced.length - 1]);
+			if (!changed && !doubled)
+				return this;
+			return new NumberProductValue(reduced, reducedSigns, nIntegers,
+					doubled);
+		}
+
+		private static boolean isTwo(Value value) {
+			if (!(value instanceof ConstantValue))
+				return false;
+			Variable val = ((ConstantValue) value).val;
+			if (val instanceof Integer64)
+				return ((Integer64) val).value == 2;
+			return val instanceof Float64 && ((Float64) val).value == 2;
+		}
+
+		/**
+		 * @return the reciprocal of a constant number if it is a power of
+		 *         two, 0 otherwise
+		 */
+		public static double getExactReciprocal(Value value) {
+			if (!(value instanceof ConstantValue))
+				return 0;
+			Variable val = ((ConstantValue) value).val;
+			if (!(val instanceof Integer64 || val instanceof Float64))
+				return 0;
+			double divisor = val.getDoubleValue();
+			int exponent = Math.getExponent(divisor);
+			if (exponent < Double.MIN_EXPONENT
+					|| exponent > Double.MAX_EXPONENT
+					|| Math.abs(divisor) != Math.scalb(1.0, exponent))
+				return 0;
+			return 1 / divisor;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers == operands.length)
+				return new Integer64(null, getLongValue(renderer, oi, cli));
+			return new Float64(null, getDoubleValue(renderer, oi, cli));
+		}
+
+		@Override
+		public long getLongValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers < operands.length)
+				return (long) getDoubleValue(renderer, oi, cli);
+			return multiplyIntegers(renderer, oi, cli);
+		}
+
+		@Override
+		public double getDoubleValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers == 0)
+				return multiplyFloats(
+						operands[0].getDoubleValue(renderer, oi, cli), 1,
+						renderer, oi, cli);
+			return multiplyFloats(multiplyIntegers(renderer, oi, cli),
+					nIntegers, renderer, oi, cli);
+		}
+
+		private long multiplyIntegers(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			int to = doubled && nIntegers == operands.length ? nIntegers - 1
+					: nIntegers;
+			long product = operands[0].getLongValue(renderer, oi, cli);
+			for (int i = 1; i < to; i++) {
+				if (signs[i])
+					product *= operands[i].getLongValue(renderer, oi, cli);
+				else
+					product /= operands[i].getLongValue(renderer, oi, cli);
+			}
+			if (to < nIntegers)
+				product += product;
+			return product;
+		}
+
+		private double multiplyFloats(double product, int from,
+				LogoRenderer2D renderer, OrderInterpreter oi,
+				CodeLocationInfo cli) {
+			int to = doubled && nIntegers < operands.length ? operands.length - 1
+					: operands.length;
+			for (int i = from; i < to; i++) {
+				if (signs[i])
+					product *= operands[i].getDoubleValue(renderer, oi, cli);
+				else
+					product /= operands[i].getDoubleValue(renderer, oi, cli);
+			}
+			if (to < operands.length)
+				product += product;
+			return product;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return nIntegers == operands.length ? Integer64.class
+					: Float64.class;
+		}
+	}
+
+	/**
+	 * A power of numbers whose types are known while optimizing.
+	 * 
+	 * @see NumberSumValue
+	 */
+	public static class NumberPowerValue extends PowerValue {
+		/**
+		 * the largest integer exponent computed by multiplications
+		 */
+		public static final int MAX_INTEGER_EXPONENT = 4;
+
+		/**
+		 * by the exponent, the largest absolute value of an integer whose
+		 * power is at most 2^53. Such powers are computed exactly by
+		 * {@link Math#pow(double, double)}, so multiplying gives the same.
+		 */
+		private static final long[] MAX_EXACT_BASES = { Long.MAX_VALUE,
+				1L << 53, 94906265, 208063, 9741 };
+
+		private final int nIntegers;
+
+		/**
+		 * the constant exponent if the power is computed by multiplications,
+		 * -1 otherwise
+		 */
+		private final int exponent;
+
+		public NumberPowerValue(Value[] operands, int nIntegers) {
+			this(operands, nIntegers, -1);
+		}
+
+		private NumberPowerValue(Value[] operands, int nIntegers, int exponent) {
+			super(operands);
+			this.nIntegers = nIntegers;
+			this.exponent = exponent;
+		}
+
+		/**
+		 * computes an integer power as {@link Integer64#pow(Variable)} does,
+		 * but by multiplying if the result is small enough to be exact either
+		 * way
+		 * 
+		 * @param exponent
+		 *            an exponent from 0 to {@link #MAX_INTEGER_EXPONENT}
+		 */
+		public static long pow(long base, int exponent) {
+			long max = MAX_EXACT_BASES[exponent];
+			if (base < -max || base > max)
+				return (long) Math.pow(base, exponent);
+			long power = 1;
+			for (int i = 0; i < exponent; i++)
+				power *= base;
+			return power;
+		}
+
+		/**
+		 * computes a power with a small constant exponent by multiplying.
+		 * Floating point numbers are only squared, since {@link Math#pow}
+		 * may round higher powers differently.
+		 */
+		@Override
+		protected Value getReduced() {
+			if (operands.length != 2
+					|| !(operands[1] instanceof ConstantValue))
+				return this;
+			Variable val = ((ConstantValue) operands[1]).val;
+			long exponent = val.getLongValue();
+			int max = nIntegers == 2 ? MAX_INTEGER_EXPONENT : 2;
+			if (val.getDoubleValue() != exponent || exponent < 0
+					|| exponent > max)
+				return this;
+			return new NumberPowerValue(operands, nIntegers, (int) exponent);
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers == operands.length)
+				return new Integer64(null, getLongValue(renderer, oi, cli));
+			return new Float64(null, getDoubleValue(renderer, oi, cli));
+		}
+
+		@Override
+		public long getLongValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (nIntegers < operands.length)
+				return (long) getDoubleValue(renderer, oi, cli);
+			if (exponent >= 0)
+				return pow(operands[0].getLongValue(renderer, oi, cli),
+						exponent);
+			return powIntegers(renderer, oi, cli);
+		}
+
+		@Override
+		public double getDoubleValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (exponent >= 0 && nIntegers < operands.length) {
+				double base = nIntegers == 0 ? operands[0].getDoubleValue(
+						renderer, oi, cli) : operands[0].getLongValue(
+						renderer, oi, cli);
+				if (exponent == 0)
+					return 1;
+				return exponent == 1 ? base : base * base;
+			}
+			if (exponent >= 0)
+				return getLongValue(renderer, oi, cli);
+			double power;
+			int i;
+			if (nIntegers == 0) {
+				power = operands[0].getDoubleValue(renderer, oi, cli);
+				i = 1;
+			} else {
+				power = powIntegers(renderer, oi, cli);
+				i = nIntegers;
+			}
+			for (; i < operands.length; i++)
+				power = Math.pow(power,
+						operands[i].getDoubleValue(renderer, oi, cli));
+			return power;
+		}
+
+		private long powIntegers(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			long power = operands[0].getLongValue(renderer, oi, cli);
+			for (int i = 1; i < nIntegers; i++)
+				power = (long) Math.pow(power,
+						operands[i].getLongValue(renderer, oi, cli));
+			return power;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return nIntegers == operands.length ? Integer64.class
+					: Float64.class;
+		}
+	}
+
+	/**
+	 * a function that has first to be invoked to evaluate the return value
+	 * 
+	 * @author Nicolas Winkler
+	 * 
+	 */
+	public static class FunctionValue extends Value {
+		private String name;
+		private Value[] args;
+
+		/**
+		 * the function called, if it has been found while optimizing
+		 */
+		private Function function;
+
+		public FunctionValue(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			if (function != null)
+				return function.getVarValue(renderer, oi, args, cli);
+			Invokeable inv = oi.getSubroutine(name, args.length);
+			if (inv instanceof Function) {
+				Variable var = ((Function) inv).getVarValue(renderer, oi,
+						this.args, cli);
+				return var;
+			}
+			throw new InterpreterException("The function " + name + " with "
+					+ args.length + " arguments " + "doesn't exist.", cli);
+		}
+
+		public Value[] getArgs() {
+			return args;
+		}
+
+		public void setArgs(Value[] args) {
+			this.args = args;
+		}
+
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			Invokeable inv = oo.getSubroutine(name, args.length);
+			if (!(inv instanceof Function) || !((Function) inv).isPure())
+				return false;
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].isInvariant(oo))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isPure() {
+			if (function == null || !function.isPure())
+				return false;
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].isPure())
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int getNOperands() {
+			return args.length;
+		}
+
+		@Override
+		public Value getOperand(int i) {
+			return args[i];
+		}
+
+		@Override
+		public void setOperand(int i, Value operand) {
+			args[i] = operand;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other instanceof FunctionValue && function != null
+					&& ((FunctionValue) other).function == function
+					&& equivalent(args, ((FunctionValue) other).args,
+							localShift, globalShift);
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return function != null ? function.getReturnType() : null;
+		}
+
+		@Override
+		public Value getOptimized(OrderOptimizer oo) {
+			if (oo.isExpressionRoot())
+				return oo.optimizeExpression(this);
+
+			Value hoisted = oo.hoist(this);
+			if (hoisted != null)
+				return hoisted;
+
+			Invokeable inv = oo.getSubroutine(name, args.length);
+			if (inv instanceof Function) {
+				Value inlined = oo.getInlined((Function) inv, args);
+				if (inlined != null)
+					return inlined;
+				function = (Function) inv;
+				oo.count(OptimizerFeature.RESOLUTION);
+			}
+			for (int i = 0; i < args.length; i++) {
+				args[i] = args[i].getOptimized(oo);
+				if (function != null && function.copiesArguments())
+					args[i] = args[i].getReadOnly();
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * 
+	 * @author Nicolas Winkler
+	 * 
+	 */
+	public static class ConstantValue extends Value {
+		// private String token;
+		protected Variable val;
+
+		protected ConstantValue() {
+		}
+
+		public ConstantValue(String token) {
+			val = Variable.createConstant(token);
+		}
+
+		/**
+		 * @param val
+		 *            the value of the constant; must not be changed afterwards
+		 */
+		public ConstantValue(Variable val) {
+			this.val = val;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			return val.getCopy(null);
+		}
+
+		@Override
+		public Value getReadOnly() {
+			return new ReadOnlyConstantValue(val);
+		}
+
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			return true;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			if (!(other instanceof ConstantValue))
+				return false;
+			Variable o = ((ConstantValue) other).val;
+			if (val.getClass() != o.getClass())
+				return false;
+			// 0.0 and -0.0 are equal, but may give different results
+			if (val instanceof Float64)
+				return Double.doubleToLongBits(val.getDoubleValue()) == Double
+						.doubleToLongBits(o.getDoubleValue());
+			if (val instanceof Integer64 || val instanceof Bool
+					|| val instanceof LogoChar || val instanceof LogoString)
+				return val.equalValue(o);
+			return false;
+		}
+
+		@Override
+		public Class<? extends Variable> getResultType() {
+			return val.getClass();
+		}
+
+		@Override
+		public long getLongValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			return val.getLongValue();
 		}
 
 		@Override
-		public Variable getVarValue(LogoRenderer2D renderer,
+		public double getDoubleValue(LogoRenderer2D renderer,
 				OrderInterpreter oi, CodeLocationInfo cli) {
-			return new Bool(null, comparison.compare(renderer, oi, cli));
+			return val.getDoubleValue();
 		}
 
-		public boolean getBooleanValue(LogoRenderer2D renderer,
-				OrderInterpreter oi, CodeLocationInfo cli) {
-			return comparison.compare(renderer, oi, cli);
+		@Override
+		public String toString() {
+			return "ConstantValue [val=" + val + "]";
 		}
+	}
 
-		public Comparison getComparison() {
-			return comparison;
+	/**
+	 * A constant that returns the same variable on every evaluation.
+	 * 
+	 * @see Value#getReadOnly()
+	 */
+	public static class ReadOnlyConstantValue extends ConstantValue {
+		public ReadOnlyConstantValue(Variable val) {
+			super(val);
 		}
 
-		public static boolean isComparison(TermToken token) {
-			TermToken[] toks = token.getNormalized().split("[<>=]|==|<=|>=|!=");
-			if (toks.length != 2 || toks[1].getNTokens() <= 1)
-				return false;
-			return true;
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			return val;
+		}
+
+		@Override
+		public Value getReadOnly() {
+			return this;
 		}
 	}
 
 	/**
-	 * An array of factors
-	 * 
-	 * @author Nicolas Winkler
+	 * A value that does not change while a loop runs.
 	 * 
+	 * @see OrderOptimizer#hoist(Value)
 	 */
-	public static class MultDivValue extends TermValue {
+	public static class InvariantValue extends Value {
 		/**
-		 * the exponents of the factors; true is 1, false -1
+		 * the depth of the loop
 		 */
-		boolean[] signs;
+		protected final int depth;
 
 		/**
-		 * 
-		 * @param token
-		 *            the {@link TermToken} to parse
-		 */
-		public MultDivValue(TermToken token) {
-			TermToken[] toks = token.getNormalized().split("[\\*/]");
-			operands = new Value[toks.length];
-			signs = new boolean[toks.length];
-
-			for (int i = 0; i < toks.length; i++) {
-				signs[i] = true;
-				if (toks[i].getNTokens() != 1
-						&& toks[i].getToken(0).matches("\\/")) {
-					signs[i] = false;
-				}
-				if (toks[i] instanceof TermToken
-						&& ((TermToken) toks[i]).getNTokens() > 1) {
-					operands[i] = new PowerValue(toks[i]).simplify();
-				} else {
-					operands[i] = toks[i].getToken(toks[i].getNTokens() - 1)
-							.createValue();
-				}
-			}
+		 * the number of the value in the loop
+		 */
+		protected final int index;
+
+		protected final Value value;
+
+		public InvariantValue(int depth, int index, Value value) {
+			this.depth = depth;
+			this.index = index;
+			this.value = value;
 		}
 
+		/**
+		 * the result may be kept by a reference, so it is computed again
+		 */
 		@Override
 		public Variable getVarValue(LogoRenderer2D renderer,
 				OrderInterpreter oi, CodeLocationInfo cli) {
-			Variable var = operands[0].getVarValue(renderer, oi, cli).getCopy(
-					null);
-
-			try {
-				boolean integer = var instanceof Integer64;
-				for (int i = 1; i < operands.length; i++) {
-					Variable v = operands[i].getVarValue(renderer, oi, cli);
-
-					if (integer && v instanceof Float64) {
-						var = new Float64(null, var.getDoubleValue());
-						integer = false;
-					}
-
-					if (signs[i])
-						var.multiply(v);
-					else
-						var.divide(v);
-				}
-			} catch (InterpreterException ie) {
-				ie.setCodeLocationInfo(cli);
-				throw ie;
-			}
-			return var;
+			return value.getVarValue(renderer, oi, cli);
 		}
 
 		@Override
-		public String toString() {
-			return "MultDivValue [signs=" + Arrays.toString(signs)
-					+ ", operands=" + Arrays.toString(operands) + "]";
-		}
-
-		public boolean isNotAnOperation() {
-			return signs.length == 1 && signs[0] == true;
+		public Value getReadOnly() {
+			return new ReadOnlyInvariantValue(depth, index, value);
 		}
 
 		@Override
-		public Value simplify() {
-			if (isNotAnOperation()) {
-				return operands[0];
-			} else {
-				return this;
-			}
+		public boolean isPure() {
+			return true;
 		}
-	}
-
-	public static class PowerValue extends TermValue {
-
-		public PowerValue(TermToken token) {
-			TermToken[] toks = token.getNormalized().split("\\^");
-			operands = new Value[toks.length];
 
-			for (int i = 0; i < toks.length; i++) {
-				operands[i] = toks[i].getToken(toks[i].getNTokens() - 1)
-						.createValue();
-			}
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other instanceof InvariantValue
+					&& ((InvariantValue) other).depth == depth
+					&& ((InvariantValue) other).index == index;
 		}
 
 		@Override
-		public Value simplify() {
-			if (isNotAnOperation())
-				return operands[0];
-			return this;
+		public Class<? extends Variable> getResultType() {
+			return value.getResultType();
 		}
+	}
 
-		@Override
-		public boolean isNotAnOperation() {
-			return operands.length == 1;
+	/**
+	 * A value that is computed the first time it is needed in every run of a
+	 * loop.
+	 */
+	public static class ReadOnlyInvariantValue extends InvariantValue {
+		public ReadOnlyInvariantValue(int depth, int index, Value value) {
+			super(depth, index, value);
 		}
 
 		@Override
 		public Variable getVarValue(LogoRenderer2D renderer,
-				OrderInterpreter oi, CodeLocationInfo cli)
-				throws InterpreterException {
-			Variable var = operands[0].getVarValue(renderer, oi, cli).getCopy(
-					null);
-
-			try {
-				boolean integer = var instanceof Integer64;
-				for (int i = 1; i < operands.length; i++) {
-					Variable v = operands[i].getVarValue(renderer, oi, cli);
-					if (integer && v instanceof Float64) {
-						var = new Float64(null, var.getDoubleValue());
-						integer = false;
-					}
-					var.pow(v);
-				}
-			} catch (InterpreterException ie) {
-				ie.setCodeLocationInfo(cli);
-				throw ie;
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			Variable v = oi.getLoopValue(depth, index);
+			if (v == null) {
+				v = value.getVarValue(renderer, oi, cli);
+				oi.setLoopValue(depth, index, v);
 			}
-			return var;
+			return v;
+		}
+
+		@Override
+		public Value getReadOnly() {
+			return this;
 		}
 	}
 
 	/**
-	 * a function that has first to be invoked to evaluate the return value
-	 * 
-	 * @author Nicolas Winkler
+	 * A subexpression whose result is needed again later on. It is computed
+	 * as usual and then kept by the interpreter, so that the following
+	 * occurrences only have to take it.
 	 * 
+	 * @see OrderOptimizer#optimizeExpression(Value)
 	 */
-	public static class FunctionValue extends Value {
-		private String name;
-		private Value[] args;
+	public static class CommonValue extends Value {
+		/**
+		 * the number of the common subexpression
+		 */
+		protected final int index;
 
-		public FunctionValue(String name) {
-			this.name = name;
+		/**
+		 * the subexpression
+		 */
+		protected final Value value;
+
+		public CommonValue(int index, Value value) {
+			this.index = index;
+			this.value = value;
 		}
 
 		@Override
 		public Variable getVarValue(LogoRenderer2D renderer,
 				OrderInterpreter oi, CodeLocationInfo cli) {
-			Invokeable inv = oi.getSubroutine(name, args.length);
-			if (inv instanceof Function) {
-				Variable var = ((Function) inv).getVarValue(renderer, oi,
-						this.args, cli);
-				return var;
-			}
-			throw new InterpreterException("The function " + name + " with "
-					+ args.length + " arguments " + "doesn't exist.", cli);
+			Variable v = value.getVarValue(renderer, oi, cli);
+			oi.setCommonValue(index, v);
+			return v;
 		}
 
-		public Value[] getArgs() {
-			return args;
+		/**
+		 * @return the subexpression this value stands for
+		 */
+		public Value getValue() {
+			return value;
 		}
 
-		public void setArgs(Value[] args) {
-			this.args = args;
+		@Override
+		public boolean isPure() {
+			return value.isPure();
 		}
 
 		@Override
-		public Value getOptimized(OrderOptimizer oo) {
-			for (int i = 0; i < args.length; i++) {
-				args[i] = args[i].getOptimized(oo);
-			}
-			return this;
+		public Class<? extends Variable> getResultType() {
+			return value.getResultType();
 		}
 	}
 
 	/**
-	 * 
-	 * @author Nicolas Winkler
-	 * 
+	 * A later occurrence of a common subexpression, which takes the result
+	 * computed by its first occurrence.
 	 */
-	public static class ConstantValue extends Value {
-		// private String token;
-		protected Variable val;
-
-		protected ConstantValue() {
-		}
-
-		public ConstantValue(String token) {
-			val = Variable.createConstant(token);
+	public static class ReusedValue extends CommonValue {
+		/**
+		 * @param value
+		 *            the subexpression this value replaces
+		 */
+		public ReusedValue(int index, Value value) {
+			super(index, value);
 		}
 
 		@Override
 		public Variable getVarValue(LogoRenderer2D renderer,
 				OrderInterpreter oi, CodeLocationInfo cli) {
-			return val.getCopy(null);
-		}
-
-		@Override
-		public String toString() {
-			return "ConstantValue [val=" + val + "]";
+			return oi.getCommonValue(index);
 		}
 	}
 
@@ -648,6 +1825,26 @@ public abstract class Value {
 			return v;
 		}
 
+		/**
+		 * @return the name of the variable, <code>null</code> if it is not
+		 *         known
+		 */
+		public String getVariableName() {
+			return name;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other.getClass() == getClass()
+					&& ((VariableValue) other).name.equalsIgnoreCase(name);
+		}
+
 		@Override
 		public String toString() {
 			return "VariableValue [name=" + name + "]";
@@ -667,20 +1864,62 @@ public abstract class Value {
 			return null;
 		}
 
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			return oo.isInvariant(name.toLowerCase());
+		}
+
 		@Override
 		public Value getOptimized(OrderOptimizer oo) {
-			StackType st = oo.getStackType(name);
-			int index = oo.getStackIndex(name);
+			String key = name.toLowerCase();
+			Variable constant = oo.getConstant(key);
+			if (constant != null) {
+				oo.count(OptimizerFeature.FOLDING);
+				return new ConstantValue(constant);
+			}
+
+			StackType st = oo.getStackType(key);
+			int index = oo.getStackIndex(key);
 
+			Class<? extends Variable> type = oo.getVariableType(key);
+			if (st != null)
+				oo.count(OptimizerFeature.RESOLUTION);
 			if (st == StackType.LOCAL)
-				return new StackReferenceValue(index);
+				return new StackReferenceValue(index, type);
 			else if (st == StackType.GLOBAL)
-				return new GlobalStackReferenceValue(index);
+				return new GlobalStackReferenceValue(index, type);
+			else if (oo.isInlining())
+				return new GlobalVariableValue(name);
 			else
 				return super.getOptimized(oo);
 		}
 	}
 
+	/**
+	 * a reference by name to a global variable. Used in inlined subroutines,
+	 * which can not see the variables of their caller.
+	 */
+	public static class GlobalVariableValue extends VariableValue {
+		public GlobalVariableValue(String name) {
+			super(name);
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, CodeLocationInfo cli) {
+			Variable v = oi.getGlobalVariable(name);
+			if (v == null)
+				throw new InterpreterException("variable " + name
+						+ " not found.", cli);
+			return v;
+		}
+
+		@Override
+		public Value getOptimized(OrderOptimizer oo) {
+			return this;
+		}
+	}
+
 	public static class ArrayAccessValue extends VariableValue {
 		private Value array;
 		private Value[] indices;
@@ -742,15 +1981,76 @@ public abstract class Value {
 			throw new InterpreterException("Array index out of bounds.", cli);
 		}
 
+		/**
+		 * @return the name of the array variable, <code>null</code> if the
+		 *         array is not a variable
+		 */
+		@Override
+		public String getVariableName() {
+			if (array instanceof VariableValue)
+				return ((VariableValue) array).getVariableName();
+			return null;
+		}
+
+		@Override
+		public boolean isPure() {
+			for (int i = 0; i < indices.length; i++) {
+				if (!indices[i].isPure())
+					return false;
+			}
+			return array.isPure();
+		}
+
+		/**
+		 * the array is evaluated first, followed by the indices from the
+		 * last to the first one
+		 */
+		@Override
+		public int getNOperands() {
+			return indices.length + 1;
+		}
+
+		@Override
+		public Value getOperand(int i) {
+			return i == 0 ? array : indices[indices.length - i];
+		}
+
+		@Override
+		public void setOperand(int i, Value operand) {
+			if (i == 0)
+				array = operand;
+			else
+				indices[indices.length - i] = operand;
+		}
+
+		@Override
+		protected boolean equivalent(Value other, int localShift,
+				int globalShift) {
+			return other instanceof ArrayAccessValue
+					&& array.isEquivalent(((ArrayAccessValue) other).array,
+							localShift, globalShift)
+					&& equivalent(indices, ((ArrayAccessValue) other).indices,
+							localShift, globalShift);
+		}
+
+		@Override
+		public boolean isInvariant(OrderOptimizer oo) {
+			for (int i = 0; i < indices.length; i++) {
+				if (!indices[i].isInvariant(oo))
+					return false;
+			}
+			return array.isInvariant(oo);
+		}
+
 		@Override
 		public Value getOptimized(OrderOptimizer oo) {
 			for (int i = 0; i < indices.length; i++)
-				indices[i] = indices[i].getOptimized(oo);
+				indices[i] = indices[i].getOptimized(oo).getReadOnly();
 
 			if (indices.length == 0)
 				return array.getOptimized(oo);
 
-			array = array.getOptimized(oo);
+			array = array.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -765,12 +2065,6 @@ public abstract class Value {
 			val = new LogoString(null, token);
 		}
 
-		@Override
-		public Variable getVarValue(LogoRenderer2D renderer,
-				OrderInterpreter oi, CodeLocationInfo cli) {
-			return val;
-		}
-
 		@Override
 		public String toString() {
 			return "StringValue [val=" + val + "]";
@@ -794,6 +2088,16 @@ public abstract class Value {
 		}
 
 		protected abstract boolean compareVars(Variable left, Variable right);
+
+		protected abstract boolean compareLongs(long left, long right);
+
+		protected abstract boolean compareDoubles(double left, double right);
+
+		public Comparison getOptimized(OrderOptimizer oo) {
+			left = left.getOptimized(oo).getReadOnly();
+			right = right.getOptimized(oo).getReadOnly();
+			return this;
+		}
 	}
 
 	public static class LessThan extends Comparison {
@@ -804,6 +2108,14 @@ public abstract class Value {
 		protected boolean compareVars(Variable left, Variable right) {
 			return left.lessThan(right);
 		}
+
+		protected boolean compareLongs(long left, long right) {
+			return left < right;
+		}
+
+		protected boolean compareDoubles(double left, double right) {
+			return left < right;
+		}
 	}
 
 	public static class LessEqual extends Comparison {
@@ -814,6 +2126,14 @@ public abstract class Value {
 		protected boolean compareVars(Variable left, Variable right) {
 			return left.lessEqual(right);
 		}
+
+		protected boolean compareLongs(long left, long right) {
+			return left <= right;
+		}
+
+		protected boolean compareDoubles(double left, double right) {
+			return left <= right;
+		}
 	}
 
 	public static class Equal extends Comparison {
@@ -824,6 +2144,14 @@ public abstract class Value {
 		protected boolean compareVars(Variable left, Variable right) {
 			return left.equalValue(right);
 		}
+
+		protected boolean compareLongs(long left, long right) {
+			return left == right;
+		}
+
+		protected boolean compareDoubles(double left, double right) {
+			return left == right;
+		}
 	}
 
 	public static class NotEqual extends Comparison {
@@ -834,5 +2162,13 @@ public abstract class Value {
 		protected boolean compareVars(Variable left, Variable right) {
 			return !left.equalValue(right);
 		}
+
+		protected boolean compareLongs(long left, long right) {
+			return left != right;
+		}
+
+		protected boolean compareDoubles(double left, double right) {
+			return left != right;
+		}
 	}
 }
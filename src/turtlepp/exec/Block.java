@@ -1,11 +1,12 @@
 package turtlepp.exec;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import turtlepp.InterpreterException;
 import turtlepp.LogoRenderer2D;
 import turtlepp.exec.OrderInterpreter.InvokeableList;
-import turtlepp.exec.Tokenizer.Token;
+import turtlepp.exec.fast.Command.Exit;
 
 /**
  * Consists of several instructions that can be run
@@ -20,6 +21,13 @@ public class Block extends Executable {
 	 */
 	Executable[] executables;
 
+	/**
+	 * the line table: for every instruction, the index of the line in the
+	 * source code it was compiled from. Used for error messages instead of
+	 * storing the position in every single instruction.
+	 */
+	int[] lines;
+
 	/**
 	 * used for creating error messages; the position of this block in the
 	 * source code
@@ -35,12 +43,13 @@ public class Block extends Executable {
 	protected Block(int lineOffset) {
 		this.lineOffset = lineOffset;
 		executables = new Executable[0];
+		lines = new int[0];
 		removeGlobals = true;
 	}
 
 	public Block(String code, InvokeableList subroutines, int lineOffset) {
 		this(lineOffset);
-		addToBlock(code, subroutines);
+		new Parser(code, lineOffset).parse(this, subroutines);
 	}
 
 	public Block(String code, InvokeableList subroutines, int lineOffset,
@@ -50,226 +59,93 @@ public class Block extends Executable {
 	}
 
 	/**
-	 * always returns an instance of block, just an optimized version
+	 * always returns an instance of block, just an optimized version.
+	 * Instructions that are never run are removed, unless the optimizer has
+	 * not enabled {@link OptimizerFeature#DEAD_CODE}.
 	 */
 	@Override
 	public Executable getOptimized(OrderOptimizer oo) {
 		oo.pushState();
+		oo.beginBlock();
+		int n = 0;
 		for (int i = 0; i < executables.length; i++) {
-			executables[i] = executables[i].getOptimized(oo);
+			oo.beginStatement();
+			Executable optimized = executables[i].getOptimized(oo);
+			oo.endStatement();
+			if (!oo.isEnabled(OptimizerFeature.DEAD_CODE)) {
+				executables[n] = optimized;
+				lines[n] = lines[i];
+				n++;
+				continue;
+			}
+			if (isEmpty(optimized))
+				continue;
+			executables[n] = optimized;
+			lines[n] = lines[i];
+			n++;
+			if (alwaysExits(optimized)) {
+				// the block is always left here
+				oo.countRemovedStatements(executables.length - i - 1);
+				break;
+			}
 		}
+		oo.endBlock();
 		oo.popState();
 
+		if (n < executables.length) {
+			executables = Arrays.copyOf(executables, n);
+			lines = Arrays.copyOf(lines, n);
+		}
 		return this;
 	}
 
 	/**
-	 * adds a piece of code to the block
-	 * 
-	 * @warning repetitive code
-	 * @param code
-	 *            the code to add
-	 * @param subroutines
-	 *            this function adds subroutines that are defined inside of this
-	 *            block to this list.
+	 * @return <code>true</code> if running the instruction always leaves the
+	 *         enclosing block, e.g. an "exit" command or a statement whose
+	 *         remaining branch ends with one
 	 */
-	protected void addToBlock(String code, InvokeableList subroutines) {
-		String[] lines = Tokenizer.getLines(code);
-
-		ArrayList<Executable> executables = new ArrayList<Executable>();
-
-		for (int i = 0; i < lines.length; i++) {
-			if (lines[i].equals(""))
-				continue;
-
-			Token[] line = Tokenizer.tokenize(lines[i]);
-			if (line.length >= 2 && line[0].isTextCommand("repeat")) {
-				int repeatLevel = 1;
-				int endRepeat = -1;
-
-				// find matching "end repeat"
-				for (int j = i + 1; j < lines.length; j++) {
-					Token[] tline = Tokenizer.tokenize(lines[j]);
-					if (tline.length >= 1
-							&& tline[0].isTextCommand("repeat"))
-						repeatLevel++;
-					else if (tline.length >= 2
-							&& tline[0].isTextCommand("end")
-							&& tline[1].isTextCommand("repeat")) {
-						repeatLevel--;
-					}
-
-					if (repeatLevel <= 0) {
-						endRepeat = j;
-						break;
-					}
-				}
-				if (endRepeat == -1) {
-					throw new InterpreterException(
-							"Syntax error: \"Repeat\" without matching \"End Repeat\"",
-							new CodeLocationInfo(i + lineOffset));
-				}
-
-				String repeatCode = "";
-				for (int j = i; j <= endRepeat; j++) {
-					repeatCode += lines[j] + "\n";
-				}
-				executables.add(new RepeatStatement(repeatCode, subroutines, i
-						+ lineOffset));
-				i = endRepeat;
-			} else if (line.length >= 2 && line[0].isTextCommand("if")) {
-				int ifLevel = 1;
-				int endIf = -1;
-
-				// find matching "end if"
-				for (int j = i + 1; j < lines.length; j++) {
-					Token[] tline = Tokenizer.tokenize(lines[j]);
-					if (tline.length >= 1 && tline[0].isTextCommand("if"))
-						ifLevel++;
-					else if (tline.length >= 2
-							&& tline[0].isTextCommand("end")
-							&& tline[1].isTextCommand("if")) {
-						ifLevel--;
-					}
-
-					if (ifLevel <= 0) {
-						endIf = j;
-						break;
-					}
-				}
-				if (endIf == -1) {
-					throw new InterpreterException(
-							"Syntax error: \"If\" without matching \"End If\"",
-							new CodeLocationInfo(i + lineOffset));
-				}
-
-				String ifCode = "";
-				for (int j = i; j <= endIf; j++) {
-					ifCode += lines[j] + "\n";
-				}
-				executables.add(new IfStatement(ifCode, subroutines, i
-						+ lineOffset));
-				i = endIf;
-			} else if (line.length >= 2 && line[0].isTextCommand("while")) {
-				int whileLevel = 1;
-				int endWhile = -1;
-
-				// find matching "end while"
-				for (int j = i + 1; j < lines.length; j++) {
-					Token[] tline = Tokenizer.tokenize(lines[j]);
-					if (tline.length >= 1 && tline[0].isTextCommand("while"))
-						whileLevel++;
-					else if (tline.length >= 2
-							&& tline[0].isTextCommand("end")
-							&& tline[1].isTextCommand("while")) {
-						whileLevel--;
-					}
-
-					if (whileLevel <= 0) {
-						endWhile = j;
-						break;
-					}
-				}
-				if (endWhile == -1) {
-					throw new InterpreterException(
-							"Syntax error: \"While\" without matching \"End While\"",
-							new CodeLocationInfo(i + lineOffset));
-				}
-
-				String whileCode = "";
-				for (int j = i; j <= endWhile; j++) {
-					whileCode += lines[j] + "\n";
-				}
-				executables.add(new WhileStatement(whileCode, subroutines, i
-						+ lineOffset));
-				i = endWhile;
-			} else if (line.length >= 2 && line[0].isTextCommand("sub")) {
-				int endSub = -1;
-				for (int j = i + 1; j < lines.length; j++) {
-					Token[] tline = Tokenizer.tokenize(lines[j]);
-					if (tline.length >= 2 && tline[0].isTextCommand("end")
-							&& tline[1].isTextCommand("sub")) {
-						endSub = j;
-						break;
-					} else if (tline.length >= 1
-							&& tline[0].isTextCommand("sub")) {
-						throw new InterpreterException(
-								"Syntax error: definition of subroutine inside of another subroutine",
-								new CodeLocationInfo(i + lineOffset));
-					}
-				}
-				if (endSub == -1) {
-					throw new InterpreterException(
-							"Syntax error: \"Sub\" without matching \"End Sub\"",
-							new CodeLocationInfo(i + lineOffset));
-				}
-
-				String subCode = "";
-				for (int j = i; j <= endSub; j++) {
-					subCode += lines[j] + "\n";
-				}
-				if (subroutines == null)
-					throw new InterpreterException(
-							"Invalid definition of subroutine " + line[1],
-							new CodeLocationInfo(i + lineOffset));
-				subroutines.add(new Subroutine(subCode, i + lineOffset));
-				i = endSub;
-			} else if (line.length >= 2 && line[0].isTextCommand("function")) {
-				int endFunction = -1;
-				for (int j = i + 1; j < lines.length; j++) {
-					Token[] tline = Tokenizer.tokenize(lines[j]);
-					if (tline.length >= 2 && tline[0].isTextCommand("end")
-							&& tline[1].isTextCommand("function")) {
-						endFunction = j;
-						break;
-					} else if (tline.length >= 1
-							&& tline[0].isTextCommand("function")) {
-						throw new InterpreterException(
-								"Syntax error: definition of subroutine inside of another subroutine",
-								new CodeLocationInfo(i + lineOffset));
-					}
-				}
-				if (endFunction == -1) {
-					throw new InterpreterException(
-							"Syntax error: \"Function\" without matching \"End Function\"",
-							new CodeLocationInfo(i + lineOffset));
-				}
+	private static boolean alwaysExits(Executable executable) {
+		if (executable instanceof Exit)
+			return true;
+		if (executable.getClass() != Block.class)
+			return false;
+		Executable[] executables = ((Block) executable).executables;
+		return executables.length > 0
+				&& alwaysExits(executables[executables.length - 1]);
+	}
 
-				String funcCode = "";
-				for (int j = i; j <= endFunction; j++) {
-					funcCode += lines[j] + "\n";
-				}
-				if (subroutines == null)
-					throw new InterpreterException(
-							"Invalid definition of subroutine " + line[1],
-							new CodeLocationInfo(i + lineOffset));
-				subroutines.add(new Function(funcCode, i + lineOffset));
-				i = endFunction;
-			} else if (line.length >= 1 && line[0].isTextCommand("else")) {
-				String[] remainingCode = new String[lines.length - i];
-				for (int j = 0; j < remainingCode.length; j++) {
-					remainingCode[j] = lines[j + i];
-				}
-				foundElse(i, remainingCode);
-				break;
-			} else {
-				if (line.length > 0 && !line[0].isTextCommand("end")) {
-					CodeLocationInfo cli = new CodeLocationInfo(i + lineOffset);
-					executables.add(Compiler.compile(lines[i], cli));
-				}
-			}
-		}
+	/**
+	 * @return <code>true</code> if the instruction is a block without any
+	 *         instructions, e.g. a statement whose branches are never run
+	 */
+	private static boolean isEmpty(Executable executable) {
+		return executable.getClass() == Block.class
+				&& ((Block) executable).executables.length == 0;
+	}
 
+	/**
+	 * adds instructions to the end of the block
+	 * 
+	 * @param executables
+	 *            the instructions to add
+	 * @param lines
+	 *            the index of the line in the source code of every instruction
+	 */
+	protected void addExecutables(List<Executable> executables, int[] lines) {
 		Executable[] newArray = new Executable[executables.size()
 				+ this.executables.length];
+		int[] newLines = new int[newArray.length];
 		for (int i = 0; i < this.executables.length; i++) {
 			newArray[i] = this.executables[i];
+			newLines[i] = this.lines[i];
 		}
 		for (int i = this.executables.length; i < newArray.length; i++) {
 			newArray[i] = executables.get(i - this.executables.length);
+			newLines[i] = lines[i - this.executables.length];
 		}
 
 		this.executables = newArray;
+		this.lines = newLines;
 	}
 
 	/*private String[] splitLine(String line) {
@@ -303,34 +179,30 @@ public class Block extends Executable {
 		return arr;
 	}*/
 
-	/**
-	 * invoked, when an else is found in {@link addToBlock}
-	 * 
-	 * @param i
-	 *            the line number of the else
-	 * @param remainingCode
-	 */
-	protected void foundElse(int i, String[] remainingCode) {
-		throw new InterpreterException("Else without If", new CodeLocationInfo(
-				lineOffset + i + 1));
-	}
-
 	@Override
 	public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
 		int variables = 0;
 		ReturnValue ret = ReturnValue.NOTHING;
-		for (int i = 0; i < executables.length; i++) {
-			ReturnValue cb = executables[i].execute(renderer, oi);
-			if (cb == ReturnValue.NEW_VARIABLE_CREATED)
-				variables++;
-			else if (cb != ReturnValue.NOTHING) {
-				ret = cb;
-				break;
+		int i = 0;
+		try {
+			for (; i < executables.length; i++) {
+				ReturnValue cb = executables[i].execute(renderer, oi);
+				if (cb == ReturnValue.NEW_VARIABLE_CREATED)
+					variables++;
+				else if (cb != ReturnValue.NOTHING) {
+					ret = cb;
+					break;
+				}
 			}
+		} catch (InterpreterException ie) {
+			// the instructions do not know where they come from
+			if (ie.getCodeLocationInfo() == null)
+				ie.setCodeLocationInfo(new CodeLocationInfo(lines[i]));
+			throw ie;
 		}
 
 		if (removeGlobals)
-			for (int i = 0; i < variables; i++)
+			for (int j = 0; j < variables; j++)
 				oi.popVariable();
 
 		return ret;
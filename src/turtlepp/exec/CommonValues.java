@@ -0,0 +1,34 @@
+package turtlepp.exec;
+
+import java.util.Arrays;
+
+import turtlepp.datatypes.Variable;
+
+/**
+ * The values of the common subexpressions, which are computed once and then
+ * used again by the same expression or by the statements following it. Every
+ * common subexpression has its own index.
+ *
+ * The main block and every invocation of a subroutine have their own values,
+ * so compiled code can be shared between several runs and recursive calls.
+ *
+ * @see OrderOptimizer#optimizeExpression(turtlepp.datatypes.Value)
+ */
+final class CommonValues {
+	private Variable[] values;
+
+	CommonValues() {
+		values = new Variable[8];
+	}
+
+	Variable get(int index) {
+		return values[index];
+	}
+
+	void set(int index, Variable value) {
+		if (index >= values.length)
+			values = Arrays.copyOf(values, Math.max(index + 1,
+					values.length * 2));
+		values[index] = value;
+	}
+}
@@ -0,0 +1,420 @@
+package turtlepp.exec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import turtlepp.exec.OrderInterpreter.InvokeableList;
+import turtlepp.exec.Parser.Definition;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * A parsed and optimized program. A compiled program does not change while it
+ * is run; all runtime state (variables, call stack) is kept by the
+ * {@link OrderInterpreter} running it, so the same program can be run any
+ * number of times.
+ *
+ * A program can be compiled based on a previous version of it. In this case,
+ * only the definitions whose text has changed are compiled again, and the
+ * ones calling a changed subroutine are relinked. Everything else is taken
+ * over from the previous version.
+ *
+ * Subroutines and functions the program can not call are kept by default,
+ * since they may still be called from the console. A program that is not run
+ * with a console may be compiled without them.
+ *
+ * @see ProgramCache
+ */
+public final class CompiledProgram {
+	/**
+	 * the source code the program was compiled from
+	 */
+	private final String source;
+
+	/**
+	 * the main block
+	 */
+	private final Unit main;
+
+	/**
+	 * all global functions, including the native ones
+	 */
+	private final InvokeableList subroutines;
+
+	/**
+	 * the compiled definitions by their fingerprint
+	 */
+	private final HashMap<String, Unit> units;
+
+	/**
+	 * the optimization level the program has been compiled with
+	 */
+	private final int level;
+
+	/**
+	 * the names of the subroutines the program can not call
+	 */
+	private final ArrayList<String> unreachable;
+
+	/**
+	 * <code>true</code> if the subroutines the program can not call have been
+	 * removed from it
+	 */
+	private final boolean unreachableRemoved;
+
+	/**
+	 * the subroutines that are called by the environment instead of the
+	 * program
+	 */
+	private static final String[] callbacks = { "draw", "mouseclicked",
+			"mousepressed", "mousereleased", "mousedragged", "mousemoved" };
+
+	/**
+	 * A piece of compiled code that can be taken over by the next version of
+	 * a program.
+	 */
+	private static final class Unit {
+		/**
+		 * the compiled subroutine, <code>null</code> for the main block
+		 */
+		final Invokeable invokeable;
+
+		/**
+		 * the compiled main block, <code>null</code> for subroutines
+		 */
+		final Executable code;
+
+		final String fingerprint;
+
+		/**
+		 * the optimizer of the main block
+		 */
+		final OrderOptimizer optimizer;
+
+		Unit(Invokeable invokeable, Executable code, String fingerprint,
+				OrderOptimizer optimizer) {
+			this.invokeable = invokeable;
+			this.code = code;
+			this.fingerprint = fingerprint;
+			this.optimizer = optimizer;
+		}
+
+		boolean isLinked(InvokeableList invokeables,
+				VariableUsage usage) {
+			if (invokeable != null) {
+				// a body that has not been compiled yet would be optimized
+				// using the subroutines of the program it was created for;
+				// since it has not been parsed either, it is cheap to create
+				// it again
+				SubroutineBody body = invokeable.getBody();
+				if (!body.isCompiled())
+					return false;
+				return body.isValid(invokeables, usage);
+			}
+			return optimizer.isValid(invokeables, usage);
+		}
+	}
+
+	/**
+	 * parses and optimizes a program
+	 *
+	 * @param source
+	 *            the program code
+	 */
+	public CompiledProgram(String source) {
+		this(source, null);
+	}
+
+	/**
+	 * parses and optimizes a program, reusing everything that has not changed
+	 * since a previous version
+	 *
+	 * @param source
+	 *            the program code
+	 * @param previous
+	 *            a previously compiled program or <code>null</code>
+	 */
+	public CompiledProgram(String source, CompiledProgram previous) {
+		this(new Parser(source, 0), source, previous,
+				OptimizerFeature.DEFAULT_LEVEL, false);
+	}
+
+	/**
+	 * parses and optimizes a program at a chosen optimization level
+	 *
+	 * @param source
+	 *            the program code
+	 * @param level
+	 *            the optimization level, from {@link OptimizerFeature#MIN_LEVEL}
+	 *            to {@link OptimizerFeature#MAX_LEVEL}
+	 * @see OptimizerFeature
+	 */
+	public CompiledProgram(String source, int level) {
+		this(source, level, false);
+	}
+
+	/**
+	 * parses and optimizes a program at a chosen optimization level
+	 *
+	 * @param source
+	 *            the program code
+	 * @param level
+	 *            the optimization level
+	 * @param removeUnreachable
+	 *            <code>true</code> to remove the subroutines and functions
+	 *            the program can not call, so that they can not be called
+	 *            from the console either
+	 * @see #CompiledProgram(String, int)
+	 */
+	public CompiledProgram(String source, int level,
+			boolean removeUnreachable) {
+		this(new Parser(source, 0), source, null, level, removeUnreachable);
+	}
+
+	/**
+	 * compiles a program out of already tokenized code
+	 *
+	 * @param parser
+	 *            the parser containing the code
+	 * @param source
+	 *            the program code, <code>null</code> if it is not known
+	 * @param previous
+	 *            a previously compiled program or <code>null</code>
+	 * @param level
+	 *            the optimization level
+	 * @param removeUnreachable
+	 *            <code>true</code> to remove the subroutines and functions
+	 *            the program can not call
+	 */
+	CompiledProgram(Parser parser, String source, CompiledProgram previous,
+			int level, boolean removeUnreachable) {
+		if (level < OptimizerFeature.MIN_LEVEL || level > OptimizerFeature.MAX_LEVEL)
+			throw new IllegalArgumentException("invalid optimization level: "
+					+ level);
+		this.source = source;
+		this.level = level;
+		this.unreachableRemoved = removeUnreachable;
+		this.units = new HashMap<String, Unit>();
+		// code optimized at another level can not be taken over
+		if (previous != null && previous.level != level)
+			previous = null;
+		VariableUsage usage = new VariableUsage(parser.getTokens());
+
+		ArrayList<Definition> definitions = parser.getDefinitions();
+		Invokeable[] parsed = new Invokeable[definitions.size()];
+		Unit[] reused = new Unit[definitions.size()];
+		if (previous != null) {
+			for (int i = 0; i < reused.length; i++) {
+				String fingerprint = definitions.get(i).fingerprint;
+				if (fingerprint != null)
+					reused[i] = previous.units.get(fingerprint);
+				if (reused[i] != null)
+					parsed[i] = reused[i].invokeable;
+			}
+		}
+
+		String mainFingerprint = parser.getMainFingerprint();
+		Unit oldMain = null;
+		if (previous != null && mainFingerprint != null
+				&& mainFingerprint.equals(previous.main.fingerprint))
+			oldMain = previous.main;
+
+		Block block = null;
+		if (oldMain == null) {
+			block = createMainBlock();
+			parser.parse(block, parsed);
+		} else {
+			parser.parseDefinitions(parsed);
+			for (int i = 0; i < parsed.length; i++) {
+				if (parsed[i] == null)
+					parsed[i] = parser.parseDefinition(definitions.get(i));
+			}
+		}
+
+		unreachable = findUnreachable(parser.getTokens(), definitions, parsed);
+		if (removeUnreachable) {
+			// every use of a name counts as a call, so nothing that is left
+			// can be linked to a removed definition
+			for (int i = 0; i < parsed.length; i++) {
+				if (unreachable.contains(parsed[i].getName())) {
+					parsed[i] = null;
+					reused[i] = null;
+				}
+			}
+		}
+
+		// a reused definition calling a definition that is not reused has to
+		// be compiled again, which may in turn affect its callers
+		boolean relinked;
+		do {
+			relinked = false;
+			InvokeableList list = createList(parsed);
+			for (int i = 0; i < reused.length; i++) {
+				if (reused[i] != null && !reused[i].isLinked(list, usage)) {
+					parsed[i] = parser.parseDefinition(definitions.get(i));
+					reused[i] = null;
+					relinked = true;
+				}
+			}
+		} while (relinked);
+
+		subroutines = createList(parsed);
+
+		if (oldMain != null && oldMain.isLinked(subroutines, usage)) {
+			main = oldMain;
+		} else {
+			if (block == null) {
+				block = createMainBlock();
+				parser.parse(block, parsed);
+			}
+			OrderOptimizer oo = new OrderOptimizer(subroutines, usage, level);
+			Executable code = oo.optimize(block);
+			main = new Unit(null, code, mainFingerprint, oo);
+		}
+
+		for (int i = 0; i < parsed.length; i++) {
+			if (parsed[i] == null)
+				continue;
+			Unit unit = reused[i];
+			if (unit == null) {
+				// the body is optimized when it is run the first time
+				parsed[i].optimize(new SubroutineOptimizer(subroutines, usage,
+						level));
+				unit = new Unit(parsed[i], null,
+						definitions.get(i).fingerprint, null);
+			}
+			if (unit.fingerprint != null)
+				units.put(unit.fingerprint, unit);
+		}
+	}
+
+	private static Block createMainBlock() {
+		Block block = new Block(0);
+		block.removeGlobals = false;
+		return block;
+	}
+
+	/**
+	 * Finds the definitions that are neither called by the main block nor by
+	 * a callback, directly or through other definitions. Every use of the
+	 * name of a definition counts as a call.
+	 *
+	 * @return the names of the unreachable definitions
+	 */
+	private static ArrayList<String> findUnreachable(Token[][] lines,
+			ArrayList<Definition> definitions, Invokeable[] parsed) {
+		// the lines outside of the definitions
+		ArrayList<VariableUsage> main = new ArrayList<VariableUsage>();
+		int from = 0;
+		for (int i = 0; i < definitions.size(); i++) {
+			Definition definition = definitions.get(i);
+			main.add(new VariableUsage(lines, from, definition.line));
+			from = definition.end + 1;
+		}
+		main.add(new VariableUsage(lines, from, lines.length));
+
+		HashSet<Invokeable> reached = new HashSet<Invokeable>();
+		ArrayList<Invokeable> pending = new ArrayList<Invokeable>();
+		for (int i = 0; i < parsed.length; i++) {
+			String name = parsed[i].getName();
+			boolean root = false;
+			for (int j = 0; j < callbacks.length; j++)
+				root |= callbacks[j].equals(name);
+			for (int j = 0; j < main.size(); j++)
+				root |= main.get(j).uses(name);
+			if (root && reached.add(parsed[i]))
+				pending.add(parsed[i]);
+		}
+		while (!pending.isEmpty()) {
+			VariableUsage called = pending.remove(pending.size() - 1)
+					.getBody().getUsage();
+			for (int i = 0; i < parsed.length; i++) {
+				if (called.uses(parsed[i].getName())
+						&& reached.add(parsed[i]))
+					pending.add(parsed[i]);
+			}
+		}
+
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 0; i < parsed.length; i++) {
+			if (!reached.contains(parsed[i]))
+				names.add(parsed[i].getName());
+		}
+		return names;
+	}
+
+	/**
+	 * creates the list of all subroutines available to the program
+	 */
+	private static InvokeableList createList(Invokeable[] definitions) {
+		InvokeableList list = new InvokeableList();
+		ArrayList<Function> natives = NativeFunction.getNativeFunctions();
+		for (int i = 0; i < natives.size(); i++)
+			list.add(natives.get(i));
+		for (int i = 0; i < definitions.length; i++) {
+			if (definitions[i] != null)
+				list.add(definitions[i]);
+		}
+		return list;
+	}
+
+	/**
+	 * @return the source code the program was compiled from,
+	 *         <code>null</code> if the program has been loaded from a
+	 *         {@link ProgramFile}
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return what the optimizer has removed from the program so far
+	 */
+	public OptimizerStatistics getStatistics() {
+		OptimizerStatistics statistics = new OptimizerStatistics(level,
+				unreachable, unreachableRemoved);
+		if (main.optimizer != null)
+			statistics.add(main.optimizer);
+		ArrayList<Invokeable> invokeables = subroutines.getAsArrayList();
+		for (int i = 0; i < invokeables.size(); i++) {
+			SubroutineBody body = invokeables.get(i).getBody();
+			if (body != null && body.getOptimizer() != null)
+				statistics.add(body.getOptimizer());
+		}
+		return statistics;
+	}
+
+	/**
+	 * @return the optimization level the program has been compiled with
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the main block of the program
+	 */
+	Executable getCode() {
+		return main.code;
+	}
+
+	/**
+	 * Searches the subroutines for a specific subroutine.
+	 *
+	 * @param name
+	 *            the name of the desired routine in lower case
+	 * @param nArguments
+	 *            the amount of argument the subroutine requires
+	 * @return the subroutine or <code>null</code>, if it does not exist
+	 */
+	Invokeable getSubroutine(String name, int nArguments) {
+		return subroutines.get(name, nArguments);
+	}
+
+	/**
+	 * @return all subroutines, including the native ones
+	 */
+	ArrayList<Invokeable> getInvokeables() {
+		return subroutines.getAsArrayList();
+	}
+}
@@ -1,5 +1,8 @@
 package turtlepp.exec;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import turtlepp.InterpreterException;
 import turtlepp.datatypes.Bool;
 import turtlepp.datatypes.Float64;
@@ -13,22 +16,97 @@ import turtlepp.datatypes.Value.VariableValue;
 import turtlepp.exec.Executable.ReturnValue;
 import turtlepp.exec.Tokenizer.ArrayAccessToken;
 import turtlepp.exec.Tokenizer.TermToken;
+import turtlepp.exec.Tokenizer.TextToken;
 import turtlepp.exec.Tokenizer.Token;
 import turtlepp.exec.fast.*;
 
 /**
  * Translates the source code into faster commands. The commands are stored in
  * subclasses of {@link Executable}.
- * 
+ *
+ * Lines starting with a keyword are translated by the {@link CommandFactory}
+ * registered for that keyword (see
+ * {@link #registerCommand(String, int, int, CommandFactory)}), unless they
+ * assign a variable named like the keyword. All other lines are array
+ * definitions, assignments or subroutine calls.
+ *
  * @author Nicolas Winkler
- * 
+ *
  */
 public class Compiler {
 
+	/**
+	 * Creates the {@link Executable} for a line starting with a keyword.
+	 */
+	public interface CommandFactory {
+		/**
+		 * creates the command
+		 *
+		 * @param tokens
+		 *            the tokens of the line, including the keyword
+		 * @param cli
+		 *            the position of the line in the source code
+		 * @return the new command or <code>null</code>, if the line should be
+		 *         compiled as if the keyword was not registered
+		 */
+		Executable create(Token[] tokens, CodeLocationInfo cli);
+	}
+
+	/**
+	 * maximum number of arguments for commands that take arbitrarily many
+	 * arguments
+	 */
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
+	/**
+	 * a registered keyword
+	 */
+	private static class CommandEntry {
+		final int minArguments;
+		final int maxArguments;
+		final CommandFactory factory;
+
+		CommandEntry(int minArguments, int maxArguments, CommandFactory factory) {
+			this.minArguments = minArguments;
+			this.maxArguments = maxArguments;
+			this.factory = factory;
+		}
+	}
+
+	/**
+	 * registered keywords in lower case
+	 */
+	private static final Map<String, CommandEntry> commands = new ConcurrentHashMap<String, CommandEntry>();
+
+	/**
+	 * registers a new command. Lines starting with the keyword (ignoring case)
+	 * and having an allowed number of arguments are created by the factory;
+	 * lines with a different number of arguments are compiled as if the
+	 * keyword was not registered.
+	 *
+	 * A command registered with the same keyword as an existing one replaces
+	 * the existing one.
+	 *
+	 * @param keyword
+	 *            the first token of the line
+	 * @param minArguments
+	 *            minimum number of tokens after the keyword
+	 * @param maxArguments
+	 *            maximum number of tokens after the keyword, or
+	 *            {@link #UNLIMITED}
+	 * @param factory
+	 *            creates the command
+	 */
+	public static void registerCommand(String keyword, int minArguments,
+			int maxArguments, CommandFactory factory) {
+		commands.put(keyword.toLowerCase(), new CommandEntry(minArguments,
+				maxArguments, factory));
+	}
+
 	/**
 	 * tries to create a type of {@link Command}. If that fails, it returns
 	 * itself
-	 * 
+	 *
 	 * @return the new {@link Command} or this
 	 */
 	public static Executable compile(String command, CodeLocationInfo cli) {
@@ -39,179 +117,49 @@ public class Compiler {
 			pe.printStackTrace();
 			throw new ParserException(pe.getMessage(), cli);
 		}
+		return compile(tokens, cli);
+	}
 
-		// System.out.println(Arrays.toString(tokens));
-		// System.out.println(tokens[1].createValue());
-
+	/**
+	 * creates a {@link Command} out of an already tokenized line
+	 *
+	 * @param tokens
+	 *            the tokens of the line
+	 * @param cli
+	 *            the position of the line in the source code
+	 * @return the new {@link Command}
+	 */
+	public static Executable compile(Token[] tokens, CodeLocationInfo cli) {
 		if (tokens == null
 				|| (tokens.length == 1 && tokens[0] instanceof TermToken)) {
 			throw new ParserException(
 					"Invalid Command.", cli);
 		}
-		// System.out.println(Arrays.toString(tokens));
-
-		if (tokens[0].isTextCommand("clear")) {
-			Value r = null, g = null, b = null;
-			if (tokens.length >= 4) {
-				r = tokens[1].createValue();
-				g = tokens[2].createValue();
-				b = tokens[3].createValue();
-			}
-			return new ClearCommand(r, g, b, cli);
-		}
-
-		if (tokens[0].isTextCommand("clearOutput")) {
-			return new Command.ClearOutputCommand(cli);
-		}
-		if (tokens[0].isTextCommand("penUp") || tokens[0].isTextCommand("pu")) {
-			return new SetPenCommand(false, cli);
-		}
-		if (tokens[0].isTextCommand("penDown") || tokens[0].isTextCommand("pd")) {
-			return new SetPenCommand(true, cli);
-		}
-		if (tokens[0].isTextCommand("antialiasingOn")) {
-			return new SetAntialiasingCommand(true, cli);
-		}
-		if (tokens[0].isTextCommand("antialiasingOff")) {
-			return new SetAntialiasingCommand(false, cli);
-		}
-		if (tokens[0].isTextCommand("hideTurtle")
-				|| tokens[0].isTextCommand("ht")) {
-			return new SetTurtleCommand(false, cli);
-		}
-		if (tokens[0].isTextCommand("showTurtle")
-				|| tokens[0].isTextCommand("st")) {
-			return new SetTurtleCommand(true, cli);
-		}
-		if (tokens[0].isTextCommand("pushPosition")) {
-			return new PushPositionCommand(cli);
-		}
-		if (tokens[0].isTextCommand("popPosition")) {
-			return new PopPositionCommand(cli);
-		}
-		if (tokens[0].isTextCommand("resetRotation")) {
-			return new ResetRotationCommand(cli);
-		}
-
-		if (tokens[0].isTextCommand("pushMatrix")) {
-			return new Command.PushMatrix(cli);
-		}
-
-		if (tokens[0].isTextCommand("popMatrix")) {
-			return new Command.PopMatrix(cli);
-		}
-
-		if (tokens[0].isTextCommand("resetMatrix")
-				|| tokens[0].isTextCommand("loadIdentity")) {
-			return new Command.ResetMatrix(cli);
-		}
-
-		if (tokens[0].isTextCommand("reset")) {
-			return new Command.Reset(cli);
-		}
-
-		if (tokens.length < 2 && tokens[0].isTextCommand("exit")) {
-			return new Command.Exit(ReturnValue.EXIT, cli);
-		}
-		if (tokens.length >= 2 && tokens[0].isTextCommand("exit")) {
-			if (tokens[1].isTextCommand("sub")) {
-				return new Command.Exit(ReturnValue.EXIT_SUB, cli);
-			}
-			if (tokens[1].isTextCommand("function")) {
-				return new Command.Exit(ReturnValue.EXIT_FUNCTION, cli);
-			}
-			if (tokens[1].isTextCommand("repeat")) {
-				return new Command.Exit(ReturnValue.EXIT_REPEAT, cli);
-			}
-			if (tokens[1].isTextCommand("while")) {
-				return new Command.Exit(ReturnValue.EXIT_WHILE, cli);
-			}
-		}
 
-		if (tokens.length >= 1 && tokens[0].isTextCommand("print")) {
-			Value[] args = new Value[tokens.length - 1];
-			for (int i = 1; i < tokens.length; i++) {
-				args[i - 1] = tokens[i].createValue();
+		// a variable may be named like a keyword
+		if (tokens[0] instanceof TextToken && !isAssignment(tokens)) {
+			CommandEntry entry = commands.get(tokens[0].getStringToken()
+					.toLowerCase());
+			int arguments = tokens.length - 1;
+			if (entry != null && arguments >= entry.minArguments
+					&& arguments <= entry.maxArguments) {
+				Executable command = entry.factory.create(tokens, cli);
+				if (command != null)
+					return command;
 			}
-			// System.out.println(tokens[1] + " --- " + args[0]);
-			return new Command.Print(args, cli);
-		}
-
-		if (tokens.length == 2 && tokens[0].isTextCommand("sleep")) {
-			Value v = tokens[1].createValue();
-			return new Command.Sleep(v, cli);
-		}
-
-		if (tokens.length == 2
-				&& (tokens[0].isTextCommand("forward") || tokens[0]
-						.isTextCommand("fd"))) {
-			Value v = tokens[1].createValue();
-			return new Command.Forward(v, true, cli);
-		}
-
-		if (tokens.length == 2
-				&& (tokens[0].isTextCommand("backward") || tokens[0]
-						.isTextCommand("bw"))) {
-			Value v = tokens[1].createValue();
-			return new Command.Forward(v, false, cli);
-		}
-
-		if (tokens.length == 2
-				&& (tokens[0].isTextCommand("right") || tokens[0]
-						.isTextCommand("rt"))) {
-			Value v = tokens[1].createValue();
-			return new Command.Turn(v, true, cli);
-		}
-		if (tokens.length == 2
-				&& (tokens[0].isTextCommand("left") || tokens[0]
-						.isTextCommand("lt"))) {
-			Value v = tokens[1].createValue();
-			return new Command.Turn(v, false, cli);
-		}
-
-		if (tokens.length == 2 && tokens[0].isTextCommand("rotate")) {
-			Value v = tokens[1].createValue();
-			return new Command.Rotate(v, cli);
-		}
-
-		if (tokens.length == 3 && tokens[0].isTextCommand("setLength")) {
-			return new Command.SetLength(null, null, cli);
 		}
 
 		arrayInit: if (tokens.length >= 2 && tokens[0] instanceof TermToken) {
 			Token t = ((TermToken) tokens[0]).simplify();
 			if (t instanceof ArrayAccessToken) {
 				ArrayAccessToken aat = (ArrayAccessToken) t;
-				//String varType = aat.getArrayVariable().getStringToken();
 				Value[] length = new Value[aat.getNIndices()];
 				for (int i = 0; i < length.length; i++) {
 					length[i] = aat.getIndex(i).createValue();
 				}
 				String varName = tokens[1].getStringToken();
 				Variable template = aat.createVariableTemplate();
-				//System.out.println(template);
-				
-				/*if (varType.equalsIgnoreCase(Variable
-						.getTypeName(Integer64.class)))
-					template = new Integer64(null);
-				else if (varType.equalsIgnoreCase(Variable
-						.getTypeName(Float64.class)))
-					template = new Float64(null);
-				else if (varType.equalsIgnoreCase(Variable
-						.getTypeName(LogoString.class)))
-					template = new LogoString(null);
-				else if (varType.equalsIgnoreCase(Variable
-						.getTypeName(Bool.class)))
-					template = new Bool(null);
-				else if (varType.equalsIgnoreCase(Variable
-						.getTypeName(Reference.class)))
-					template = new Reference(null);
-				else if (varType.equalsIgnoreCase(Variable
-						.getTypeName(LogoChar.class)))
-					template = new LogoChar(null);
-				else
-					break arrayInit;*/
-				
+
 				if (template == null)
 					break arrayInit;
 
@@ -220,127 +168,8 @@ public class Compiler {
 				return ca;
 			}
 		}
-		if (tokens.length >= 2 && tokens[0].isTextCommand("int")) {
-			Integer64 var = new Integer64(tokens[1].getStringToken());
-			Command.NewVariable fcn = new Command.NewVariable(var, cli);
-			if (tokens.length == 4) {
-				if (tokens[2].isTextCommand("=")) {
-					Value val = tokens[3].createValue();
-					fcn.setInitialValue(val);
-				} else {
-					throw new InterpreterException(
-							"invalid initialization of int "
-									+ tokens[1].getStringToken() + ".", cli);
-				}
-			}
-			return fcn;
-		}
-
-		if (tokens.length >= 2 && tokens[0].isTextCommand("float")) {
-			Float64 var = new Float64(tokens[1].getStringToken());
-			Command.NewVariable fcn = new Command.NewVariable(var, cli);
-			if (tokens.length == 4) {
-				if (tokens[2].isTextCommand("=")) {
-					Value val = tokens[3].createValue();
-					fcn.setInitialValue(val);
-				} else {
-					throw new InterpreterException(
-							"invalid initialization of float "
-									+ tokens[1].getStringToken() + ".", cli);
-				}
-			}
-			return fcn;
-		}
-
-		if (tokens.length >= 2 && tokens[0].isTextCommand("boolean")) {
-			Bool var = new Bool(tokens[1].getStringToken());
-			Command.NewVariable fcn = new Command.NewVariable(var, cli);
-			if (tokens.length == 4) {
-				if (tokens[2].isTextCommand("=")) {
-					Value val = tokens[3].createValue();
-					fcn.setInitialValue(val);
-				} else {
-					throw new InterpreterException(
-							"invalid initialization of boolean "
-									+ tokens[1].getStringToken() + ".", cli);
-				}
-			}
-			return fcn;
-		}
-
-		if (tokens.length >= 2 && tokens[0].isTextCommand("char")) {
-			LogoChar var = new LogoChar(tokens[1].getStringToken());
-			Command.NewVariable fcn = new Command.NewVariable(var, cli);
-			if (tokens.length == 4) {
-				if (tokens[2].isTextCommand("=")) {
-					Value val = tokens[3].createValue();
-					fcn.setInitialValue(val);
-				} else {
-					throw new InterpreterException(
-							"invalid initialization of char "
-									+ tokens[1].getStringToken() + ".", cli);
-				}
-			}
-			return fcn;
-		}
-
-		if (tokens.length >= 2 && tokens[0].isTextCommand("string")) {
-			LogoString var = new LogoString(tokens[1].getStringToken());
-			Command.NewVariable fcn = new Command.NewVariable(var, cli);
-			if (tokens.length == 4) {
-				if (tokens[2].isTextCommand("=")) {
-					Value val = tokens[3].createValue();
-					fcn.setInitialValue(val);
-				} else {
-					throw new InterpreterException(
-							"invalid initialization of string "
-									+ tokens[1].getStringToken() + ".", cli);
-				}
-			}
-			return fcn;
-		}
-
-		if (tokens.length >= 2 && tokens[0].isTextCommand("ref")) {
-			Reference var = new Reference(tokens[1].getStringToken());
-			Command.NewVariable fcn = new Command.NewVariable(var, cli);
-			if (tokens.length == 4) {
-				if (tokens[2].isTextCommand("=")) {
-					Value val = tokens[3].createValue();
-					fcn.setInitialValue(val);
-				} else {
-					throw new InterpreterException(
-							"invalid initialization of ref "
-									+ tokens[1].getStringToken() + ".", cli);
-				}
-			}
-			return fcn;
-		}
-
-		if (tokens.length >= 3 && (tokens[0].isTextCommand("setPosition")
-				|| tokens[0].isTextCommand("setPos"))) {
-			return new Command.SetPos(tokens[1], tokens[2], cli);
-		}
-		if (tokens.length >= 3 && tokens[0].isTextCommand("skew")) {
-			return new Command.Skew(tokens[1], tokens[2], cli);
-		}
-		if (tokens.length >= 3 && tokens[0].isTextCommand("translate")) {
-			return new Command.Translate(tokens[1], tokens[2], cli);
-		}
-		if (tokens.length >= 3 && tokens[0].isTextCommand("scale")) {
-			return new Command.Scale(tokens[1], tokens[2], cli);
-		}
-		if (tokens.length >= 3 && tokens[0].isTextCommand("point")) {
-			return new Command.Point(tokens[1], tokens[2], cli);
-		}
-
-		if (tokens.length >= 3
-				&& (tokens[1].isTextCommand("=")
-						|| tokens[1].isTextCommand("+=")
-						|| tokens[1].isTextCommand("-=")
-						|| tokens[1].isTextCommand("*=") || tokens[1]
-							.isTextCommand("/=")
-				|| tokens[1].isTextCommand("^="))) {
 
+		if (isAssignment(tokens)) {
 			if (tokens[0] instanceof TermToken)
 				tokens[0] = ((TermToken) tokens[0]).simplify();
 
@@ -354,14 +183,9 @@ public class Compiler {
 			Value toSet = tokens[2].createValue();
 
 			if (tokens[1].isTextCommand("=")) {
-				if (variableName instanceof TermToken) {
-					return new Command.Set(VariableValue.create(variableName),
-							toSet, cli);
-				}
 				return new Command.Set(VariableValue.create(variableName),
 						toSet, cli);
 			}
-			// oi.calculate(order[2].token);
 			if (tokens[1].isTextCommand("+=")) {
 				return new Command.Add(VariableValue.create(variableName),
 						toSet, cli);
@@ -384,58 +208,325 @@ public class Compiler {
 			}
 		}
 
-		if (tokens.length >= 4 && tokens[0].isTextCommand("penColor")) {
-			Value r = tokens[1].createValue();
-			Value g = tokens[2].createValue();
-			Value b = tokens[3].createValue();
-			return new Command.PenColor(r, g, b, cli);
-		}
+		String invokeableName = tokens[0].getStringToken();
+		Value[] args = createValues(tokens, 1, tokens.length);
+		return new Command.Invoke(invokeableName, args, cli);
+	}
 
-		if (tokens.length >= 5 && tokens[0].isTextCommand("line")) {
-			Value x1 = tokens[1].createValue();
-			Value y1 = tokens[2].createValue();
-			Value x2 = tokens[3].createValue();
-			Value y2 = tokens[4].createValue();
-			return new Command.Line(x1, y1, x2, y2, cli);
-		}
-		
-		if (tokens.length >= 5 && tokens[0].isTextCommand("ellipse")) {
-			Value x1 = tokens[1].createValue();
-			Value y1 = tokens[2].createValue();
-			Value x2 = tokens[3].createValue();
-			Value y2 = tokens[4].createValue();
-			return new Command.Ellipse(x1, y1, x2, y2, cli);
-		}
+	/**
+	 * @return <code>true</code> if the second token of a line is an
+	 *         assignment operator
+	 */
+	private static boolean isAssignment(Token[] tokens) {
+		return tokens.length >= 3
+				&& (tokens[1].isTextCommand("=")
+						|| tokens[1].isTextCommand("+=")
+						|| tokens[1].isTextCommand("-=")
+						|| tokens[1].isTextCommand("*=") || tokens[1]
+							.isTextCommand("/=")
+				|| tokens[1].isTextCommand("^="));
+	}
 
-		if (tokens.length >= 7 && tokens[0].isTextCommand("triangle")) {
-			Value x1 = tokens[1].createValue();
-			Value y1 = tokens[2].createValue();
-			Value x2 = tokens[3].createValue();
-			Value y2 = tokens[4].createValue();
-			Value x3 = tokens[5].createValue();
-			Value y3 = tokens[6].createValue();
-			return new Command.Triangle(x1, y1, x2, y2, x3, y3, cli);
+	/**
+	 * creates the values of the tokens in [from, to)
+	 */
+	private static Value[] createValues(Token[] tokens, int from, int to) {
+		Value[] values = new Value[to - from];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = tokens[i + from].createValue();
 		}
+		return values;
+	}
 
-		if (tokens.length >= 1 && tokens[0].isTextCommand("polygon")) {
-			if ((tokens.length & 0x01) == 0)
-				throw new InterpreterException(
-						"polygon must have an even amount of arguments.", cli);
+	/**
+	 * registers the same factory for multiple keywords
+	 */
+	private static void registerCommand(String[] keywords, int minArguments,
+			int maxArguments, CommandFactory factory) {
+		for (int i = 0; i < keywords.length; i++)
+			registerCommand(keywords[i], minArguments, maxArguments, factory);
+	}
 
-			Value[] args = new Value[tokens.length - 1];
-			for (int i = 0; i < args.length; i++) {
-				args[i] = tokens[i + 1].createValue();
+	/**
+	 * creates the definition of a new variable, optionally with an initial
+	 * value
+	 */
+	private static abstract class NewVariableFactory implements
+			CommandFactory {
+		protected abstract Variable createVariable(String name);
+
+		@Override
+		public Executable create(Token[] tokens, CodeLocationInfo cli) {
+			Command.NewVariable fcn = new Command.NewVariable(
+					createVariable(tokens[1].getStringToken()), cli);
+			if (tokens.length == 4) {
+				if (tokens[2].isTextCommand("=")) {
+					Value val = tokens[3].createValue();
+					fcn.setInitialValue(val);
+				} else {
+					throw new InterpreterException("invalid initialization of "
+							+ tokens[0].getStringToken().toLowerCase() + " "
+							+ tokens[1].getStringToken() + ".", cli);
+				}
 			}
-			return new Command.Polygon(args, cli);
+			return fcn;
 		}
+	}
 
-		String invokeableName = tokens[0].getStringToken();
-		Value[] args = new Value[tokens.length - 1];
-		for (int i = 0; i < args.length; i++) {
-			args[i] = tokens[i + 1].createValue();
-		}
-		return new Command.Invoke(invokeableName, args, cli);
+	static {
+		registerCommand("clear", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				Value r = null, g = null, b = null;
+				if (tokens.length >= 4) {
+					r = tokens[1].createValue();
+					g = tokens[2].createValue();
+					b = tokens[3].createValue();
+				}
+				return new ClearCommand(r, g, b, cli);
+			}
+		});
+		registerCommand("clearOutput", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.ClearOutputCommand(cli);
+			}
+		});
+		registerCommand(new String[] { "penUp", "pu" }, 0, UNLIMITED,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new SetPenCommand(false, cli);
+					}
+				});
+		registerCommand(new String[] { "penDown", "pd" }, 0, UNLIMITED,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new SetPenCommand(true, cli);
+					}
+				});
+		registerCommand("antialiasingOn", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new SetAntialiasingCommand(true, cli);
+			}
+		});
+		registerCommand("antialiasingOff", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new SetAntialiasingCommand(false, cli);
+			}
+		});
+		registerCommand(new String[] { "hideTurtle", "ht" }, 0, UNLIMITED,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new SetTurtleCommand(false, cli);
+					}
+				});
+		registerCommand(new String[] { "showTurtle", "st" }, 0, UNLIMITED,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new SetTurtleCommand(true, cli);
+					}
+				});
+		registerCommand("pushPosition", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new PushPositionCommand(cli);
+			}
+		});
+		registerCommand("popPosition", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new PopPositionCommand(cli);
+			}
+		});
+		registerCommand("resetRotation", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new ResetRotationCommand(cli);
+			}
+		});
+		registerCommand("pushMatrix", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.PushMatrix(cli);
+			}
+		});
+		registerCommand("popMatrix", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.PopMatrix(cli);
+			}
+		});
+		registerCommand(new String[] { "resetMatrix", "loadIdentity" }, 0,
+				UNLIMITED, new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new Command.ResetMatrix(cli);
+					}
+				});
+		registerCommand("reset", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Reset(cli);
+			}
+		});
+		registerCommand("exit", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				if (tokens.length < 2)
+					return new Command.Exit(ReturnValue.EXIT, cli);
+				if (tokens[1].isTextCommand("sub"))
+					return new Command.Exit(ReturnValue.EXIT_SUB, cli);
+				if (tokens[1].isTextCommand("function"))
+					return new Command.Exit(ReturnValue.EXIT_FUNCTION, cli);
+				if (tokens[1].isTextCommand("repeat"))
+					return new Command.Exit(ReturnValue.EXIT_REPEAT, cli);
+				if (tokens[1].isTextCommand("while"))
+					return new Command.Exit(ReturnValue.EXIT_WHILE, cli);
+				return null;
+			}
+		});
+		registerCommand("print", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Print(
+						createValues(tokens, 1, tokens.length), cli);
+			}
+		});
+		registerCommand("sleep", 1, 1, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Sleep(tokens[1].createValue(), cli);
+			}
+		});
+		registerCommand(new String[] { "forward", "fd" }, 1, 1,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new Command.Forward(tokens[1].createValue(),
+								true, cli);
+					}
+				});
+		registerCommand(new String[] { "backward", "bw" }, 1, 1,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new Command.Forward(tokens[1].createValue(),
+								false, cli);
+					}
+				});
+		registerCommand(new String[] { "right", "rt" }, 1, 1,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new Command.Turn(tokens[1].createValue(), true,
+								cli);
+					}
+				});
+		registerCommand(new String[] { "left", "lt" }, 1, 1,
+				new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new Command.Turn(tokens[1].createValue(), false,
+								cli);
+					}
+				});
+		registerCommand("rotate", 1, 1, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Rotate(tokens[1].createValue(), cli);
+			}
+		});
+		registerCommand("setLength", 2, 2, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.SetLength(null, null, cli);
+			}
+		});
+
+		registerCommand("int", 1, UNLIMITED, new NewVariableFactory() {
+			protected Variable createVariable(String name) {
+				return new Integer64(name);
+			}
+		});
+		registerCommand("float", 1, UNLIMITED, new NewVariableFactory() {
+			protected Variable createVariable(String name) {
+				return new Float64(name);
+			}
+		});
+		registerCommand("boolean", 1, UNLIMITED, new NewVariableFactory() {
+			protected Variable createVariable(String name) {
+				return new Bool(name);
+			}
+		});
+		registerCommand("char", 1, UNLIMITED, new NewVariableFactory() {
+			protected Variable createVariable(String name) {
+				return new LogoChar(name);
+			}
+		});
+		registerCommand("string", 1, UNLIMITED, new NewVariableFactory() {
+			protected Variable createVariable(String name) {
+				return new LogoString(name);
+			}
+		});
+		registerCommand("ref", 1, UNLIMITED, new NewVariableFactory() {
+			protected Variable createVariable(String name) {
+				return new Reference(name);
+			}
+		});
+
+		registerCommand(new String[] { "setPosition", "setPos" }, 2,
+				UNLIMITED, new CommandFactory() {
+					public Executable create(Token[] tokens,
+							CodeLocationInfo cli) {
+						return new Command.SetPos(tokens[1], tokens[2], cli);
+					}
+				});
+		registerCommand("skew", 2, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Skew(tokens[1], tokens[2], cli);
+			}
+		});
+		registerCommand("translate", 2, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Translate(tokens[1], tokens[2], cli);
+			}
+		});
+		registerCommand("scale", 2, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Scale(tokens[1], tokens[2], cli);
+			}
+		});
+		registerCommand("point", 2, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				return new Command.Point(tokens[1], tokens[2], cli);
+			}
+		});
 
-		// return this;
+		registerCommand("penColor", 3, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				Value[] v = createValues(tokens, 1, 4);
+				return new Command.PenColor(v[0], v[1], v[2], cli);
+			}
+		});
+		registerCommand("line", 4, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				Value[] v = createValues(tokens, 1, 5);
+				return new Command.Line(v[0], v[1], v[2], v[3], cli);
+			}
+		});
+		registerCommand("ellipse", 4, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				Value[] v = createValues(tokens, 1, 5);
+				return new Command.Ellipse(v[0], v[1], v[2], v[3], cli);
+			}
+		});
+		registerCommand("triangle", 6, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				Value[] v = createValues(tokens, 1, 7);
+				return new Command.Triangle(v[0], v[1], v[2], v[3], v[4],
+						v[5], cli);
+			}
+		});
+		registerCommand("polygon", 0, UNLIMITED, new CommandFactory() {
+			public Executable create(Token[] tokens, CodeLocationInfo cli) {
+				if ((tokens.length & 0x01) == 0)
+					throw new InterpreterException(
+							"polygon must have an even amount of arguments.",
+							cli);
+				return new Command.Polygon(createValues(tokens, 1,
+						tokens.length), cli);
+			}
+		});
 	}
 }
@@ -16,7 +16,16 @@ public abstract class Executable {
 	 * 
 	 */
 	public enum ReturnValue {
-		NOTHING, EXIT_SUB, NEW_VARIABLE_CREATED, EXIT_FUNCTION, EXIT_WHILE, EXIT_REPEAT, EXIT
+		NOTHING, EXIT_SUB, NEW_VARIABLE_CREATED, EXIT_FUNCTION, EXIT_WHILE, EXIT_REPEAT, EXIT,
+
+		/**
+		 * the subroutine ends with a call whose frame is already prepared;
+		 * the invocation running it continues with the called subroutine
+		 * 
+		 * @see Subroutine#prepareTailCall(LogoRenderer2D, OrderInterpreter,
+		 *      turtlepp.datatypes.Value[], CodeLocationInfo)
+		 */
+		TAIL_CALL
 	}
 
 	/**
@@ -0,0 +1,217 @@
+package turtlepp.exec;
+
+import java.util.ArrayList;
+
+import turtlepp.datatypes.Value;
+import turtlepp.datatypes.Value.AddSubValue;
+import turtlepp.datatypes.Value.BoolTermValue;
+import turtlepp.datatypes.Value.Comparison;
+import turtlepp.datatypes.Value.ComparisonValue;
+import turtlepp.datatypes.Value.MultDivValue;
+import turtlepp.datatypes.Value.PowerValue;
+import turtlepp.exec.Tokenizer.TextToken;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * Turns the tokens of a term into a tree of {@link Value}s using precedence
+ * climbing.
+ *
+ * All operators are left associative. Consecutive operators of the same
+ * precedence are collected into one n-ary node, so <code>a + b - c</code>
+ * becomes a single {@link AddSubValue} with three operands.
+ */
+class ExpressionParser {
+	/**
+	 * precedence of "and", "or" and "xor"
+	 */
+	static final int BOOL = 0;
+
+	/**
+	 * precedence of "&lt;", "&lt;=", "==", "!=", "&gt;=" and "&gt;"
+	 */
+	static final int COMPARISON = 1;
+
+	/**
+	 * precedence of "+" and "-"
+	 */
+	static final int SUM = 2;
+
+	/**
+	 * precedence of "*" and "/"
+	 */
+	static final int PRODUCT = 3;
+
+	/**
+	 * precedence of "^"
+	 */
+	static final int POWER = 4;
+
+	private Token[] tokens;
+	private int position;
+
+	private ExpressionParser(Token[] tokens) {
+		this.tokens = tokens;
+		this.position = 0;
+	}
+
+	/**
+	 * parses a term
+	 *
+	 * @param tokens
+	 *            operands and operators of the term, alternating
+	 * @return the value representing the term
+	 */
+	static Value parse(Token[] tokens) {
+		ExpressionParser parser = new ExpressionParser(tokens);
+		Value value = parser.parseExpression(BOOL);
+		if (parser.position < tokens.length)
+			throw new ParserException("unexpected token "
+					+ tokens[parser.position].getStringToken()
+					+ " in expression.");
+		return value;
+	}
+
+	/**
+	 * determines the precedence of an operator
+	 *
+	 * @param operator
+	 *            the operator
+	 * @return the precedence or -1, if the string is not an operator
+	 */
+	static int getPrecedence(String operator) {
+		if (operator.length() == 1) {
+			switch (operator.charAt(0)) {
+			case '+':
+			case '-':
+				return SUM;
+			case '*':
+			case '/':
+				return PRODUCT;
+			case '^':
+				return POWER;
+			case '<':
+			case '>':
+				return COMPARISON;
+			default:
+				return -1;
+			}
+		}
+		if (operator.equals("<=") || operator.equals(">=")
+				|| operator.equals("==") || operator.equals("!="))
+			return COMPARISON;
+		if (operator.equalsIgnoreCase("and") || operator.equalsIgnoreCase("or")
+				|| operator.equalsIgnoreCase("xor"))
+			return BOOL;
+		return -1;
+	}
+
+	private int getPrecedence(int index) {
+		if (index >= tokens.length || !(tokens[index] instanceof TextToken))
+			return -1;
+		return getPrecedence(tokens[index].getStringToken());
+	}
+
+	/**
+	 * parses operators with at least the given precedence
+	 */
+	private Value parseExpression(int minPrecedence) {
+		Value left = parseOperand();
+		int precedence = getPrecedence(position);
+		while (precedence >= minPrecedence) {
+			ArrayList<Value> operands = new ArrayList<Value>();
+			ArrayList<String> operators = new ArrayList<String>();
+			operands.add(left);
+			while (getPrecedence(position) == precedence) {
+				operators.add(tokens[position++].getStringToken());
+				operands.add(parseExpression(precedence + 1));
+			}
+			left = createOperation(precedence, operands, operators);
+			precedence = getPrecedence(position);
+		}
+		return left;
+	}
+
+	private Value parseOperand() {
+		if (position >= tokens.length) {
+			String last = tokens.length > 0 ? tokens[tokens.length - 1]
+					.getStringToken() : "";
+			throw new ParserException("missing operand after " + last);
+		}
+		Token operand = tokens[position];
+		if (getPrecedence(position) != -1)
+			throw new ParserException("unexpected operator "
+					+ operand.getStringToken());
+		position++;
+		return operand.createValue();
+	}
+
+	/**
+	 * creates the node for a sequence of operators with equal precedence
+	 *
+	 * @param operators
+	 *            the operators; the i-th operator stands between operand i and
+	 *            operand i + 1
+	 */
+	private static Value createOperation(int precedence,
+			ArrayList<Value> operands, ArrayList<String> operators) {
+		Value[] values = operands.toArray(new Value[operands.size()]);
+		switch (precedence) {
+		case BOOL: {
+			byte[] signs = new byte[values.length];
+			signs[0] = BoolTermValue.or;
+			for (int i = 1; i < signs.length; i++) {
+				String op = operators.get(i - 1);
+				if (op.equalsIgnoreCase("and"))
+					signs[i] = BoolTermValue.and;
+				else if (op.equalsIgnoreCase("xor"))
+					signs[i] = BoolTermValue.xor;
+				else
+					signs[i] = BoolTermValue.or;
+			}
+			return new BoolTermValue(values, signs);
+		}
+		case COMPARISON: {
+			Value left = values[0];
+			for (int i = 1; i < values.length; i++)
+				left = new ComparisonValue(createComparison(
+						operators.get(i - 1), left, values[i]));
+			return left;
+		}
+		case SUM: {
+			boolean[] signs = new boolean[values.length];
+			signs[0] = true;
+			for (int i = 1; i < signs.length; i++)
+				signs[i] = operators.get(i - 1).equals("+");
+			return new AddSubValue(values, signs);
+		}
+		case PRODUCT: {
+			boolean[] signs = new boolean[values.length];
+			signs[0] = true;
+			for (int i = 1; i < signs.length; i++)
+				signs[i] = operators.get(i - 1).equals("*");
+			return new MultDivValue(values, signs);
+		}
+		default:
+			return new PowerValue(values);
+		}
+	}
+
+	/**
+	 * creates a comparison of two values; "&gt;", "&gt;=" and "!=" evaluate
+	 * their right operand first
+	 */
+	private static Comparison createComparison(String op, Value a, Value b) {
+		if (op.equals("<"))
+			return new Value.LessThan(a, b);
+		else if (op.equals("<="))
+			return new Value.LessEqual(a, b);
+		else if (op.equals("=="))
+			return new Value.Equal(a, b);
+		else if (op.equals(">"))
+			return new Value.LessThan(b, a);
+		else if (op.equals(">="))
+			return new Value.LessEqual(b, a);
+		else
+			return new Value.NotEqual(b, a);
+	}
+}
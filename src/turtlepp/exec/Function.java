@@ -1,9 +1,7 @@
 package turtlepp.exec;
 
-import java.util.HashMap;
-import java.util.Stack;
+import java.util.List;
 
-import turtlepp.InterpreterException;
 import turtlepp.LogoRenderer2D;
 import turtlepp.datatypes.Reference;
 import turtlepp.datatypes.Value;
@@ -15,32 +13,27 @@ import turtlepp.datatypes.Variable;
  *
  */
 public class Function extends Invokeable {
-	Block block;
-	protected Variable temp;
+	private SubroutineBody body;
 
 	public Function() {
 		super("");
-		block = null;
+		body = null;
 	}
 
-	public Function(String funcCode, int lineOffset) {
-		super("");
-		String first = Tokenizer.getLines(funcCode)[0];
-		String[] firstLine = first.split(" +");
-		if (firstLine.length >= 2 && firstLine[0].equalsIgnoreCase("function")) {
-			name = firstLine[1].toLowerCase();
-		} else {
-			throw new InterpreterException(
-					"internal error; check your use of the \"Function\" statement");
-		}
-
-		arguments = new String[firstLine.length - 2];
-		for (int i = 2; i < firstLine.length; i++) {
-			arguments[i - 2] = firstLine[i];
-		}
-
-		String rest = funcCode.substring(first.length());
-		block = new Block(rest, null, lineOffset);
+	/**
+	 * creates a new function
+	 * 
+	 * @param name
+	 *            the name of the function
+	 * @param arguments
+	 *            the names of the arguments
+	 * @param body
+	 *            the instructions to run when invoked
+	 */
+	Function(String name, String[] arguments, SubroutineBody body) {
+		super(name);
+		this.arguments = arguments;
+		this.body = body;
 	}
 
 	public Function(String name) {
@@ -48,70 +41,77 @@ public class Function extends Invokeable {
 	}
 
 	/**
-	 * is called before any variable is initialized, used e.g by
-	 * {@link Function} to push the return variable on the stack.
+	 * invokes the function and evaluates its return value. The return value
+	 * is the variable named like the function.
+	 * 
+	 * @return the return value
 	 */
-	protected void justInvoked() {
-		pushVariable(new Reference(name));
-	}
-
-	/**
-	 * is called before the variables are destroyed.
-	 */
-	protected void justFinished() {
-		Variable nam = getVariable(name);
-		if (nam instanceof Reference)
-			temp = ((Reference) nam).wrapped;
-		else
-			temp = nam;
-	}
-
 	public Variable getVarValue(LogoRenderer2D renderer, OrderInterpreter oi,
 			Value[] args, CodeLocationInfo cli) {
-		invoke(renderer, oi, args, cli);
-		return temp;
+		StackFrame frame = createFrame(renderer, oi, args, cli);
+
+		MemoTable memo = null;
+		List<Object> key = null;
+		if (body.isPure(this)) {
+			memo = oi.getMemoTable(this);
+			key = MemoTable.createKey(frame, arguments.length);
+			if (key != null) {
+				Variable result = memo.get(key);
+				if (result != null)
+					return result.getCopy(name);
+			}
+		}
+
+		frame.pushVariable(new Reference(name));
+
+		oi.pushFrame(frame);
+		try {
+			body.getBlock().execute(renderer, oi);
+		} finally {
+			oi.popFrame();
+		}
+
+		Variable ret = frame.getVariable(name);
+		if (ret instanceof Reference)
+			ret = ((Reference) ret).wrapped;
+		if (key != null && ret != null)
+			memo.put(key, ret);
+		return ret;
 	}
 
 	@Override
 	public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
 			Value[] args, CodeLocationInfo cli) {
-		if (arguments.length != args.length)
-			throw new InterpreterException("subroutine " + name
-					+ " called with " + args.length + " arguments; "
-					+ arguments.length + " required.");
-
-		Stack<Variable> tempStack = stack; // store the old stack
-		HashMap<String, Integer> tempRef = variableIndices;
-
-		variableIndices = new HashMap<String, Integer>();
-		stack = new Stack<Variable>();
-
-		for (int i = 0; i < arguments.length; i++) {
-			Stack<Variable> stTemp = stack;
-			HashMap<String, Integer> hmTemp = variableIndices;
-			stack = tempStack;
-			variableIndices = tempRef;
-			Variable v = args[i].getVarValue(renderer, oi, cli).getCopy(
-					arguments[i]);
-			stack = stTemp;
-			variableIndices = hmTemp;
-			pushVariable(v);
-		}
-
-		justInvoked();
-
-		oi.pushInvokable(this);
-		block.execute(renderer, oi);
-		oi.popInvokable();
+		getVarValue(renderer, oi, args, cli);
+	}
 
-		justFinished();
+	/**
+	 * determines if the function depends on nothing but its arguments and
+	 * does not change anything, so that calling it again with equal arguments
+	 * gives an equal result
+	 * 
+	 * @return <code>true</code> if the function is pure
+	 */
+	public boolean isPure() {
+		return false;
+	}
 
-		stack = tempStack;
-		variableIndices = tempRef;
+	/**
+	 * @return the class of the variable every call returns,
+	 *         <code>null</code> if it is not known before calling the
+	 *         function
+	 */
+	public Class<? extends Variable> getReturnType() {
+		return null;
 	}
 
 	@Override
 	public void optimize(SubroutineOptimizer so) {
-		block = (Block) block.getOptimized(so);
+		body.setOptimizer(so);
+	}
+
+	@Override
+	SubroutineBody getBody() {
+		return body;
 	}
 }
@@ -6,7 +6,6 @@ import turtlepp.datatypes.Bool;
 import turtlepp.datatypes.Value;
 import turtlepp.datatypes.Variable;
 import turtlepp.datatypes.Value.*;
-import turtlepp.exec.OrderInterpreter.InvokeableList;
 import turtlepp.exec.Tokenizer.Token;
 
 public class IfStatement extends Block {
@@ -17,10 +16,16 @@ public class IfStatement extends Block {
 		super(lineIndex);
 	}
 
-	public IfStatement(String code, InvokeableList subroutines, int lineIndex) {
+	/**
+	 * creates an if statement without any instructions
+	 * 
+	 * @param tokens
+	 *            the tokens of the line starting the statement
+	 * @param lineIndex
+	 *            the index of that line
+	 */
+	IfStatement(Token[] tokens, int lineIndex) {
 		this(lineIndex);
-		String first = Tokenizer.getLines(code)[0];
-		Token[] tokens = Tokenizer.tokenize(first);
 		if (tokens.length == 2 && tokens[0].isTextCommand("if")) {
 			createComparison(tokens[1]);
 		} else {
@@ -30,9 +35,6 @@ public class IfStatement extends Block {
 		}
 
 		elseBlock = null;
-
-		String rest = code.substring(first.length());
-		addToBlock(rest, subroutines);
 	}
 
 	protected void createComparison(Token compToken) {
@@ -42,42 +44,85 @@ public class IfStatement extends Block {
 
 	protected boolean checkCondition(LogoRenderer2D renderer,
 			OrderInterpreter oi) {
+		try {
+			if (condition instanceof ComparisonValue) {
+				return ((ComparisonValue) condition).getBooleanValue(renderer,
+						oi, null);
+			}
 
-		if (condition instanceof ComparisonValue) {
-			return ((ComparisonValue) condition).getComparison().compare(
-					renderer, oi, new CodeLocationInfo(lineOffset));
+			Variable a = condition.getVarValue(renderer, oi, null);
+			if (a instanceof Bool)
+				return ((Bool) a).value;
+			else
+				return ((Bool) a.cast(Bool.class)).value;
+		} catch (InterpreterException ie) {
+			// an "else if" condition is not on the line of the enclosing
+			// statement, so the position is not left to the enclosing block
+			if (ie.getCodeLocationInfo() == null)
+				ie.setCodeLocationInfo(new CodeLocationInfo(lineOffset));
+			throw ie;
 		}
+	}
 
-		Variable a = condition.getVarValue(renderer, oi, new CodeLocationInfo(
-				lineOffset));
-		if (a instanceof Bool)
-			return ((Bool) a).value;
-		else
-			return ((Bool) a.cast(Bool.class)).value;
+	/**
+	 * sets the block that is run if the condition is not fulfilled
+	 * 
+	 * @param elseBlock
+	 *            the block to run; may also be another {@link IfStatement}
+	 */
+	void setElseBlock(Block elseBlock) {
+		this.elseBlock = elseBlock;
 	}
 
+	/**
+	 * optimizes the condition, the instructions and the else branch. If the
+	 * condition is always the same, the branch that is never run is removed.
+	 */
 	@Override
-	protected void foundElse(int line, String[] remainingCode) {
-		String code = "";
-		for (int i = 1; i < remainingCode.length; i++) {
-			code += remainingCode[i] + "\n";
+	public Executable getOptimized(OrderOptimizer oo) {
+		condition = condition.getOptimized(oo).getReadOnly();
+		Boolean constant = getConstantCondition(oo);
+		if (constant != null) {
+			oo.countPrunedBranch();
+			if (constant) {
+				Block block = new Block(lineOffset);
+				block.executables = executables;
+				block.lines = lines;
+				return block.getOptimized(oo);
+			}
+			if (elseBlock == null)
+				return new Block(lineOffset);
+			// the else branch is still run by this statement, since an
+			// "exit" command in it does not leave the enclosing block
+			executables = new Executable[0];
+			lines = new int[0];
 		}
-		String[] elseStatement = remainingCode[0].split("\\s+");
-		if (elseStatement.length == 1) {
-			elseBlock = new Block(code, null, lineOffset + line);
-		} else if (elseStatement.length > 2) {
-			boolean cond = elseStatement[0].equals("else")
-					&& elseStatement[1].equals("if");
+		return optimizeBranches(oo);
+	}
 
-			String ifLine = "";
-			for (int i = 1; i < elseStatement.length; i++) {
-				ifLine += elseStatement[i] + " ";
-			}
+	/**
+	 * optimizes the instructions and the else branch
+	 */
+	protected Executable optimizeBranches(OrderOptimizer oo) {
+		if (elseBlock != null)
+			elseBlock = (Block) elseBlock.getOptimized(oo);
+		return super.getOptimized(oo);
+	}
 
-			if (cond) {
-				elseBlock = new IfStatement(ifLine + "\n" + code, null,
-						lineOffset + line);
-			}
+	/**
+	 * @return the result of the optimized condition if it never changes,
+	 *         <code>null</code> if it has to be checked at runtime or if the
+	 *         optimizer does not enable {@link OptimizerFeature#DEAD_CODE}
+	 */
+	protected Boolean getConstantCondition(OrderOptimizer oo) {
+		if (!(condition instanceof ConstantValue)
+				|| !oo.isEnabled(OptimizerFeature.DEAD_CODE))
+			return null;
+		try {
+			return checkCondition(null, null);
+		} catch (RuntimeException e) {
+			// an error to report when running the program
+			return null;
 		}
 	}
 
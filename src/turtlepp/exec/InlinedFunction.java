@@ -0,0 +1,39 @@
+package turtlepp.exec;
+
+import turtlepp.LogoRenderer2D;
+import turtlepp.datatypes.Reference;
+import turtlepp.datatypes.Value;
+import turtlepp.datatypes.Variable;
+
+/**
+ * A call of a function whose body has been copied into the caller. Like the
+ * arguments, the return value is kept on the stack of the caller without a
+ * name.
+ * 
+ * @see OrderOptimizer#getInlined(Function, Value[])
+ */
+final class InlinedFunction extends Value {
+	private final Value[] args;
+
+	/**
+	 * the body, optimized in the context of the caller
+	 */
+	private final Block body;
+
+	InlinedFunction(Value[] args, Block body) {
+		this.args = args;
+		this.body = body;
+	}
+
+	@Override
+	public Variable getVarValue(LogoRenderer2D renderer, OrderInterpreter oi,
+			CodeLocationInfo cli) {
+		InlinedSubroutine.pushArguments(renderer, oi, args, cli);
+		Reference ret = new Reference(null);
+		oi.pushVariable(ret);
+		body.execute(renderer, oi);
+		for (int i = 0; i <= args.length; i++)
+			oi.popVariable();
+		return ret.wrapped;
+	}
+}
@@ -0,0 +1,56 @@
+package turtlepp.exec;
+
+import turtlepp.LogoRenderer2D;
+import turtlepp.datatypes.Value;
+import turtlepp.datatypes.Variable;
+
+/**
+ * A call of a subroutine whose body has been copied into the caller. The
+ * arguments and the variables of the body are kept on the stack of the caller
+ * without a name, so they are not visible to anything else.
+ * 
+ * @see OrderOptimizer#getInlined(Invokeable, Value[])
+ */
+final class InlinedSubroutine extends Executable {
+	private final Value[] args;
+
+	/**
+	 * the body, optimized in the context of the caller
+	 */
+	private final Block body;
+
+	InlinedSubroutine(Value[] args, Block body) {
+		this.args = args;
+		this.body = body;
+	}
+
+	/**
+	 * evaluates the arguments in the context of the caller and pushes copies
+	 * of them onto the stack
+	 */
+	static void pushArguments(LogoRenderer2D renderer, OrderInterpreter oi,
+			Value[] args, CodeLocationInfo cli) {
+		if (args.length == 1) {
+			oi.pushVariable(args[0].getVarValue(renderer, oi, cli)
+					.getCopy(null));
+			return;
+		}
+		Variable[] values = new Variable[args.length];
+		for (int i = 0; i < args.length; i++)
+			values[i] = args[i].getVarValue(renderer, oi, cli).getCopy(null);
+		for (int i = 0; i < values.length; i++)
+			oi.pushVariable(values[i]);
+	}
+
+	@Override
+	public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
+		pushArguments(renderer, oi, args, null);
+		// "exit sub" only leaves the inlined body
+		ReturnValue cb = body.execute(renderer, oi);
+		if (cb == ReturnValue.EXIT_REPEAT)
+			renderer.printErrLine("Exit Repeat without repeat");
+		for (int i = 0; i < args.length; i++)
+			oi.popVariable();
+		return ReturnValue.NOTHING;
+	}
+}
@@ -1,17 +1,14 @@
 package turtlepp.exec;
 
-import java.util.HashMap;
-import java.util.Stack;
-
+import turtlepp.InterpreterException;
 import turtlepp.LogoRenderer2D;
 import turtlepp.datatypes.Value;
-import turtlepp.datatypes.Variable;
 
 /**
  * Base class for subroutines
- * 
+ *
  * @author nicolas.winkler
- * 
+ *
  */
 public abstract class Invokeable {
 	/**
@@ -24,76 +21,42 @@ public abstract class Invokeable {
 	 */
 	protected String[] arguments;
 
-	/**
-	 * variable stack
-	 */
-	protected Stack<Variable> stack;
-
-	/**
-	 * Contains keys and indices of variable variableIndices.get("blah").
-	 * Returns the index of the variable blah in the stack (if this variable
-	 * exists)
-	 */
-	protected HashMap<String, Integer> variableIndices;
-
 	protected Invokeable(String name) {
 		this.name = name.toLowerCase();
 	}
 
 	/**
-	 * Searches for a specified variable
-	 * 
-	 * @param name
-	 *            the name of the variable
-	 * @return the variable, if it exists, {@code null} otherwise
-	 */
-	public Variable getVariable(String name) {
-		Integer index = variableIndices.get(name);
-		if (index != null)
-			return stack.get(index);
-		return null;
-	}
-
-	public Variable getVariableFromStack(int fromTop) {
-		return stack.get(stack.size() - fromTop);
-	}
-
-	/**
-	 * finds a variable and returns its index from the top of the stack
-	 * 
-	 * @param name
-	 * @return
-	 */
-	public int getStackIndex(String name) {
-		Integer index = variableIndices.get(name);
-		return stack.size() - index - 1;
-	}
-
-	/**
-	 * Pushes a variable on the stack
-	 * 
-	 * @param var
-	 *            the variable
-	 */
-	public void pushVariable(Variable var) {
-		stack.push(var);
-		variableIndices.put(var.getName(), stack.size() - 1);
-	}
-
-	/**
-	 * Removes the last pushed variable
-	 * 
-	 * @return
+	 * creates the frame for a new invocation and pushes the arguments on it.
+	 * The arguments are evaluated in the context of the caller.
+	 *
+	 * @param renderer
+	 *            the renderer to draw stuff
+	 * @param oi
+	 *            where the global variables are stored
+	 * @param args
+	 *            the arguments for the subroutine
+	 * @param cli
+	 *            information for exceptions
+	 * @return the new frame
 	 */
-	public Variable popVariable() {
-		Variable v = stack.pop();
-		variableIndices.remove(v.getName());
-		return v;
+	protected StackFrame createFrame(LogoRenderer2D renderer,
+			OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
+		if (arguments.length != args.length)
+			throw new InterpreterException("subroutine " + name
+					+ " called with " + args.length + " arguments; "
+					+ arguments.length + " required.");
+
+		StackFrame frame = new StackFrame(this);
+		for (int i = 0; i < arguments.length; i++) {
+			frame.pushVariable(args[i].getVarValue(renderer, oi, cli).getCopy(
+					arguments[i]));
+		}
+		return frame;
 	}
 
 	/**
 	 * invoke the routine
-	 * 
+	 *
 	 * @param renderer
 	 *            the renderer to draw stuff
 	 * @param oi
@@ -102,14 +65,14 @@ public abstract class Invokeable {
 	 *            the arguments for the subroutine
 	 * @param cli
 	 *            information for exceptions
-	 * 
+	 *
 	 */
 	public abstract void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
 			Value[] args, CodeLocationInfo cli);
 
 	/**
 	 * gets the number of arguments requested for this function
-	 * 
+	 *
 	 * @return the number of arguments
 	 */
 	public int getNArguments() {
@@ -118,12 +81,29 @@ public abstract class Invokeable {
 
 	/**
 	 * gets the name of the subroutine
-	 * 
+	 *
 	 * @return
 	 */
 	public String getName() {
 		return name;
 	}
 
+	/**
+	 * @return <code>true</code> if the invokeable only works on copies of the
+	 *         variables passed to it, so that they may be read only
+	 * @see Value#getReadOnly()
+	 */
+	public boolean copiesArguments() {
+		return true;
+	}
+
 	public abstract void optimize(SubroutineOptimizer subroutineOptimizer);
+
+	/**
+	 * @return the instructions of the subroutine, <code>null</code> if it is
+	 *         not defined in the code
+	 */
+	SubroutineBody getBody() {
+		return null;
+	}
 }
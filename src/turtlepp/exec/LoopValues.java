@@ -0,0 +1,52 @@
+package turtlepp.exec;
+
+import java.util.Arrays;
+
+import turtlepp.datatypes.Variable;
+
+/**
+ * The values computed only once per run of a loop because they do not change
+ * inside of it. Every loop keeps its values at the index of its depth, which
+ * is the number of loops around it in the same block of code; only one loop
+ * of every depth can run at a time.
+ *
+ * The main block and every invocation of a subroutine have their own values,
+ * so compiled code can be shared between several runs and recursive calls.
+ */
+final class LoopValues {
+	private Variable[][] values;
+
+	LoopValues() {
+		values = new Variable[4][];
+	}
+
+	/**
+	 * forgets the values of the loop of a given depth before it is run
+	 *
+	 * @param depth
+	 *            the depth of the loop
+	 * @param n
+	 *            the number of values the loop computes
+	 */
+	void clear(int depth, int n) {
+		if (depth >= values.length)
+			values = Arrays.copyOf(values, Math.max(depth + 1,
+					values.length * 2));
+		Variable[] loop = values[depth];
+		if (loop == null || loop.length < n)
+			values[depth] = new Variable[n];
+		else
+			Arrays.fill(loop, 0, n, null);
+	}
+
+	/**
+	 * @return the value, <code>null</code> if it has not been computed yet
+	 */
+	Variable get(int depth, int index) {
+		return values[depth][index];
+	}
+
+	void set(int depth, int index, Variable value) {
+		values[depth][index] = value;
+	}
+}
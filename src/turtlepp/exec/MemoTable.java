@@ -0,0 +1,163 @@
+package turtlepp.exec;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import turtlepp.datatypes.Bool;
+import turtlepp.datatypes.Float64;
+import turtlepp.datatypes.Integer64;
+import turtlepp.datatypes.LogoChar;
+import turtlepp.datatypes.LogoString;
+import turtlepp.datatypes.Variable;
+
+/**
+ * The results of a pure function by the values of its arguments, so that a
+ * call with arguments seen before does not run the function again. Only
+ * numbers, booleans, characters and strings are kept. The table holds at most
+ * {@link #MAX_ENTRIES} results; the one used least recently is removed first.
+ *
+ * @see Purity
+ */
+public final class MemoTable {
+	/**
+	 * the maximum number of results kept
+	 */
+	public static final int MAX_ENTRIES = 1024;
+
+	/**
+	 * the name of the function
+	 */
+	private final String name;
+
+	/**
+	 * the results by the values of the arguments, in the order they have been
+	 * used
+	 */
+	private final LinkedHashMap<List<Object>, Variable> results;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * @param name
+	 *            the name of the function
+	 */
+	MemoTable(String name) {
+		this.name = name;
+		this.results = new LinkedHashMap<List<Object>, Variable>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<List<Object>, Variable> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+	}
+
+	/**
+	 * creates the key of a call out of the arguments on a new frame
+	 *
+	 * @param frame
+	 *            the frame holding nothing but the arguments
+	 * @param nArguments
+	 *            the number of arguments
+	 * @return the values of the arguments, <code>null</code> if one of them
+	 *         can not be kept
+	 */
+	static List<Object> createKey(StackFrame frame, int nArguments) {
+		ArrayList<Object> key = new ArrayList<Object>(nArguments);
+		for (int i = 0; i < nArguments; i++) {
+			Object value = getValue(frame.getVariableFromStack(nArguments - i));
+			if (value == null)
+				return null;
+			key.add(value);
+		}
+		return key;
+	}
+
+	/**
+	 * @return the value of a variable as a Java object, <code>null</code> if
+	 *         it can not be kept
+	 */
+	private static Object getValue(Variable var) {
+		if (var instanceof Integer64)
+			return ((Integer64) var).value;
+		else if (var instanceof Float64)
+			return ((Float64) var).value;
+		else if (var instanceof Bool)
+			return ((Bool) var).value;
+		else if (var instanceof LogoChar)
+			return ((LogoChar) var).value;
+		else if (var instanceof LogoString)
+			return ((LogoString) var).value;
+		return null;
+	}
+
+	/**
+	 * searches the result of a call
+	 *
+	 * @param key
+	 *            the values of the arguments
+	 * @return the result, <code>null</code> if it is not known
+	 */
+	Variable get(List<Object> key) {
+		Variable result = results.get(key);
+		if (result != null)
+			hits++;
+		else
+			misses++;
+		return result;
+	}
+
+	/**
+	 * keeps the result of a call, if it can be kept
+	 *
+	 * @param key
+	 *            the values of the arguments
+	 * @param result
+	 *            the return value of the function
+	 */
+	void put(List<Object> key, Variable result) {
+		if (getValue(result) != null)
+			results.put(key, result.getCopy(result.getName()));
+	}
+
+	/**
+	 * @return the name of the function
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of calls that have been answered by the table
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of calls that have run the function
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of results kept
+	 */
+	public int size() {
+		return results.size();
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + hits + " hits, " + misses + " misses, "
+				+ results.size() + " kept";
+	}
+}
@@ -81,6 +81,14 @@ public abstract class NativeFunction extends Function {
 		return nativeFunctions;
 	}
 
+	/**
+	 * native functions read their arguments directly and may return them
+	 */
+	@Override
+	public boolean copiesArguments() {
+		return false;
+	}
+
 	@Override
 	public void optimize(SubroutineOptimizer so) {
 		return; // do nothing
@@ -94,12 +102,21 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Class<? extends Variable> getReturnType() {
+			return Float64.class;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
-			double arg = args[0].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			temp = new Float64(null, val(arg));
+			double arg = args[0].getDoubleValue(renderer, oi, cli);
+			return new Float64(null, val(arg));
 		}
 
 		protected abstract double val(double arg);
@@ -112,9 +129,9 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
-			temp = val();
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
+			return val();
 		}
 
 		protected abstract Variable val();
@@ -226,14 +243,12 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
-			double arg1 = args[0].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			double arg2 = args[1].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			temp = new Float64(null, Math.atan2(arg1, arg2));
+			double arg1 = args[0].getDoubleValue(renderer, oi, cli);
+			double arg2 = args[1].getDoubleValue(renderer, oi, cli);
+			return new Float64(null, Math.atan2(arg1, arg2));
 		}
 
 		@Override
@@ -277,14 +292,12 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
-			double arg1 = args[0].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			double arg2 = args[1].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			temp = new Float64(null, Math.log(arg2) / Math.log(arg1));
+			double arg1 = args[0].getDoubleValue(renderer, oi, cli);
+			double arg2 = args[1].getDoubleValue(renderer, oi, cli);
+			return new Float64(null, Math.log(arg2) / Math.log(arg1));
 		}
 
 		@Override
@@ -332,16 +345,24 @@ public abstract class NativeFunction extends Function {
 			arguments = new String[] { null, null };
 		}
 
+		/**
+		 * returns one of its arguments, which may be of either type
+		 */
+		@Override
+		public Class<? extends Variable> getReturnType() {
+			return null;
+		}
+
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
 			Variable arg1 = args[0].getVarValue(renderer, oi, cli);
 			Variable arg2 = args[1].getVarValue(renderer, oi, cli);
 			if (arg1.lessThan(arg2))
-				temp = arg2;
+				return arg2;
 			else
-				temp = arg1;
+				return arg1;
 		}
 
 		@Override
@@ -356,16 +377,24 @@ public abstract class NativeFunction extends Function {
 			arguments = new String[] { null, null };
 		}
 
+		/**
+		 * returns one of its arguments, which may be of either type
+		 */
+		@Override
+		public Class<? extends Variable> getReturnType() {
+			return null;
+		}
+
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
 			Variable arg1 = args[0].getVarValue(renderer, oi, cli);
 			Variable arg2 = args[1].getVarValue(renderer, oi, cli);
 			if (arg1.lessThan(arg2))
-				temp = arg1;
+				return arg1;
 			else
-				temp = arg2;
+				return arg2;
 		}
 
 		@Override
@@ -378,16 +407,21 @@ public abstract class NativeFunction extends Function {
 		public Round() {
 			super("round");
 		}
+
+		@Override
+		public Class<? extends Variable> getReturnType() {
+			return Integer64.class;
+		}
 		
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 			Variable arg1 = args[0].getVarValue(renderer, oi, cli);
 			
 			if (arg1 instanceof Integer64)
-				temp = arg1;
+				return arg1;
 			else
-				temp = new Integer64(null, Math.round(arg1.getDoubleValue()));
+				return new Integer64(null, Math.round(arg1.getDoubleValue()));
 		}
 
 		@Override
@@ -400,16 +434,21 @@ public abstract class NativeFunction extends Function {
 		public Int() {
 			super("int");
 		}
+
+		@Override
+		public Class<? extends Variable> getReturnType() {
+			return Integer64.class;
+		}
 		
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 			Variable arg1 = args[0].getVarValue(renderer, oi, cli);
 			
 			if (arg1 instanceof Integer64)
-				temp = arg1;
+				return arg1;
 			else
-				temp = new Integer64(null, arg1.getLongValue());
+				return new Integer64(null, arg1.getLongValue());
 		}
 
 		@Override
@@ -434,6 +473,11 @@ public abstract class NativeFunction extends Function {
 			super("rand");
 		}
 
+		@Override
+		public boolean isPure() {
+			return false;
+		}
+
 		@Override
 		protected double val(double arg) {
 			return Math.random() * arg;
@@ -447,14 +491,17 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public boolean isPure() {
+			return false;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
-			double arg1 = args[0].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			double arg2 = args[1].getVarValue(renderer, oi, cli)
-					.getDoubleValue();
-			temp = new Float64(null, Math.random() * (arg2 - arg1) + arg1);
+			double arg1 = args[0].getDoubleValue(renderer, oi, cli);
+			double arg2 = args[1].getDoubleValue(renderer, oi, cli);
+			return new Float64(null, Math.random() * (arg2 - arg1) + arg1);
 		}
 
 		/**
@@ -582,11 +629,16 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 
 			Variable arg = args[0].getVarValue(renderer, oi, cli);
-			temp = new LogoString(null, arg.getTypeName());
+			return new LogoString(null, arg.getTypeName());
 		}
 	}
 
@@ -597,9 +649,9 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
-			temp = new LogoString(null, renderer.popInputString());
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
+			return new LogoString(null, renderer.popInputString());
 		}
 	}
 
@@ -610,8 +662,13 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 			boolean numeric = false;
 			Variable v = args[0].getVarValue(renderer, oi, cli);
 
@@ -625,7 +682,7 @@ public abstract class NativeFunction extends Function {
 				String val = ((LogoString) v).value;
 				numeric = Language.isNumeric(val);
 			}
-			temp = new Bool(null, numeric);
+			return new Bool(null, numeric);
 		}
 	}
 
@@ -636,8 +693,13 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 			Variable v = args[0].getVarValue(renderer, oi, cli).cast(
 					LogoString.class);
 			while (v instanceof Reference) {
@@ -649,8 +711,9 @@ public abstract class NativeFunction extends Function {
 				for (int i = 0; i < arr.length; i++) {
 					arr[i] = new LogoChar(null, s.charAt(i));
 				}
-				temp = new Array(null, arr);
+				return new Array(null, arr);
 			}
+			return null;
 		}
 	}
 
@@ -661,18 +724,28 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
+		public Class<? extends Variable> getReturnType() {
+			return Integer64.class;
+		}
+
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
 			Variable v = args[0].getVarValue(renderer, oi, cli);
 			while (v instanceof Reference) {
 				v = ((Reference) v).wrapped;
 			}
 			if (v instanceof Array) {
-				temp = new Integer64(null, ((Array) v).array.length);
+				return new Integer64(null, ((Array) v).array.length);
 			} else if (v instanceof LogoString) {
-				temp = new Integer64(null, ((LogoString) v).value.length());
+				return new Integer64(null, ((LogoString) v).value.length());
 			} else {
-				temp = new Integer64(null,
+				return new Integer64(null,
 						((LogoString) v.cast(LogoString.class)).value.length());
 			}
 		}
@@ -685,9 +758,22 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
-			temp = new Integer64(null, renderer.getImage().getWidth());
+		public Class<? extends Variable> getReturnType() {
+			return Integer64.class;
+		}
+
+		/**
+		 * the drawing area does not change while a program runs
+		 */
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
+			return new Integer64(null, renderer.getImage().getWidth());
 		}
 	}
 
@@ -698,9 +784,22 @@ public abstract class NativeFunction extends Function {
 		}
 
 		@Override
-		public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
-				Value[] args, CodeLocationInfo cli) {
-			temp = new Integer64(null, renderer.getImage().getHeight());
+		public Class<? extends Variable> getReturnType() {
+			return Integer64.class;
+		}
+
+		/**
+		 * the drawing area does not change while a program runs
+		 */
+		@Override
+		public boolean isPure() {
+			return true;
+		}
+
+		@Override
+		public Variable getVarValue(LogoRenderer2D renderer,
+				OrderInterpreter oi, Value[] args, CodeLocationInfo cli) {
+			return new Integer64(null, renderer.getImage().getHeight());
 		}
 	}
 }
@@ -0,0 +1,138 @@
+package turtlepp.exec;
+
+/**
+ * The features of the optimizer. Most features are not passes of their own:
+ * the optimizer walks the code once, and every part of the code it reaches is
+ * changed by all of these features that are enabled and apply to it, so they
+ * can only be timed together. Tail calls are searched in a walk of their own
+ * after it, loops are unrolled in a step of their own once their body has been
+ * optimized and functions are checked for being pure when they are first
+ * called; these features are {@linkplain #isTimed() timed} one by one. Which
+ * features are enabled is chosen by the optimization level:
+ * <ul>
+ * <li><code>-O0</code> only binds the variables and calls to the places they
+ * are found at when the program runs</li>
+ * <li><code>-O1</code> computes constant values in advance, computes with
+ * plain numbers where the types are known and removes code that is never
+ * run</li>
+ * <li><code>-O2</code> replaces arithmetic by cheaper one, inlines small
+ * subroutines, moves values out of loops, computes common subexpressions once
+ * and runs calls in tail position in place of their caller</li>
+ * <li><code>-O3</code> keeps the results of pure functions and unrolls
+ * "repeat" loops</li>
+ * </ul>
+ *
+ * @see OrderOptimizer#isEnabled(OptimizerFeature)
+ */
+public enum OptimizerFeature {
+	/**
+	 * binds variables to their position on a stack and calls to the called
+	 * subroutine
+	 */
+	RESOLUTION("resolution", 0, false),
+
+	/**
+	 * replaces variables that never change by their value and computes
+	 * values that do not depend on anything at runtime
+	 */
+	FOLDING("folding", 1, false),
+
+	/**
+	 * computes with plain numbers instead of variables where the types are
+	 * known
+	 */
+	NUMBERS("numbers", 1, false),
+
+	/**
+	 * removes statements that are never run and branches whose condition is
+	 * always the same
+	 */
+	DEAD_CODE("dead code", 1, false),
+
+	/**
+	 * computes small powers by multiplying, doubles by adding and divides by
+	 * powers of two by multiplying, wherever the result stays exactly the
+	 * same
+	 */
+	STRENGTH_REDUCTION("strength reduction", 2, false),
+
+	/**
+	 * copies small subroutines and functions into their callers
+	 */
+	INLINING("inlining", 2, false),
+
+	/**
+	 * computes values that do not change inside of a loop once per run of
+	 * the loop
+	 */
+	HOISTING("hoisting", 2, false),
+
+	/**
+	 * computes subexpressions occurring more than once only once
+	 */
+	COMMON_SUBEXPRESSIONS("common subexpressions", 2, false),
+
+	/**
+	 * runs the calls a subroutine ends with in its place
+	 */
+	TAIL_CALLS("tail calls", 2, true),
+
+	/**
+	 * keeps the results of pure functions
+	 */
+	MEMOIZATION("memoization", 3, true),
+
+	/**
+	 * runs the body of a "repeat" loop several times in a row
+	 */
+	UNROLLING("unrolling", 3, true);
+
+	/**
+	 * the lowest optimization level
+	 */
+	public static final int MIN_LEVEL = 0;
+
+	/**
+	 * the highest optimization level, enabling every feature
+	 */
+	public static final int MAX_LEVEL = 3;
+
+	/**
+	 * the optimization level programs are compiled with unless another one
+	 * is chosen
+	 */
+	public static final int DEFAULT_LEVEL = MAX_LEVEL;
+
+	private final String name;
+
+	private final int level;
+
+	private final boolean timed;
+
+	private OptimizerFeature(String name, int level, boolean timed) {
+		this.name = name;
+		this.level = level;
+		this.timed = timed;
+	}
+
+	/**
+	 * @return the lowest optimization level enabling this feature
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return <code>true</code> if the feature works apart from the walk over
+	 *         the code and its time is measured on its own,
+	 *         <code>false</code> if it only works during the walk
+	 */
+	public boolean isTimed() {
+		return timed;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
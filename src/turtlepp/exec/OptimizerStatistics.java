@@ -0,0 +1,221 @@
+package turtlepp.exec;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What the optimizer has removed from a program or computes only once.
+ * Subroutines are optimized when they are run the first time, so the numbers
+ * grow while the program runs.
+ * 
+ * @see CompiledProgram#getStatistics()
+ */
+public final class OptimizerStatistics {
+	private int removedStatements;
+	private int prunedBranches;
+	private int commonSubexpressions;
+	private int tailCalls;
+	private final List<String> unreachable;
+	private final boolean unreachableRemoved;
+
+	/**
+	 * the optimization level of the program
+	 */
+	private final int level;
+
+	/**
+	 * the time spent walking the code in nanoseconds, without the features
+	 * timed on their own
+	 */
+	private long walkTime;
+
+	/**
+	 * for every {@linkplain OptimizerFeature#isTimed() timed} feature the
+	 * time spent on it in nanoseconds
+	 */
+	private final long[] featureTimes;
+
+	/**
+	 * for every feature the number of nodes it has created, replaced or
+	 * removed
+	 */
+	private final int[] featureNodes;
+
+	private int statementsBefore;
+	private int statementsAfter;
+
+	OptimizerStatistics(int level, List<String> unreachable,
+			boolean unreachableRemoved) {
+		this.level = level;
+		this.unreachable = Collections.unmodifiableList(unreachable);
+		this.unreachableRemoved = unreachableRemoved;
+		featureNodes = new int[OptimizerFeature.values().length];
+		featureTimes = new long[featureNodes.length];
+	}
+
+	/**
+	 * adds the numbers of an optimizer
+	 */
+	void add(OrderOptimizer oo) {
+		removedStatements += oo.getRemovedStatements();
+		prunedBranches += oo.getPrunedBranches();
+		commonSubexpressions += oo.getCommonSubexpressions();
+		tailCalls += oo.getTailCalls();
+		walkTime += oo.getTime();
+		for (OptimizerFeature feature : OptimizerFeature.values()) {
+			featureNodes[feature.ordinal()] += oo.getFeatureNodes(feature);
+			featureTimes[feature.ordinal()] += oo.getFeatureTime(feature);
+		}
+		statementsBefore += oo.getStatementsBefore();
+		statementsAfter += oo.getStatementsAfter();
+	}
+
+	/**
+	 * @return the optimization level the program has been compiled with
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the time spent optimizing the main block and the subroutines
+	 *         run so far in nanoseconds, including every feature
+	 */
+	public long getTime() {
+		long time = walkTime;
+		for (long featureTime : featureTimes)
+			time += featureTime;
+		return time;
+	}
+
+	/**
+	 * @return the time spent walking the code in nanoseconds. The features
+	 *         that are not {@linkplain OptimizerFeature#isTimed() timed} on
+	 *         their own all work during this walk, so their time is only
+	 *         known together.
+	 */
+	public long getWalkTime() {
+		return walkTime;
+	}
+
+	/**
+	 * @return the time spent on a feature in nanoseconds, 0 if it is not
+	 *         {@linkplain OptimizerFeature#isTimed() timed} on its own
+	 */
+	public long getFeatureTime(OptimizerFeature feature) {
+		return featureTimes[feature.ordinal()];
+	}
+
+	/**
+	 * @return the number of nodes of the code a feature has created,
+	 *         replaced or removed, e.g. the number of values computed in
+	 *         advance by {@link OptimizerFeature#FOLDING}
+	 */
+	public int getFeatureNodes(OptimizerFeature feature) {
+		return featureNodes[feature.ordinal()];
+	}
+
+	/**
+	 * @return the number of statements of the optimized code before
+	 *         optimizing it, including the nested ones
+	 */
+	public int getStatementsBefore() {
+		return statementsBefore;
+	}
+
+	/**
+	 * @return the number of statements of the optimized code after
+	 *         optimizing it, including the inlined ones
+	 */
+	public int getStatementsAfter() {
+		return statementsAfter;
+	}
+
+	/**
+	 * @return the number of statements removed because they are never run,
+	 *         e.g. after an "exit" command
+	 */
+	public int getRemovedStatements() {
+		return removedStatements;
+	}
+
+	/**
+	 * @return the number of statements whose condition is always the same,
+	 *         so that only one of their branches is left
+	 */
+	public int getPrunedBranches() {
+		return prunedBranches;
+	}
+
+	/**
+	 * @return the number of subexpressions taken over from an earlier
+	 *         occurrence instead of being computed again
+	 */
+	public int getCommonSubexpressions() {
+		return commonSubexpressions;
+	}
+
+	/**
+	 * @return the number of calls that end a subroutine and are run in its
+	 *         place, without growing the call stack
+	 */
+	public int getTailCalls() {
+		return tailCalls;
+	}
+
+	/**
+	 * @return the names of the subroutines and functions that can not be
+	 *         called by the program itself; unless they have been removed,
+	 *         they can only be called from the console
+	 */
+	public List<String> getUnreachableDefinitions() {
+		return unreachable;
+	}
+
+	/**
+	 * @return <code>true</code> if the
+	 *         {@linkplain #getUnreachableDefinitions() unreachable
+	 *         definitions} have been removed from the program
+	 */
+	public boolean isUnreachableRemoved() {
+		return unreachableRemoved;
+	}
+
+	@Override
+	public String toString() {
+		return "removed statements: " + removedStatements
+				+ "\npruned branches: " + prunedBranches
+				+ "\ncommon subexpressions: " + commonSubexpressions
+				+ "\ntail calls: " + tailCalls
+				+ (unreachableRemoved ? "\nremoved definitions: "
+						: "\nunreachable definitions: ") + unreachable
+				+ "\noptimization level: " + level
+				+ "\nstatements: " + statementsBefore + " -> " + statementsAfter
+				+ String.format(Locale.ROOT, "\noptimization time: %.3f ms",
+						getTime() / 1e6)
+				+ String.format(Locale.ROOT, "\nwalk time: %.3f ms",
+						walkTime / 1e6)
+				+ getFeatures();
+	}
+
+	/**
+	 * @return a line for every feature enabled at the optimization level,
+	 *         with its time if it is timed on its own
+	 */
+	private String getFeatures() {
+		StringBuilder sb = new StringBuilder();
+		for (OptimizerFeature feature : OptimizerFeature.values()) {
+			if (feature.getLevel() > level)
+				continue;
+			sb.append("\nfeature ").append(feature).append(": ");
+			sb.append(featureNodes[feature.ordinal()]).append(" nodes");
+			if (feature.isTimed())
+				sb.append(String.format(Locale.ROOT, ", %.3f ms",
+						featureTimes[feature.ordinal()] / 1e6));
+			else
+				sb.append(", during the walk");
+		}
+		return sb.toString();
+	}
+}
@@ -2,6 +2,7 @@ package turtlepp.exec;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Stack;
 
 import turtlepp.InterpreterException;
@@ -18,9 +19,9 @@ import turtlepp.exec.Executable.ReturnValue;
  */
 public final class OrderInterpreter {
 	/**
-	 * the block to be executed
+	 * the program to be executed
 	 */
-	private Executable code;
+	private final CompiledProgram program;
 
 	/**
 	 * all global variables are stored here
@@ -33,14 +34,24 @@ public final class OrderInterpreter {
 	private HashMap<String, Integer> globalVarsIndices;
 
 	/**
-	 * stack where subroutines are placed when they are invoked
+	 * stack where the frames of invoked subroutines are placed
 	 */
-	private Stack<Invokeable> callStack;
+	private Stack<StackFrame> callStack;
 
 	/**
-	 * all global functions
+	 * the values of the loops running in the main block
 	 */
-	private InvokeableList subroutines;
+	private LoopValues loopValues;
+
+	/**
+	 * the common subexpressions computed in the main block
+	 */
+	private CommonValues commonValues;
+
+	/**
+	 * the results of the pure functions called so far
+	 */
+	private LinkedHashMap<Function, MemoTable> memoTables;
 
 	/**
 	 * initializes the Interpreter and prepares the code for running
@@ -49,31 +60,30 @@ public final class OrderInterpreter {
 	 *            the program code
 	 */
 	public OrderInterpreter(String str) {
+		this(new CompiledProgram(str));
+	}
+
+	/**
+	 * initializes the Interpreter with an already compiled program. The
+	 * program is not changed by running it, so it may be shared between
+	 * several interpreters.
+	 * 
+	 * @param program
+	 *            the compiled program
+	 */
+	public OrderInterpreter(CompiledProgram program) {
+		this.program = program;
+
 		globalVariables = new Stack<Variable>();
 		globalVarsIndices = new HashMap<String, Integer>();
 
-		callStack = new Stack<Invokeable>();
+		callStack = new Stack<StackFrame>();
 		callStack.push(null);
+		loopValues = new LoopValues();
+		commonValues = new CommonValues();
+		memoTables = new LinkedHashMap<Function, MemoTable>();
 
-		initSubroutines();
 		initConstants();
-
-		// remove commands (text after //)
-		str += "\n";
-		str = str.replaceAll("//(.|\\s)*?\\n", "\n");
-		
-		str = str.replaceAll("[\\t\\ ]_\\r?\\n\\s*", "\\ ");
-		setCode(str);
-	}
-
-	/**
-	 * initializes the native subroutines
-	 */
-	private void initSubroutines() {
-		subroutines = new InvokeableList();
-		ArrayList<Function> natives = NativeFunction.getNativeFunctions();
-		for (int i = 0; i < natives.size(); i++)
-			subroutines.add(natives.get(i));
 	}
 
 	/**
@@ -86,21 +96,6 @@ public final class OrderInterpreter {
 		}
 	}
 
-	/**
-	 * sets the code of this interpreter
-	 * 
-	 * @param str
-	 *            the new code
-	 */
-	private void setCode(String str) {
-		code = new Block(str, subroutines, 0, false);
-		code = code.getOptimized(new OrderOptimizer(this));
-		ArrayList<Invokeable> subs = subroutines.getAsArrayList();
-		for (int i = 0; i < subs.size(); i++) {
-			subs.get(i).optimize(new SubroutineOptimizer(this));
-		}
-	}
-
 	/**
 	 * gets a variable (either global or not)
 	 * 
@@ -110,9 +105,9 @@ public final class OrderInterpreter {
 	 */
 	public Variable getVariable(String name) {
 		name = name.toLowerCase();
-		Invokeable sub = callStack.peek();
-		if (sub != null) {
-			Variable var = sub.getVariable(name);
+		StackFrame frame = callStack.peek();
+		if (frame != null) {
+			Variable var = frame.getVariable(name);
 			if (var != null)
 				return var;
 		}
@@ -124,10 +119,24 @@ public final class OrderInterpreter {
 		return null;
 	}
 
+	/**
+	 * gets a global variable, even if a subroutine is running
+	 * 
+	 * @param name
+	 *            the variable's name
+	 * @return the variable, <code>null</code> if there is none
+	 */
+	public Variable getGlobalVariable(String name) {
+		Integer index = globalVarsIndices.get(name.toLowerCase());
+		if (index != null)
+			return globalVariables.get(index);
+		return null;
+	}
+
 	public Variable getVariableFromCallStack(int fromTop) {
-		Invokeable sub = callStack.peek();
-		if (sub != null)
-			return sub.getVariableFromStack(fromTop);
+		StackFrame frame = callStack.peek();
+		if (frame != null)
+			return frame.getVariableFromStack(fromTop);
 		else
 			return null;
 	}
@@ -136,6 +145,76 @@ public final class OrderInterpreter {
 		return globalVariables.get(globalVariables.size() - fromTop);
 	}
 
+	/**
+	 * @return the loop values of the running subroutine or of the main block
+	 */
+	private LoopValues getLoopValues() {
+		StackFrame frame = callStack.peek();
+		if (frame != null)
+			return frame.getLoopValues();
+		else
+			return loopValues;
+	}
+
+	/**
+	 * forgets the values a loop has computed in its previous run
+	 * 
+	 * @param depth
+	 *            the number of loops around the loop in the same block of code
+	 * @param n
+	 *            the number of values the loop computes
+	 */
+	public void clearLoopValues(int depth, int n) {
+		getLoopValues().clear(depth, n);
+	}
+
+	/**
+	 * gets a value that does not change during the current run of a loop
+	 * 
+	 * @param depth
+	 *            the depth of the loop
+	 * @param index
+	 *            the number of the value in the loop
+	 * @return the value, <code>null</code> if it has not been computed in
+	 *         this run yet
+	 */
+	public Variable getLoopValue(int depth, int index) {
+		return getLoopValues().get(depth, index);
+	}
+
+	/**
+	 * stores a value that does not change during the current run of a loop
+	 */
+	public void setLoopValue(int depth, int index, Variable value) {
+		getLoopValues().set(depth, index, value);
+	}
+
+	/**
+	 * gets a common subexpression computed before by the running subroutine
+	 * or by the main block
+	 * 
+	 * @param index
+	 *            the number of the common subexpression
+	 */
+	public Variable getCommonValue(int index) {
+		StackFrame frame = callStack.peek();
+		if (frame != null)
+			return frame.getCommonValues().get(index);
+		else
+			return commonValues.get(index);
+	}
+
+	/**
+	 * stores a common subexpression to be used again
+	 */
+	public void setCommonValue(int index, Variable value) {
+		StackFrame frame = callStack.peek();
+		if (frame != null)
+			frame.getCommonValues().set(index, value);
+		else
+			commonValues.set(index, value);
+	}
+
 	/**
 	 * creates an error message if e.g. "exit repeat" is found inside of a while
 	 * statement instead of "exit while"
@@ -163,7 +242,7 @@ public final class OrderInterpreter {
 	 *            the renderer used to draw stuff
 	 */
 	public void run(LogoRenderer2D renderer) {
-		ReturnValue cb = code.execute(renderer, this);
+		ReturnValue cb = program.getCode().execute(renderer, this);
 		if (cb != ReturnValue.NEW_VARIABLE_CREATED && cb != ReturnValue.NOTHING) {
 			String str = createShouldBeInStatementMsg(cb);
 			if (str != null)
@@ -187,26 +266,37 @@ public final class OrderInterpreter {
 	 * @return
 	 */
 	public Invokeable getSubroutine(String name, int nArguments) {
-		return subroutines.get(name.toLowerCase(), nArguments);
+		return program.getSubroutine(name.toLowerCase(), nArguments);
 	}
 
 	/**
-	 * before invoking a subroutine it has to be pushed onto the current call
-	 * stack
+	 * before invoking a subroutine its frame has to be pushed onto the current
+	 * call stack
 	 * 
-	 * @param subroutine
-	 *            the subroutine to push
+	 * @param frame
+	 *            the frame of the invoked subroutine
 	 */
-	public void pushInvokable(Invokeable subroutine) {
-		callStack.push(subroutine);
+	public void pushFrame(StackFrame frame) {
+		callStack.push(frame);
 	}
 
 	/**
-	 * after exiting the subroutine, remove it from the stack
+	 * leaves a call in tail position to the invocation of the subroutine
+	 * running at the moment
 	 * 
-	 * @return the subroutine that was on the top of the call stack
+	 * @param frame
+	 *            the frame of the called subroutine
 	 */
-	public Invokeable popInvokable() {
+	void setTailCall(StackFrame frame) {
+		callStack.peek().setTailCall(frame);
+	}
+
+	/**
+	 * after exiting the subroutine, remove its frame from the stack
+	 * 
+	 * @return the frame that was on the top of the call stack
+	 */
+	public StackFrame popFrame() {
 		return callStack.pop();
 	}
 
@@ -217,9 +307,9 @@ public final class OrderInterpreter {
 	 *            the variable
 	 */
 	public void pushVariable(Variable var) {
-		Invokeable sub = callStack.peek();
-		if (sub != null) {
-			sub.pushVariable(var);
+		StackFrame frame = callStack.peek();
+		if (frame != null) {
+			frame.pushVariable(var);
 		} else {
 			globalVariables.push(var);
 			globalVarsIndices.put(var.getName(), globalVariables.size() - 1);
@@ -232,9 +322,9 @@ public final class OrderInterpreter {
 	 * @return the removed variable
 	 */
 	public Variable popVariable() {
-		Invokeable sub = callStack.peek();
-		if (sub != null) {
-			return sub.popVariable();
+		StackFrame frame = callStack.peek();
+		if (frame != null) {
+			return frame.popVariable();
 		} else {
 			Variable v = globalVariables.pop();
 			globalVarsIndices.remove(v.getName());
@@ -246,16 +336,45 @@ public final class OrderInterpreter {
 	 * Acts similar to a simple list of invokeables, however has better
 	 * searching methods. It uses a hash map to easily find stored content.
 	 * 
-	 * Implements a fast get function.
+	 * Implements a fast get function. A subroutine replaces a previously added
+	 * one with the same name and the same amount of arguments.
 	 * 
 	 * @author Nicolas Winkler
 	 * 
 	 */
-	public static final class InvokeableList extends HashMap<Long, Invokeable> {
-		private static final long serialVersionUID = 7798041147051271416L;
+	public static final class InvokeableList {
+		private HashMap<Signature, Invokeable> invokeables;
 		private ArrayList<Invokeable> content;
 
+		/**
+		 * the key of a subroutine in the hash map
+		 */
+		private static final class Signature {
+			final String name;
+			final int nArguments;
+
+			Signature(String name, int nArguments) {
+				this.name = name;
+				this.nArguments = nArguments;
+			}
+
+			@Override
+			public boolean equals(Object obj) {
+				if (!(obj instanceof Signature))
+					return false;
+				Signature other = (Signature) obj;
+				return nArguments == other.nArguments
+						&& name.equals(other.name);
+			}
+
+			@Override
+			public int hashCode() {
+				return name.hashCode() * 31 + nArguments;
+			}
+		}
+
 		public InvokeableList() {
+			invokeables = new HashMap<Signature, Invokeable>();
 			content = new ArrayList<Invokeable>();
 		}
 
@@ -266,7 +385,8 @@ public final class OrderInterpreter {
 		 *            the new element
 		 */
 		public void add(Invokeable inv) {
-			super.put(combineHash(inv.getName(), inv.getNArguments()), inv);
+			invokeables.put(new Signature(inv.getName(), inv.getNArguments()),
+					inv);
 			content.add(inv);
 		}
 
@@ -280,14 +400,7 @@ public final class OrderInterpreter {
 		 * @return the desired subroutine
 		 */
 		public Invokeable get(String name, int nArguments) {
-			return super.get(combineHash(name, nArguments));
-		}
-
-		/**
-		 * creates the long value used to create the hash for the hash map
-		 */
-		private long combineHash(String name, int nArguments) {
-			return (long) name.hashCode() + ((long) nArguments << 32);
+			return invokeables.get(new Signature(name, nArguments));
 		}
 
 		/**
@@ -298,6 +411,26 @@ public final class OrderInterpreter {
 		}
 	}
 
+	/**
+	 * @return the results of a pure function, created on first use
+	 */
+	MemoTable getMemoTable(Function function) {
+		MemoTable table = memoTables.get(function);
+		if (table == null) {
+			table = new MemoTable(function.getName());
+			memoTables.put(function, table);
+		}
+		return table;
+	}
+
+	/**
+	 * @return the results of every pure function called so far, in the order
+	 *         of their first call
+	 */
+	public ArrayList<MemoTable> getMemoTables() {
+		return new ArrayList<MemoTable>(memoTables.values());
+	}
+
 	public boolean hasCallbacks() {
 		return getSubroutine("draw", 0) != null
 				|| getSubroutine("mouseClicked", 2) != null
@@ -308,7 +441,7 @@ public final class OrderInterpreter {
 	}
 
 	public ArrayList<Invokeable> getInvokeables() {
-		return subroutines.getAsArrayList();
+		return program.getInvokeables();
 	}
 
 	public Stack<Variable> getGlobalStack() {
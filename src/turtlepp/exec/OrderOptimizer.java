@@ -1,74 +1,510 @@
 package turtlepp.exec;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Stack;
 
+import turtlepp.datatypes.Float64;
+import turtlepp.datatypes.Integer64;
+import turtlepp.datatypes.MathConstant;
+import turtlepp.datatypes.Value;
+import turtlepp.datatypes.Value.CommonValue;
+import turtlepp.datatypes.Value.ConstantValue;
+import turtlepp.datatypes.Value.InvariantValue;
+import turtlepp.datatypes.Value.ReusedValue;
+import turtlepp.datatypes.Variable;
+import turtlepp.exec.OrderInterpreter.InvokeableList;
+
 public class OrderOptimizer {
 	public enum StackType {
 		GLOBAL, LOCAL
 	}
 
-	private class State {
-		public int globalVariablesSize;
-		public int localVariablesSize;
-		public int callStackSize;
+	/**
+	 * the maximum number of lines of a subroutine copied into its callers
+	 */
+	private static final int MAX_INLINED_LINES = 24;
+
+	/**
+	 * the maximum number of inlined calls inside of each other
+	 */
+	private static final int MAX_INLINED_DEPTH = 4;
+
+	/**
+	 * the maximum number of subexpressions a statement may take over from
+	 * the statements before it
+	 */
+	private static final int MAX_COMMON_CANDIDATES = 64;
+
+	/**
+	 * the variables on the global variable stack
+	 */
+	private SymbolTable globalVariables;
+
+	/**
+	 * the variables in the frame of the subroutine being optimized
+	 */
+	private SymbolTable localVariables;
+
+	protected InvokeableList invokeables;
+	protected Stack<Invokeable> callStack;
+
+	/**
+	 * every subroutine looked up by {@link #getSubroutine(String, int)}
+	 */
+	protected ArrayList<Link> links;
+
+	/**
+	 * how the variables are used in the program, <code>null</code> if
+	 * unknown; without it, no variable is replaced by its value
+	 */
+	private VariableUsage usage;
+
+	/**
+	 * the variables replaced by their value because they never change
+	 */
+	private ArrayList<String> fixedVariables;
+
+	/**
+	 * the mathematical constants replaced by their value because no variable
+	 * hides them
+	 */
+	private ArrayList<String> usedConstants;
+
+	/**
+	 * the loops around the code being optimized, the outermost one first
+	 */
+	private ArrayList<Loop> loops;
+
+	/**
+	 * the loop {@link #isInvariant(String)} refers to
+	 */
+	private Loop target;
+
+	/**
+	 * <code>true</code> while optimizing a value that is computed only once
+	 * per run of a loop
+	 */
+	private boolean hoisting;
+
+	/**
+	 * the variables assumed not to change inside of a loop
+	 */
+	private ArrayList<Invariant> invariants;
+
+	/**
+	 * the subroutines whose bodies are being inlined, the outermost one first
+	 */
+	private ArrayList<Invokeable> inlined;
+
+	/**
+	 * the index of the outermost loop values may be moved out of; the loops
+	 * around an inlined call run for different arguments
+	 */
+	private int firstLoop;
+
+	/**
+	 * for every subroutine checked so far, whether it may call itself
+	 */
+	private HashMap<Invokeable, Boolean> recursive;
+
+	/**
+	 * the number of statements removed because they are never run
+	 */
+	private int removedStatements;
+
+	/**
+	 * the number of statements reduced to one of their branches
+	 */
+	private int prunedBranches;
+
+	/**
+	 * the number of expressions being optimized inside of each other; an
+	 * expression is searched for common subexpressions when the outermost
+	 * one is finished
+	 */
+	private int expressionDepth;
+
+	/**
+	 * the number of common subexpressions kept by the interpreter for the
+	 * optimized code
+	 */
+	private int nCommonValues;
+
+	/**
+	 * the blocks whose statements are being optimized, the innermost one last
+	 */
+	private ArrayList<Sequence> sequences;
+
+	/**
+	 * the assigned variables assumed to be no reference and not to be
+	 * pointed to by one
+	 */
+	private ArrayList<String> unreferenced;
+
+	/**
+	 * the number of subexpressions taken over from an earlier occurrence
+	 */
+	private int commonSubexpressions;
+
+	/**
+	 * the number of calls run in place of the subroutine calling them
+	 */
+	private int tailCalls;
+
+	/**
+	 * the optimization level, which tells the features that are enabled
+	 * 
+	 * @see OptimizerFeature
+	 */
+	private final int level;
+
+	/**
+	 * the time spent walking the code in nanoseconds, without the features
+	 * that are timed on their own
+	 */
+	private long time;
+
+	/**
+	 * <code>true</code> while the code is walked
+	 */
+	private boolean walking;
+
+	/**
+	 * for every {@linkplain OptimizerFeature#isTimed() timed} feature the
+	 * time spent on it in nanoseconds
+	 */
+	private final long[] featureTimes;
+
+	/**
+	 * for every feature the number of nodes it has created, replaced or
+	 * removed
+	 */
+	private final int[] featureNodes;
+
+	/**
+	 * the number of statements of the optimized code before and after
+	 * optimizing it
+	 */
+	private int statementsBefore;
+	private int statementsAfter;
+
+	/**
+	 * A loop whose body is being optimized.
+	 */
+	private static final class Loop {
+		/**
+		 * how the variables are used in the lines of the loop
+		 */
+		final VariableUsage usage;
+
+		/**
+		 * the number of loops around this one
+		 */
+		final int depth;
 
-		public State(int globalVariablesSize, int localVariablesSize,
-				int callStackSize) {
-			this.globalVariablesSize = globalVariablesSize;
-			this.localVariablesSize = localVariablesSize;
-			this.callStackSize = callStackSize;
+		/**
+		 * the number of values computed once per run of the loop
+		 */
+		int nValues;
+
+		final boolean callsDefinitions;
+		final boolean changesReferences;
+
+		Loop(VariableUsage usage, int depth, VariableUsage program) {
+			this.usage = usage;
+			this.depth = depth;
+			callsDefinitions = usage.callsDefinitions(program);
+			changesReferences = usage.changesReferences(program);
 		}
 	}
 
-	protected Stack<String> globalVariables;
-	protected Stack<String> localVariables;
-	protected ArrayList<Invokeable> invokeables;
-	protected Stack<Invokeable> callStack;
-	protected Stack<State> stateStack;
+	/**
+	 * A subexpression that has been computed by the time the following code
+	 * runs, unless a variable it depends on has been assigned since.
+	 */
+	private static final class Candidate {
+		final Value value;
 
-	public OrderOptimizer(OrderInterpreter oi) {
-		globalVariables = new Stack<String>();
-		localVariables = new Stack<String>();
-		invokeables = oi.getInvokeables();
-		callStack = new Stack<Invokeable>();
-		stateStack = new Stack<State>();
+		/**
+		 * the value the subexpression is an operand of
+		 */
+		final Value parent;
+
+		final int operand;
+
+		/**
+		 * the number of variables on the local and on the global stack when
+		 * the subexpression is computed
+		 */
+		final int localSize;
+		final int globalSize;
+
+		/**
+		 * the number of the common subexpression, -1 until it is used again
+		 */
+		int index;
+
+		/**
+		 * the candidate computed before which the subexpression is replaced
+		 * by, if any
+		 */
+		Candidate source;
+
+		Candidate(Value parent, int operand, int localSize, int globalSize) {
+			this.value = parent.getOperand(operand);
+			this.parent = parent;
+			this.operand = operand;
+			this.localSize = localSize;
+			this.globalSize = globalSize;
+			this.index = -1;
+		}
 	}
 
-	protected void pushGlobalVariable(String name) {
-		globalVariables.push(name);
+	/**
+	 * A block whose statements are being optimized. A statement that does
+	 * nothing but declare or assign a variable may use the subexpressions
+	 * computed by the statements right before it.
+	 */
+	private static final class Sequence {
+		/**
+		 * the subexpressions computed by the statements before
+		 */
+		final ArrayList<Candidate> computed = new ArrayList<Candidate>();
+
+		/**
+		 * the subexpressions computed by the current statement
+		 */
+		final ArrayList<Candidate> pending = new ArrayList<Candidate>();
+
+		/**
+		 * the subexpressions of the current statement that can be taken over
+		 * from the statements before
+		 */
+		final ArrayList<Candidate> reused = new ArrayList<Candidate>();
+
+		/**
+		 * <code>true</code> if the current statement may only declare or
+		 * assign a variable
+		 */
+		boolean assignment;
+
+		/**
+		 * <code>true</code> if the current statement has turned out to be
+		 * one that does nothing but declare or assign a variable
+		 */
+		boolean transparent;
+
+		/**
+		 * the variable the current statement assigns, <code>null</code> for
+		 * a declaration
+		 */
+		Value target;
+
+		String name;
 	}
 
-	protected int getGlobalIndex(String name) {
-		for (int i = globalVariables.size() - 1; i >= 0; i--) {
-			String var = globalVariables.get(i);
-			if (var.equals(name)) {
-				return globalVariables.size() - i;
-			}
+	/**
+	 * A variable assumed not to change inside of a loop. Code optimized with
+	 * this assumption may only be reused in another program if it also holds
+	 * there.
+	 */
+	private static final class Invariant {
+		final VariableUsage loop;
+		final String name;
+		final boolean local;
+
+		Invariant(VariableUsage loop, String name, boolean local) {
+			this.loop = loop;
+			this.name = name;
+			this.local = local;
 		}
-		return -1;
-	}
 
-	protected void pushLocalVariable(String name) {
-		localVariables.push(name);
+		boolean isValid(VariableUsage program) {
+			return isInvariant(program, loop, name, local,
+					loop.callsDefinitions(program),
+					loop.changesReferences(program));
+		}
 	}
 
-	protected int getLocalIndex(String name) {
-		for (int i = localVariables.size() - 1; i >= 0; i--) {
-			String var = localVariables.get(i);
-			if (var.equals(name)) {
-				return localVariables.size() - i;
-			}
+	/**
+	 * A subroutine looked up while optimizing. Optimized code calls the found
+	 * subroutine directly, so it may only be reused in another program if
+	 * the lookup has the same result there.
+	 */
+	static final class Link {
+		final String name;
+		final int nArguments;
+		final Invokeable target;
+
+		Link(String name, int nArguments, Invokeable target) {
+			this.name = name;
+			this.nArguments = nArguments;
+			this.target = target;
+		}
+
+		/**
+		 * @return <code>true</code> if the lookup gives the same result in
+		 *         the given subroutines
+		 */
+		boolean isValid(InvokeableList invokeables) {
+			return invokeables.get(name, nArguments) == target;
 		}
-		return -1;
 	}
 
-	public void pushVariable(String string) {
-		if (!callStack.isEmpty()) {
-			pushLocalVariable(string);
-		} else {
-			pushGlobalVariable(string);
+	public OrderOptimizer(InvokeableList invokeables) {
+		this(invokeables, null, OptimizerFeature.DEFAULT_LEVEL);
+	}
+
+	/**
+	 * @param invokeables
+	 *            the subroutines of the program
+	 * @param usage
+	 *            how the variables are used in the program
+	 * @param level
+	 *            the optimization level
+	 */
+	OrderOptimizer(InvokeableList invokeables, VariableUsage usage, int level) {
+		globalVariables = new SymbolTable();
+		localVariables = new SymbolTable();
+		this.invokeables = invokeables;
+		callStack = new Stack<Invokeable>();
+		links = new ArrayList<Link>();
+		this.usage = usage;
+		fixedVariables = new ArrayList<String>();
+		usedConstants = new ArrayList<String>();
+		loops = new ArrayList<Loop>();
+		invariants = new ArrayList<Invariant>();
+		inlined = new ArrayList<Invokeable>();
+		recursive = new HashMap<Invokeable, Boolean>();
+		sequences = new ArrayList<Sequence>();
+		unreferenced = new ArrayList<String>();
+		this.level = level;
+		featureNodes = new int[OptimizerFeature.values().length];
+		featureTimes = new long[featureNodes.length];
+	}
+
+	/**
+	 * optimizes a piece of code that is not part of other code, e.g. the
+	 * main block or the body of a subroutine
+	 * 
+	 * @param code
+	 *            the code, not optimized yet
+	 * @return the optimized code
+	 */
+	Executable optimize(Executable code) {
+		statementsBefore += countStatements(code);
+		long start = System.nanoTime();
+		Executable optimized;
+		walking = true;
+		try {
+			optimized = code.getOptimized(this);
+		} finally {
+			walking = false;
+			time += System.nanoTime() - start;
 		}
+		statementsAfter += countStatements(optimized);
+		return optimized;
+	}
+
+	/**
+	 * @return the number of statements in a piece of code, including the
+	 *         nested ones
+	 */
+	private static int countStatements(Executable code) {
+		if (!(code instanceof Block))
+			return 1;
+		int n = code.getClass() == Block.class ? 0 : 1;
+		Executable[] executables = ((Block) code).executables;
+		for (int i = 0; i < executables.length; i++)
+			n += countStatements(executables[i]);
+		if (code instanceof IfStatement
+				&& ((IfStatement) code).elseBlock != null)
+			n += countStatements(((IfStatement) code).elseBlock);
+		return n;
+	}
+
+	/**
+	 * @param feature
+	 *            a feature of the optimizer
+	 * @return <code>true</code> if the feature is enabled at the optimization
+	 *         level of this optimizer
+	 */
+	public boolean isEnabled(OptimizerFeature feature) {
+		return feature.getLevel() <= level;
+	}
+
+	/**
+	 * @return the optimization level
+	 */
+	int getLevel() {
+		return level;
+	}
+
+	/**
+	 * counts a node of the code created, replaced or removed by a feature
+	 */
+	public void count(OptimizerFeature feature) {
+		featureNodes[feature.ordinal()]++;
+	}
+
+	/**
+	 * adds the time spent on a feature timed on its own. If the feature has
+	 * worked during the walk over the code, the time is not counted for the
+	 * walk.
+	 * 
+	 * @param start
+	 *            the {@linkplain System#nanoTime() time} the feature has
+	 *            started at
+	 */
+	void addTime(OptimizerFeature feature, long start) {
+		long t = System.nanoTime() - start;
+		featureTimes[feature.ordinal()] += t;
+		if (walking)
+			time -= t;
+	}
+
+	/**
+	 * @return the time spent walking the code in nanoseconds, without the
+	 *         features that are timed on their own
+	 */
+	long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the time spent on a {@linkplain OptimizerFeature#isTimed()
+	 *         timed} feature in nanoseconds
+	 */
+	long getFeatureTime(OptimizerFeature feature) {
+		return featureTimes[feature.ordinal()];
+	}
+
+	/**
+	 * @return the number of nodes created, replaced or removed by a feature
+	 */
+	int getFeatureNodes(OptimizerFeature feature) {
+		return featureNodes[feature.ordinal()];
+	}
+
+	int getStatementsBefore() {
+		return statementsBefore;
+	}
+
+	int getStatementsAfter() {
+		return statementsAfter;
+	}
+
+	/**
+	 * @return the table new variables are declared in
+	 */
+	private SymbolTable getVariables() {
+		return !callStack.isEmpty() ? localVariables : globalVariables;
+	}
+
+	public void pushVariable(String name) {
+		getVariables().push(name.toLowerCase());
 	}
 
 	/**
@@ -76,52 +512,730 @@ public class OrderOptimizer {
 	 * found
 	 * 
 	 * @param name
-	 * @return
+	 *            the name of the variable in lower case
+	 * @return the stack, <code>null</code> if the variable is unknown
 	 */
 	public StackType getStackType(String name) {
-		name = name.toLowerCase();
-		int index = getLocalIndex(name);
-		if (index != -1)
+		if (localVariables.indexFromTop(name) != -1)
 			return StackType.LOCAL;
-
-		index = getGlobalIndex(name);
-		if (index != -1)
+		if (globalVariables.indexFromTop(name) != -1)
 			return StackType.GLOBAL;
-
 		return null;
 	}
 
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return the position of the variable from the top of its stack,
+	 *         starting at 1; -1 if the variable is unknown
+	 */
 	public int getStackIndex(String name) {
-		name = name.toLowerCase();
-		int index = getLocalIndex(name);
+		int index = localVariables.indexFromTop(name);
 		if (index != -1)
 			return index;
+		return globalVariables.indexFromTop(name);
+	}
+
+	/**
+	 * declares the value of the variable pushed last. If the variable never
+	 * changes, it is replaced by its value from now on.
+	 * 
+	 * @param value
+	 *            the value the variable has after its declaration; must not
+	 *            be changed afterwards
+	 */
+	public void setInitialValue(Variable value) {
+		SymbolTable variables = getVariables();
+		String name = variables.peek();
+		if (usage == null || usage.mayChange(name)
+				|| !isEnabled(OptimizerFeature.FOLDING))
+			return;
+		variables.setConstant(value);
+		fixedVariables.add(name);
+	}
 
-		index = getGlobalIndex(name);
+	/**
+	 * declares the class of the variable pushed last, if every value
+	 * assigned to it is converted to it
+	 * 
+	 * @param type
+	 *            the class of the variable
+	 */
+	public void setVariableType(Class<? extends Variable> type) {
+		if (isEnabled(OptimizerFeature.NUMBERS))
+			getVariables().setType(type);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return the class the variable keeps, <code>null</code> if it may
+	 *         change or is not known
+	 */
+	public Class<? extends Variable> getVariableType(String name) {
+		int index = localVariables.indexFromTop(name);
 		if (index != -1)
-			return index;
+			return localVariables.getType(index);
+		index = globalVariables.indexFromTop(name);
+		if (index != -1)
+			return globalVariables.getType(index);
+		return null;
+	}
+
+	/**
+	 * gets the value of a variable if it never changes
+	 * 
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return the value, <code>null</code> if the variable may change or is
+	 *         unknown
+	 */
+	public Variable getConstant(String name) {
+		if (usage == null)
+			return null;
+		int index = localVariables.indexFromTop(name);
+		if (index != -1)
+			return localVariables.getConstant(index);
+
+		index = globalVariables.indexFromTop(name);
+		if (index != -1)
+			return globalVariables.getConstant(index);
 
-		return -1;
+		if (usage.isDeclared(name) || usage.mayChange(name)
+				|| !isEnabled(OptimizerFeature.FOLDING))
+			return null;
+		ArrayList<Variable> constants = MathConstant.getConstants();
+		for (int i = 0; i < constants.size(); i++) {
+			Variable constant = constants.get(i);
+			if (constant.getName().equals(name)) {
+				usedConstants.add(name);
+				return constant.getCopy(null);
+			}
+		}
+		return null;
 	}
 
+	/**
+	 * opens a new scope; the variables declared in it are forgotten by the
+	 * matching {@link #popState()}
+	 */
 	public void pushState() {
-		stateStack.push(new State(globalVariables.size(),
-				localVariables.size(), callStack.size()));
+		globalVariables.openScope();
+		localVariables.openScope();
 	}
 
 	public void popState() {
-		State lastState = stateStack.pop();
-		globalVariables.setSize(lastState.globalVariablesSize);
-		localVariables.setSize(lastState.localVariablesSize);
-		callStack.setSize(lastState.callStackSize);
+		globalVariables.closeScope();
+		localVariables.closeScope();
 	}
 
-	public Invokeable getSubroutine(String invokeableName, int length) {
-		for (int i = 0; i < invokeables.size(); i++) {
-			Invokeable inv = invokeables.get(i);
-			if (inv.getName().equals(invokeableName) && length == inv.getNArguments())
-				return inv;
+	/**
+	 * starts optimizing the body of a loop
+	 * 
+	 * @param loopUsage
+	 *            how the variables are used in the lines of the loop,
+	 *            <code>null</code> if unknown
+	 * @return the depth of the loop, which is the number of loops around it
+	 */
+	int pushLoop(VariableUsage loopUsage) {
+		int depth = loops.size();
+		if (usage == null || loopUsage == null)
+			loops.add(null);
+		else
+			loops.add(new Loop(loopUsage, depth, usage));
+		return depth;
+	}
+
+	/**
+	 * finishes optimizing the body of the innermost loop
+	 * 
+	 * @return the number of values the loop computes once per run
+	 */
+	int popLoop() {
+		Loop loop = loops.remove(loops.size() - 1);
+		return loop != null ? loop.nValues : 0;
+	}
+
+	/**
+	 * Moves a value out of the loops around it if it does not change inside
+	 * of the outermost possible one. The value is then only computed the
+	 * first time it is needed in every run of that loop.
+	 * 
+	 * @param value
+	 *            a value that has not been optimized yet
+	 * @return the optimized value computed once per run of a loop, or
+	 *         <code>null</code> if the value has to be computed every time
+	 */
+	public Value hoist(Value value) {
+		if (hoisting || !isEnabled(OptimizerFeature.HOISTING))
+			return null;
+		for (int i = firstLoop; i < loops.size(); i++) {
+			Loop loop = loops.get(i);
+			if (loop == null)
+				continue;
+			int nInvariants = invariants.size();
+			target = loop;
+			boolean invariant = value.isInvariant(this);
+			target = null;
+			if (!invariant) {
+				// the assumptions are not needed
+				while (invariants.size() > nInvariants)
+					invariants.remove(invariants.size() - 1);
+				continue;
+			}
+
+			Value optimized;
+			hoisting = true;
+			try {
+				optimized = value.getOptimized(this);
+			} finally {
+				hoisting = false;
+			}
+			if (optimized instanceof ConstantValue)
+				return optimized;
+			count(OptimizerFeature.HOISTING);
+			return new InvariantValue(loop.depth, loop.nValues++, optimized);
 		}
 		return null;
 	}
+
+	/**
+	 * determines if a variable may change inside of the loop a value is
+	 * checked for by {@link #hoist(Value)}
+	 * 
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return <code>true</code> if the variable keeps its value while the
+	 *         loop runs
+	 */
+	public boolean isInvariant(String name) {
+		if (target == null)
+			return false;
+		if (getConstant(name) != null)
+			return true;
+		boolean local = localVariables.indexFromTop(name) != -1;
+		if (!isInvariant(usage, target.usage, name, local,
+				target.callsDefinitions, target.changesReferences))
+			return false;
+		invariants.add(new Invariant(target.usage, name, local));
+		return true;
+	}
+
+	/**
+	 * @param program
+	 *            how the variables are used in the program
+	 * @param loop
+	 *            how the variables are used in the loop
+	 * @param local
+	 *            <code>true</code> if the variable belongs to the running
+	 *            subroutine, so that other subroutines can not access it by
+	 *            its name
+	 * @param callsDefinitions
+	 *            <code>true</code> if the loop may call a subroutine of the
+	 *            program
+	 * @param changesReferences
+	 *            <code>true</code> if the loop may change a variable through
+	 *            a reference
+	 */
+	private static boolean isInvariant(VariableUsage program,
+			VariableUsage loop, String name, boolean local,
+			boolean callsDefinitions, boolean changesReferences) {
+		if (loop.declaresOrChanges(name))
+			return false;
+		if (callsDefinitions && !local
+				&& program.isChangedByDefinitions(name))
+			return false;
+		if ((callsDefinitions || changesReferences)
+				&& (program.isReferenced(name) || program
+						.mayHoldReference(name)))
+			return false;
+		return true;
+	}
+
+	/**
+	 * searches the subroutine a call is bound to; this is the same subroutine
+	 * {@link OrderInterpreter#getSubroutine(String, int)} finds when the
+	 * program is run
+	 * 
+	 * @param invokeableName
+	 *            the name of the subroutine
+	 * @param length
+	 *            the amount of arguments passed
+	 * @return the subroutine or <code>null</code>, if it does not exist
+	 */
+	public Invokeable getSubroutine(String invokeableName, int length) {
+		String name = invokeableName.toLowerCase();
+		Invokeable inv = invokeables.get(name, length);
+		links.add(new Link(name, length, inv));
+		return inv;
+	}
+
+	/**
+	 * Copies the body of a subroutine into the code calling it, so that no
+	 * frame has to be created when it is called. Only small subroutines that
+	 * do not call themselves are inlined.
+	 * 
+	 * @param inv
+	 *            the subroutine called
+	 * @param args
+	 *            the arguments, not optimized yet
+	 * @return the inlined call, <code>null</code> if the subroutine has to be
+	 *         invoked
+	 */
+	public Executable getInlined(Invokeable inv, Value[] args) {
+		Block body = inline(inv, args, false);
+		if (body == null)
+			return null;
+		count(OptimizerFeature.INLINING);
+		return new InlinedSubroutine(args, body);
+	}
+
+	/**
+	 * Copies the body of a function into the code calling it.
+	 * 
+	 * @see #getInlined(Invokeable, Value[])
+	 * @return the inlined call, <code>null</code> if the function has to be
+	 *         invoked
+	 */
+	public Value getInlined(Function function, Value[] args) {
+		Block body = inline(function, args, true);
+		if (body == null)
+			return null;
+		count(OptimizerFeature.INLINING);
+		return new InlinedFunction(args, body);
+	}
+
+	/**
+	 * @return <code>true</code> while optimizing an inlined body. Its
+	 *         variables must not be found by their name, and variables not
+	 *         declared in it are global ones.
+	 */
+	public boolean isInlining() {
+		return !inlined.isEmpty();
+	}
+
+	/**
+	 * optimizes the arguments and a copy of the body of an inlined call
+	 * 
+	 * @return the body, <code>null</code> if the call is not inlined
+	 */
+	private Block inline(Invokeable inv, Value[] args, boolean function) {
+		SubroutineBody body = inv.getBody();
+		if (usage == null || body == null
+				|| !isEnabled(OptimizerFeature.INLINING)
+				|| body.getLength() > MAX_INLINED_LINES
+				|| inlined.size() >= MAX_INLINED_DEPTH)
+			return null;
+		if (isRecursive(inv))
+			return null;
+		Block block = body.parse();
+
+		for (int i = 0; i < args.length; i++)
+			args[i] = args[i].getOptimized(this).getReadOnly();
+
+		pushState();
+		SymbolTable variables = getVariables();
+		int start = variables.size();
+		for (int i = 0; i < args.length; i++) {
+			pushVariable(inv.arguments[i]);
+			// the argument is copied, and a copy of a number stays one
+			Class<? extends Variable> type = args[i].getResultType();
+			if (type == Integer64.class || type == Float64.class)
+				setVariableType(type);
+			if (args[i] instanceof ConstantValue) {
+				try {
+					Variable value = args[i].getVarValue(null, null, null)
+							.getCopy(null);
+					setInitialValue(value);
+				} catch (RuntimeException e) {
+					// an error to report when running the program
+				}
+			}
+		}
+		if (function)
+			pushVariable(inv.getName());
+
+		// the body can not see the variables of a calling subroutine or of
+		// the inlined bodies around it; global variables stay visible
+		int hiddenFrom = variables.getHiddenFrom();
+		int hiddenTo = variables.getHiddenTo();
+		if (isInlining())
+			variables.hide(hiddenFrom, start);
+		else
+			variables.hide(variables == localVariables ? 0 : start, start);
+		int outerLoop = firstLoop;
+		firstLoop = loops.size();
+		int outerDepth = expressionDepth;
+		expressionDepth = 0;
+		inlined.add(inv);
+		try {
+			block.getOptimized(this);
+		} finally {
+			inlined.remove(inlined.size() - 1);
+			expressionDepth = outerDepth;
+			firstLoop = outerLoop;
+			variables.hide(hiddenFrom, hiddenTo);
+			popState();
+		}
+		return block;
+	}
+
+	/**
+	 * determines if a subroutine may call itself, directly or through other
+	 * subroutines. A function assigning its return value does not call
+	 * itself.
+	 */
+	private boolean isRecursive(Invokeable inv) {
+		Boolean known = recursive.get(inv);
+		if (known != null)
+			return known;
+
+		ArrayList<Invokeable> all = invokeables.getAsArrayList();
+		HashSet<Invokeable> reached = new HashSet<Invokeable>();
+		ArrayList<Invokeable> pending = new ArrayList<Invokeable>();
+		pending.add(inv);
+		boolean result = false;
+		while (!result && !pending.isEmpty()) {
+			VariableUsage called = pending.remove(pending.size() - 1)
+					.getBody().getUsage();
+			for (int i = 0; i < all.size(); i++) {
+				Invokeable other = all.get(i);
+				if (other.getBody() == null
+						|| !called.calls(other.getName()))
+					continue;
+				if (other == inv) {
+					result = true;
+					break;
+				}
+				if (reached.add(other))
+					pending.add(other);
+			}
+		}
+		recursive.put(inv, result);
+		return result;
+	}
+
+	/**
+	 * @return <code>true</code> if the value being optimized is not part of
+	 *         another one
+	 */
+	public boolean isExpressionRoot() {
+		return expressionDepth == 0;
+	}
+
+	/**
+	 * Optimizes an expression that is not part of another one. If a
+	 * subexpression occurs more than once, only its first occurrence is
+	 * computed; it is kept by the interpreter, and the other occurrences take
+	 * it from there. This is only done for expressions without side effects,
+	 * so nothing can change between the occurrences.
+	 * 
+	 * Inside of a statement that only declares or assigns a variable, the
+	 * subexpressions computed by the statements right before it are taken
+	 * over as well, as long as no variable they depend on has been assigned.
+	 * 
+	 * @param value
+	 *            the expression, not optimized yet
+	 * @return the optimized expression
+	 */
+	public Value optimizeExpression(Value value) {
+		Value optimized;
+		expressionDepth++;
+		try {
+			optimized = value.getOptimized(this);
+		} finally {
+			expressionDepth--;
+		}
+		if (optimized.getNOperands() == 0 || !optimized.isPure()
+				|| !isEnabled(OptimizerFeature.COMMON_SUBEXPRESSIONS))
+			return optimized;
+
+		Sequence sequence = null;
+		if (usage != null && !sequences.isEmpty()
+				&& sequences.get(sequences.size() - 1).assignment)
+			sequence = sequences.get(sequences.size() - 1);
+
+		// the expression itself may be kept by the place using it, so it is
+		// never replaced
+		ArrayList<Candidate> computed = new ArrayList<Candidate>();
+		for (int i = 0; i < optimized.getNOperands(); i++)
+			findCommon(optimized, i, computed, sequence);
+		if (sequence != null)
+			sequence.pending.addAll(computed);
+		return optimized;
+	}
+
+	/**
+	 * replaces the subexpressions that have been computed before in the
+	 * order of evaluation
+	 * 
+	 * @param computed
+	 *            the subexpressions of the expression computed so far
+	 * @param sequence
+	 *            the block whose earlier statements may be used,
+	 *            <code>null</code> if there is none
+	 */
+	private void findCommon(Value parent, int operand,
+			ArrayList<Candidate> computed, Sequence sequence) {
+		Value value = parent.getOperand(operand);
+		if (value.getNOperands() == 0)
+			return;
+		for (int i = 0; i < computed.size(); i++) {
+			Candidate candidate = computed.get(i);
+			if (value.isEquivalent(candidate.value, 0, 0)) {
+				parent.setOperand(operand, new ReusedValue(
+						getCommonIndex(candidate), value));
+				countCommonSubexpression();
+				return;
+			}
+		}
+		int localSize = localVariables.size();
+		int globalSize = globalVariables.size();
+		if (sequence != null) {
+			for (int i = sequence.computed.size() - 1; i >= 0; i--) {
+				Candidate candidate = sequence.computed.get(i);
+				if (value.isEquivalent(candidate.value, localSize
+						- candidate.localSize, globalSize
+						- candidate.globalSize)) {
+					// only replaced if the statement turns out to do nothing
+					// else
+					Candidate reused = new Candidate(parent, operand,
+							localSize, globalSize);
+					reused.source = candidate;
+					sequence.reused.add(reused);
+					return;
+				}
+			}
+		}
+
+		for (int i = 0; i < value.getNOperands(); i++)
+			findCommon(value, i, computed, sequence);
+		computed.add(new Candidate(parent, operand, localSize, globalSize));
+	}
+
+	/**
+	 * makes the first occurrence of a common subexpression keep its result
+	 * 
+	 * @return the number of the common subexpression
+	 */
+	private int getCommonIndex(Candidate candidate) {
+		if (candidate.index == -1) {
+			candidate.index = nCommonValues++;
+			candidate.parent.setOperand(candidate.operand, new CommonValue(
+					candidate.index, candidate.value));
+		}
+		return candidate.index;
+	}
+
+	/**
+	 * starts optimizing the statements of a block
+	 */
+	void beginBlock() {
+		sequences.add(new Sequence());
+	}
+
+	void endBlock() {
+		sequences.remove(sequences.size() - 1);
+	}
+
+	/**
+	 * starts optimizing a statement of the innermost block
+	 */
+	void beginStatement() {
+		Sequence sequence = sequences.get(sequences.size() - 1);
+		sequence.assignment = false;
+		sequence.transparent = false;
+		sequence.target = null;
+		sequence.name = null;
+	}
+
+	/**
+	 * finishes optimizing a statement. Unless it only declared or assigned a
+	 * variable, the following statements can not use what has been computed
+	 * before.
+	 */
+	void endStatement() {
+		Sequence sequence = sequences.get(sequences.size() - 1);
+		if (sequence.transparent) {
+			for (int i = 0; i < sequence.reused.size(); i++) {
+				Candidate reused = sequence.reused.get(i);
+				reused.parent.setOperand(reused.operand, new ReusedValue(
+						getCommonIndex(reused.source), reused.value));
+				countCommonSubexpression();
+			}
+			sequence.computed.addAll(sequence.pending);
+			if (sequence.target != null)
+				forgetDependents(sequence, sequence.target, sequence.name);
+			int excess = sequence.computed.size() - MAX_COMMON_CANDIDATES;
+			if (excess > 0)
+				sequence.computed.subList(0, excess).clear();
+		} else {
+			sequence.computed.clear();
+		}
+		sequence.pending.clear();
+		sequence.reused.clear();
+	}
+
+	/**
+	 * forgets the computed subexpressions depending on an assigned variable
+	 */
+	private void forgetDependents(Sequence sequence, Value target,
+			String name) {
+		if (name != null)
+			name = name.toLowerCase();
+		if (name == null || usage.mayHoldReference(name)
+				|| usage.isReferenced(name)) {
+			// any variable may have changed
+			sequence.computed.clear();
+			return;
+		}
+		unreferenced.add(name);
+
+		// an element of an array is found by the array variable
+		Value variable = target;
+		while (variable.getNOperands() > 0)
+			variable = variable.getOperand(0);
+		int localSize = localVariables.size();
+		int globalSize = globalVariables.size();
+		for (int i = sequence.computed.size() - 1; i >= 0; i--) {
+			Candidate candidate = sequence.computed.get(i);
+			if (dependsOn(candidate.value, variable, localSize
+					- candidate.localSize, globalSize - candidate.globalSize))
+				sequence.computed.remove(i);
+		}
+	}
+
+	private static boolean dependsOn(Value value, Value variable,
+			int localShift, int globalShift) {
+		if (value instanceof CommonValue)
+			value = ((CommonValue) value).getValue();
+		int n = value.getNOperands();
+		if (n == 0)
+			return variable.isEquivalent(value, localShift, globalShift);
+		for (int i = 0; i < n; i++) {
+			if (dependsOn(value.getOperand(i), variable, localShift,
+					globalShift))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * called by a statement that does nothing but declare or assign a
+	 * variable before its values are optimized. They may then take over the
+	 * subexpressions computed by the statements before.
+	 */
+	public void beginAssignment() {
+		if (!sequences.isEmpty())
+			sequences.get(sequences.size() - 1).assignment = true;
+	}
+
+	/**
+	 * called by a statement after {@link #beginAssignment()} when its values
+	 * are optimized
+	 * 
+	 * @param target
+	 *            the optimized variable assigned, <code>null</code> for a
+	 *            declaration
+	 * @param name
+	 *            the name of the assigned variable, <code>null</code> if it
+	 *            is not known
+	 * @param value
+	 *            the optimized value assigned, <code>null</code> if there is
+	 *            none
+	 */
+	public void endAssignment(Value target, String name, Value value) {
+		if (sequences.isEmpty())
+			return;
+		Sequence sequence = sequences.get(sequences.size() - 1);
+		sequence.transparent = (value == null || value.isPure())
+				&& (target == null || target.isPure());
+		sequence.target = target;
+		sequence.name = name;
+	}
+
+	/**
+	 * counts statements that are removed because they are never run
+	 */
+	void countRemovedStatements(int n) {
+		removedStatements += n;
+		featureNodes[OptimizerFeature.DEAD_CODE.ordinal()] += n;
+	}
+
+	/**
+	 * counts a statement whose condition is always the same
+	 */
+	void countPrunedBranch() {
+		prunedBranches++;
+		count(OptimizerFeature.DEAD_CODE);
+	}
+
+	/**
+	 * counts a subexpression taken over from an earlier occurrence
+	 */
+	private void countCommonSubexpression() {
+		commonSubexpressions++;
+		count(OptimizerFeature.COMMON_SUBEXPRESSIONS);
+	}
+
+	int getRemovedStatements() {
+		return removedStatements;
+	}
+
+	int getPrunedBranches() {
+		return prunedBranches;
+	}
+
+	int getCommonSubexpressions() {
+		return commonSubexpressions;
+	}
+
+	/**
+	 * counts a call that is run in place of the subroutine calling it
+	 */
+	void countTailCall() {
+		tailCalls++;
+		count(OptimizerFeature.TAIL_CALLS);
+	}
+
+	int getTailCalls() {
+		return tailCalls;
+	}
+
+	/**
+	 * determines if code optimized by this optimizer is still correct in a
+	 * changed program
+	 * 
+	 * @param invokeables
+	 *            the subroutines of the changed program
+	 * @param usage
+	 *            how the variables are used in the changed program
+	 * @return <code>true</code> if the code would be optimized the same way
+	 *         in the changed program
+	 */
+	boolean isValid(InvokeableList invokeables, VariableUsage usage) {
+		for (int i = 0; i < links.size(); i++) {
+			if (!links.get(i).isValid(invokeables))
+				return false;
+		}
+		for (int i = 0; i < fixedVariables.size(); i++) {
+			if (usage.mayChange(fixedVariables.get(i)))
+				return false;
+		}
+		for (int i = 0; i < usedConstants.size(); i++) {
+			String name = usedConstants.get(i);
+			if (usage.isDeclared(name) || usage.mayChange(name))
+				return false;
+		}
+		for (int i = 0; i < invariants.size(); i++) {
+			if (!invariants.get(i).isValid(usage))
+				return false;
+		}
+		for (int i = 0; i < unreferenced.size(); i++) {
+			String name = unreferenced.get(i);
+			if (usage.mayHoldReference(name) || usage.isReferenced(name))
+				return false;
+		}
+		return true;
+	}
 }
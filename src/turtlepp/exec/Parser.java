@@ -0,0 +1,812 @@
+package turtlepp.exec;
+
+import java.util.ArrayList;
+import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import turtlepp.InterpreterException;
+import turtlepp.exec.OrderInterpreter.InvokeableList;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * Builds the tree of {@link Executable}s out of a piece of source code.
+ *
+ * The code is first prepared by the {@link Preprocessor}.
+ * Every line is tokenized exactly once; since lines do not depend on each
+ * other, the lines of long programs are tokenized in parallel. A single scan
+ * over the tokenized lines then finds the matching "end" line of every
+ * statement using a stack of the currently open statements, so that the
+ * nested blocks can be built without looking at any line a second time.
+ * Subroutine and function definitions do not depend on each other either, so
+ * their bodies are compiled in parallel as well.
+ */
+class Parser {
+	/**
+	 * kinds of lines that open or close a statement
+	 */
+	private static final String[] statements = new String[] { "repeat", "if",
+			"while", "sub", "function" };
+
+	/**
+	 * programs with at least this many lines are tokenized in parallel
+	 */
+	private static final int PARALLEL_THRESHOLD = 512;
+
+	/**
+	 * number of lines tokenized by one parallel task
+	 */
+	private static final int PARALLEL_BATCH = 128;
+
+	/**
+	 * definitions are compiled in parallel if their bodies have at least this
+	 * many lines together. Compiling a line takes much longer than tokenizing
+	 * it, so this is far less than {@link #PARALLEL_THRESHOLD}.
+	 */
+	private static final int PARALLEL_DEFINITION_LINES = 32;
+
+	/**
+	 * the lines of the code, <code>null</code> if the parser has been created
+	 * out of already tokenized lines
+	 */
+	private String[] lines;
+
+	/**
+	 * for every line, the index of the source line it starts in
+	 */
+	private int[] lineNumbers;
+
+	/**
+	 * the tokenized lines; empty lines have no tokens
+	 */
+	private Token[][] tokens;
+
+	/**
+	 * index of the first line in the original code
+	 */
+	private int lineOffset;
+
+	/**
+	 * for every line opening a statement, the index of the matching "end"
+	 * line, -1 for all other lines
+	 */
+	private int[] blockEnd;
+
+	/**
+	 * for every "if" or "else" line, the index of the next "else" line
+	 * belonging to the same if statement, -1 if there is none
+	 */
+	private int[] nextBranch;
+
+	/**
+	 * all subroutine and function definitions in the order they appear in
+	 * the code
+	 */
+	private ArrayList<Definition> definitions;
+
+	/**
+	 * for every line starting a definition, the index of the definition in
+	 * {@link #definitions}, -1 for all other lines
+	 */
+	private int[] definitionIndex;
+
+	/**
+	 * for every line of a subroutine body, the instruction built when the
+	 * line was checked, <code>null</code> for the other lines. The first
+	 * parse of the body takes them over, so that the lines of a body that is
+	 * run are not compiled twice.
+	 *
+	 * @see #check()
+	 */
+	private Executable[] checked;
+
+	/**
+	 * for every line opening a loop, how the variables are used in the
+	 * loop; <code>null</code> until the first loop is parsed
+	 */
+	private VariableUsage[] loopUsages;
+
+	/**
+	 * A subroutine or function definition. The fingerprint consists of the
+	 * lines of the definition together with their line numbers, so two
+	 * definitions with the same fingerprint compile to the same code. It is
+	 * <code>null</code> if the source code is not known.
+	 */
+	static final class Definition {
+		final int line;
+		final int end;
+		final String fingerprint;
+
+		Definition(int line, int end, String fingerprint) {
+			this.line = line;
+			this.end = end;
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * A statement that has been opened but whose "end" line has not been
+	 * found yet.
+	 */
+	private static class OpenStatement {
+		final String kind;
+		final int line;
+		int lastBranch;
+		boolean hasElse;
+
+		OpenStatement(String kind, int line) {
+			this.kind = kind;
+			this.line = line;
+			this.lastBranch = line;
+			this.hasElse = false;
+		}
+	}
+
+	/**
+	 * tokenizes the code and matches all statements with their "end" lines
+	 *
+	 * @param code
+	 *            the code to parse
+	 * @param lineOffset
+	 *            the line of the code's first line in the original source
+	 */
+	Parser(String code, int lineOffset) {
+		Preprocessor preprocessor = new Preprocessor(code);
+		this.lines = preprocessor.getLines();
+		this.lineNumbers = preprocessor.getLineNumbers();
+		this.lineOffset = lineOffset;
+		tokenizeLines();
+		matchStatements();
+	}
+
+	/**
+	 * parses the whole code into the given block
+	 *
+	 * @param block
+	 *            the block to add the instructions to
+	 * @param subroutines
+	 *            subroutines defined in the code are added to this list
+	 */
+	void parse(Block block, InvokeableList subroutines) {
+		Invokeable[] parsed = subroutines != null ? new Invokeable[definitions
+				.size()] : null;
+		parse(block, parsed);
+		if (parsed != null) {
+			for (int i = 0; i < parsed.length; i++)
+				subroutines.add(parsed[i]);
+		}
+	}
+
+	/**
+	 * parses the whole code into the given block. Definitions that already
+	 * have an entry in <code>parsed</code> are skipped, all others are parsed
+	 * and stored there.
+	 *
+	 * @param block
+	 *            the block to add the instructions to
+	 * @param parsed
+	 *            the definitions, indexed like {@link #getDefinitions()}
+	 */
+	void parse(Block block, Invokeable[] parsed) {
+		parseDefinitions(parsed);
+		parseBlock(block, 0, tokens.length, parsed, null);
+	}
+
+	/**
+	 * parses the definitions that have no entry in <code>parsed</code> yet
+	 * in parallel, if there are enough of them. Definitions that can not be
+	 * parsed are left out, so that parsing them again one after the other
+	 * reports the first error in the code.
+	 *
+	 * @param parsed
+	 *            the definitions, indexed like {@link #getDefinitions()}
+	 */
+	void parseDefinitions(Invokeable[] parsed) {
+		int nLines = 0;
+		int nDefinitions = 0;
+		for (int i = 0; i < parsed.length; i++) {
+			if (parsed[i] == null) {
+				Definition d = definitions.get(i);
+				nLines += d.end - d.line;
+				nDefinitions++;
+			}
+		}
+		if (nDefinitions < 2 || nLines < PARALLEL_DEFINITION_LINES
+				|| Runtime.getRuntime().availableProcessors() < 2)
+			return;
+		ForkJoinPool.commonPool().invoke(
+				new DefinitionTask(0, parsed.length, parsed));
+	}
+
+	/**
+	 * parses the definitions in [from, to), splitting the range until every
+	 * task parses a single definition
+	 */
+	private class DefinitionTask extends RecursiveAction {
+		private static final long serialVersionUID = 6140739129624503741L;
+
+		private final int from;
+		private final int to;
+		private final Invokeable[] parsed;
+
+		DefinitionTask(int from, int to, Invokeable[] parsed) {
+			this.from = from;
+			this.to = to;
+			this.parsed = parsed;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DefinitionTask(from, middle, parsed),
+						new DefinitionTask(middle, to, parsed));
+			} else if (from < to && parsed[from] == null) {
+				try {
+					parsed[from] = parseDefinition(definitions.get(from));
+				} catch (RuntimeException e) {
+					// reported when the definition is parsed again in order
+				}
+			}
+		}
+	}
+
+	/**
+	 * parses a single subroutine or function definition
+	 *
+	 * @param definition
+	 *            one of the definitions returned by {@link #getDefinitions()}
+	 * @return the subroutine
+	 */
+	Invokeable parseDefinition(Definition definition) {
+		int i = definition.line;
+		return parseSubroutine(getStatementKind(tokens[i], 0), tokens[i], i,
+				definition.end);
+	}
+
+	/**
+	 * @return all subroutine and function definitions in the order they
+	 *         appear in the code
+	 */
+	ArrayList<Definition> getDefinitions() {
+		return definitions;
+	}
+
+	/**
+	 * @return the fingerprint of all lines that are not part of any
+	 *         definition, <code>null</code> if the source code is not known
+	 */
+	String getMainFingerprint() {
+		if (lines == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		int from = 0;
+		for (int i = 0; i < definitions.size(); i++) {
+			Definition d = definitions.get(i);
+			appendFingerprint(sb, from, d.line);
+			from = d.end + 1;
+		}
+		appendFingerprint(sb, from, tokens.length);
+		return sb.toString();
+	}
+
+	private void appendFingerprint(StringBuilder sb, int from, int to) {
+		for (int i = from; i < to; i++) {
+			sb.append(lineNumber(i)).append(':').append(lines[i]).append('\n');
+		}
+	}
+
+	/**
+	 * creates a parser out of already tokenized lines whose statements have
+	 * been matched before
+	 *
+	 * @param tokens
+	 *            the tokenized lines
+	 * @param lineNumbers
+	 *            for every line, the index of the source line it starts in
+	 * @param blockEnd
+	 *            for every line opening a statement, the index of the
+	 *            matching "end" line, -1 for all other lines
+	 * @param nextBranch
+	 *            for every "if" or "else" line, the index of the next "else"
+	 *            line, -1 if there is none
+	 * @param lineOffset
+	 *            the line of the code's first line in the original source
+	 */
+	Parser(Token[][] tokens, int[] lineNumbers, int[] blockEnd,
+			int[] nextBranch, int lineOffset) {
+		this.tokens = tokens;
+		this.lineNumbers = lineNumbers;
+		this.blockEnd = blockEnd;
+		this.nextBranch = nextBranch;
+		this.lineOffset = lineOffset;
+		definitionIndex = new int[tokens.length];
+		definitions = new ArrayList<Definition>();
+		for (int i = 0; i < tokens.length; i++) {
+			definitionIndex[i] = -1;
+			String kind = getStatementKind(tokens[i], 0);
+			if (blockEnd[i] != -1
+					&& (kind.equals("sub") || kind.equals("function")))
+				addDefinition(i, blockEnd[i]);
+		}
+	}
+
+	/**
+	 * creates a parser for a part of the lines of another parser
+	 *
+	 * @param outer
+	 *            the parser containing the lines
+	 * @param from
+	 *            the index of the first line
+	 * @param to
+	 *            the index after the last line
+	 */
+	private Parser(Parser outer, int from, int to) {
+		int n = to - from;
+		lineNumbers = new int[n];
+		tokens = new Token[n][];
+		blockEnd = new int[n];
+		nextBranch = new int[n];
+		definitionIndex = new int[n];
+		definitions = new ArrayList<Definition>();
+		lineOffset = outer.lineOffset;
+		for (int i = 0; i < n; i++) {
+			lineNumbers[i] = outer.lineNumbers[from + i];
+			tokens[i] = outer.tokens[from + i];
+			int end = outer.blockEnd[from + i];
+			blockEnd[i] = end != -1 ? end - from : -1;
+			int branch = outer.nextBranch[from + i];
+			nextBranch[i] = branch != -1 ? branch - from : -1;
+			definitionIndex[i] = -1;
+		}
+	}
+
+	Token[][] getTokens() {
+		return tokens;
+	}
+
+	int[] getLineNumbers() {
+		return lineNumbers;
+	}
+
+	int[] getBlockEnds() {
+		return blockEnd;
+	}
+
+	int[] getNextBranches() {
+		return nextBranch;
+	}
+
+	int getLineOffset() {
+		return lineOffset;
+	}
+
+	/**
+	 * parses all lines as the body of a subroutine
+	 *
+	 * @param block
+	 *            the block to add the instructions to
+	 */
+	void parseBody(Block block) {
+		Executable[] built;
+		synchronized (this) {
+			built = checked;
+			checked = null;
+		}
+		parseBlock(block, 0, tokens.length, null, built);
+	}
+
+	/**
+	 * compiles every line of a subroutine body on its own to find the errors
+	 * {@link #parseBody(Block)} would report, without building any blocks.
+	 * The lines are checked in the order they are parsed in, so the first
+	 * faulty line is reported. The compiled lines are kept for the first
+	 * {@link #parseBody(Block)}.
+	 *
+	 * @throws InterpreterException
+	 *             if a line can not be compiled
+	 */
+	void check() {
+		Executable[] built = new Executable[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			Token[] line = tokens[i];
+			if (line.length == 0 || line[0].isTextCommand("end"))
+				continue;
+
+			String kind = getStatementKind(line, 0);
+			if (line[0].isTextCommand("else")) {
+				if (line.length == 1)
+					continue;
+				if (!line[1].isTextCommand("if"))
+					throw new InterpreterException(
+							"Check your use of the else statement.",
+							location(i));
+				Token[] ifLine = new Token[line.length - 1];
+				System.arraycopy(line, 1, ifLine, 0, ifLine.length);
+				built[i] = new IfStatement(ifLine, lineNumber(i));
+			} else if (kind == null) {
+				built[i] = compile(line, i);
+			} else if (kind.equals("repeat")) {
+				built[i] = new RepeatStatement(line, lineNumber(i));
+			} else if (kind.equals("while")) {
+				built[i] = new WhileStatement(line, lineNumber(i));
+			} else if (kind.equals("if")) {
+				built[i] = new IfStatement(line, lineNumber(i));
+			} else {
+				throw new InterpreterException(
+						"Invalid definition of subroutine " + line[1],
+						location(i));
+			}
+		}
+		synchronized (this) {
+			checked = built;
+		}
+	}
+
+	/**
+	 * tokenizes all lines. Since the lines do not depend on each other, long
+	 * programs are tokenized in parallel. Errors are reported for the first
+	 * faulty line, just like when tokenizing one line after the other.
+	 */
+	private void tokenizeLines() {
+		tokens = new Token[lines.length][];
+		RuntimeException[] errors = new RuntimeException[lines.length];
+		if (lines.length < PARALLEL_THRESHOLD
+				|| Runtime.getRuntime().availableProcessors() < 2)
+			tokenizeLines(0, lines.length, errors);
+		else
+			ForkJoinPool.commonPool().invoke(
+					new TokenizeTask(0, lines.length, errors));
+
+		for (int i = 0; i < errors.length; i++) {
+			if (errors[i] != null)
+				throw errors[i];
+		}
+	}
+
+	private void tokenizeLines(int from, int to, RuntimeException[] errors) {
+		for (int i = from; i < to; i++) {
+			if (lines[i].isEmpty()) {
+				tokens[i] = new Token[0];
+				continue;
+			}
+			try {
+				tokens[i] = Tokenizer.tokenize(lines[i]);
+			} catch (ParserException pe) {
+				errors[i] = new ParserException(pe.getMessage(), location(i));
+			} catch (RuntimeException re) {
+				errors[i] = re;
+			}
+		}
+	}
+
+	/**
+	 * tokenizes the lines in [from, to), splitting the range as long as it is
+	 * large enough
+	 */
+	private class TokenizeTask extends RecursiveAction {
+		private static final long serialVersionUID = -4271637018236478841L;
+
+		private final int from;
+		private final int to;
+		private final RuntimeException[] errors;
+
+		TokenizeTask(int from, int to, RuntimeException[] errors) {
+			this.from = from;
+			this.to = to;
+			this.errors = errors;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PARALLEL_BATCH) {
+				tokenizeLines(from, to, errors);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TokenizeTask(from, middle, errors),
+						new TokenizeTask(middle, to, errors));
+			}
+		}
+	}
+
+	/**
+	 * fills {@link #blockEnd} and {@link #nextBranch}
+	 */
+	private void matchStatements() {
+		blockEnd = new int[tokens.length];
+		nextBranch = new int[tokens.length];
+		definitionIndex = new int[tokens.length];
+		definitions = new ArrayList<Definition>();
+		Stack<OpenStatement> open = new Stack<OpenStatement>();
+
+		for (int i = 0; i < tokens.length; i++) {
+			blockEnd[i] = -1;
+			nextBranch[i] = -1;
+			definitionIndex[i] = -1;
+			Token[] line = tokens[i];
+
+			String opened = getStatementKind(line, 0);
+			if (opened != null) {
+				if (opened.equals("sub") || opened.equals("function")) {
+					for (int j = 0; j < open.size(); j++) {
+						String kind = open.get(j).kind;
+						if (kind.equals("sub") || kind.equals("function"))
+							throw new InterpreterException(
+									"Syntax error: definition of subroutine inside of another subroutine",
+									location(i));
+					}
+				}
+				open.push(new OpenStatement(opened, i));
+			} else if (line.length >= 2 && line[0].isTextCommand("end")) {
+				String closed = getStatementKind(line, 1);
+				// stray "end" lines are skipped like any other "end" line
+				if (closed == null || open.isEmpty())
+					continue;
+				OpenStatement top = open.pop();
+				if (!top.kind.equals(closed))
+					throw unmatched(top);
+				blockEnd[top.line] = i;
+				// definitions do not nest, so they end in the same order they
+				// start
+				if (closed.equals("sub") || closed.equals("function"))
+					addDefinition(top.line, i);
+			} else if (line.length >= 1 && line[0].isTextCommand("else")) {
+				if (open.isEmpty() || !open.peek().kind.equals("if")
+						|| open.peek().hasElse)
+					throw new InterpreterException("Else without If",
+							location(i));
+				OpenStatement top = open.peek();
+				nextBranch[top.lastBranch] = i;
+				top.lastBranch = i;
+				top.hasElse = !(line.length >= 2 && line[1]
+						.isTextCommand("if"));
+			}
+		}
+
+		if (!open.isEmpty())
+			throw unmatched(open.peek());
+	}
+
+	private void addDefinition(int line, int end) {
+		String fingerprint = null;
+		if (lines != null) {
+			StringBuilder sb = new StringBuilder();
+			appendFingerprint(sb, line, end + 1);
+			fingerprint = sb.toString();
+		}
+		definitionIndex[line] = definitions.size();
+		definitions.add(new Definition(line, end, fingerprint));
+	}
+
+	/**
+	 * parses the lines in [from, to) and adds the instructions to the block.
+	 * Definitions are parsed into <code>parsed</code> unless they are already
+	 * there; if <code>parsed</code> is <code>null</code>, definitions are not
+	 * allowed. Lines that have an entry in <code>built</code> are not
+	 * compiled again.
+	 */
+	private void parseBlock(Block block, int from, int to,
+			Invokeable[] parsed, Executable[] built) {
+		ArrayList<Executable> executables = new ArrayList<Executable>();
+		int[] lines = new int[to - from];
+
+		for (int i = from; i < to; i++) {
+			Token[] line = tokens[i];
+			if (line.length == 0)
+				continue;
+
+			String kind = getStatementKind(line, 0);
+			Executable checked = built != null ? built[i] : null;
+			if (kind == null) {
+				if (!line[0].isTextCommand("end")) {
+					lines[executables.size()] = lineNumber(i);
+					executables.add(checked != null ? checked : compile(line,
+							i));
+				}
+				continue;
+			}
+
+			int end = blockEnd[i];
+			lines[executables.size()] = lineNumber(i);
+			if (kind.equals("repeat")) {
+				RepeatStatement rs = checked != null ? (RepeatStatement) checked
+						: new RepeatStatement(line, lineNumber(i));
+				rs.setUsage(getLoopUsage(i));
+				parseBlock(rs, i + 1, end, parsed, built);
+				executables.add(rs);
+			} else if (kind.equals("while")) {
+				WhileStatement ws = checked != null ? (WhileStatement) checked
+						: new WhileStatement(line, lineNumber(i));
+				ws.setUsage(getLoopUsage(i));
+				parseBlock(ws, i + 1, end, parsed, built);
+				executables.add(ws);
+			} else if (kind.equals("if")) {
+				executables.add(parseIf(line, i, end, parsed, built));
+			} else {
+				if (parsed == null)
+					throw new InterpreterException(
+							"Invalid definition of subroutine " + line[1],
+							location(i));
+				int index = definitionIndex[i];
+				if (parsed[index] == null)
+					parsed[index] = parseSubroutine(kind, line, i, end);
+			}
+			i = end;
+		}
+
+		block.addExecutables(executables, lines);
+	}
+
+	/**
+	 * @param line
+	 *            the index of a "repeat" or "while" line
+	 * @return how the variables are used in the loop: for a "repeat" loop in
+	 *         its body, for a "while" loop in its condition and its body
+	 */
+	private synchronized VariableUsage getLoopUsage(int line) {
+		if (loopUsages == null)
+			loopUsages = findLoopUsages();
+		return loopUsages[line];
+	}
+
+	/**
+	 * finds the usages of all loops in a single scan over the lines. Every
+	 * line is added to the usage of the innermost loop around it; when a loop
+	 * ends, its usage is added to the one of the loop around it. Definitions
+	 * outside of any loop are skipped, since their bodies are parsed by
+	 * parsers of their own.
+	 */
+	private VariableUsage[] findLoopUsages() {
+		VariableUsage[] usages = new VariableUsage[tokens.length];
+		Stack<Integer> open = new Stack<Integer>();
+		for (int i = 0; i < tokens.length; i++) {
+			Token[] line = tokens[i];
+			String kind = getStatementKind(line, 0);
+			VariableUsage outer = open.isEmpty() ? null : usages[open.peek()];
+			if (outer == null && definitionIndex[i] != -1) {
+				i = blockEnd[i];
+			} else if (blockEnd[i] != -1
+					&& (kind.equals("repeat") || kind.equals("while"))) {
+				usages[i] = new VariableUsage();
+				// the number of runs of a repeat loop is computed before it
+				// runs, the condition of a while loop on every run
+				if (kind.equals("while"))
+					usages[i].addLine(line);
+				else if (outer != null)
+					outer.addLine(line);
+				open.push(i);
+			} else if (outer != null && blockEnd[open.peek()] == i) {
+				VariableUsage inner = outer;
+				open.pop();
+				if (!open.isEmpty()) {
+					outer = usages[open.peek()];
+					outer.addLine(line);
+					outer.addAll(inner);
+				}
+			} else if (outer != null) {
+				outer.addLine(line);
+			}
+		}
+		return usages;
+	}
+
+	/**
+	 * compiles a line that is not a statement. The position of the line is
+	 * kept in the line table of the block instead of the command.
+	 */
+	private Executable compile(Token[] line, int i) {
+		try {
+			return Compiler.compile(line, null);
+		} catch (InterpreterException ie) {
+			if (ie.getCodeLocationInfo() == null)
+				ie.setCodeLocationInfo(location(i));
+			throw ie;
+		}
+	}
+
+	/**
+	 * parses an if statement including all its else branches
+	 *
+	 * @param header
+	 *            the tokens of the "if" or "else if" line, starting with "if"
+	 * @param i
+	 *            the index of the line
+	 * @param end
+	 *            the index of the matching "end if"
+	 */
+	private IfStatement parseIf(Token[] header, int i, int end,
+			Invokeable[] parsed, Executable[] built) {
+		IfStatement is = built != null ? (IfStatement) built[i] : null;
+		if (is == null)
+			is = new IfStatement(header, lineNumber(i));
+		int branch = nextBranch[i];
+		parseBlock(is, i + 1, branch != -1 ? branch : end, parsed, built);
+
+		if (branch != -1) {
+			Token[] elseLine = tokens[branch];
+			if (elseLine.length == 1) {
+				Block elseBlock = new Block(lineNumber(branch));
+				parseBlock(elseBlock, branch + 1, end, parsed, built);
+				is.setElseBlock(elseBlock);
+			} else if (elseLine[1].isTextCommand("if")) {
+				Token[] ifLine = new Token[elseLine.length - 1];
+				System.arraycopy(elseLine, 1, ifLine, 0, ifLine.length);
+				is.setElseBlock(parseIf(ifLine, branch, end, parsed, built));
+			} else {
+				throw new InterpreterException(
+						"Check your use of the else statement.",
+						location(branch));
+			}
+		}
+		return is;
+	}
+
+	/**
+	 * parses a subroutine or a function definition
+	 */
+	private Invokeable parseSubroutine(String kind, Token[] header, int i,
+			int end) {
+		String name = header[1].getStringToken();
+		String[] arguments = new String[header.length - 2];
+		for (int j = 0; j < arguments.length; j++) {
+			if (!header[j + 2].canBeVariable())
+				throw new InterpreterException("Check your use of the \""
+						+ capitalize(kind) + "\" statement", location(i));
+			arguments[j] = header[j + 2].getStringToken();
+		}
+
+		// the body is only parsed when the subroutine is run the first time,
+		// but its lines are checked now, so that errors are reported even if
+		// it is never run; the lines compiled by the check are kept for the
+		// parse
+		Parser bodyParser = new Parser(this, i + 1, end);
+		bodyParser.check();
+		SubroutineBody body = new SubroutineBody(bodyParser, lineNumber(i));
+
+		if (kind.equals("sub"))
+			return new Subroutine(name, arguments, body);
+		else
+			return new Function(name, arguments, body);
+	}
+
+	/**
+	 * determines if the token at a specific index names a statement. Since
+	 * every statement takes at least one argument and every "end" line needs
+	 * the kind of the statement, lines with less than two tokens are never
+	 * considered.
+	 *
+	 * @return the kind of the statement in lower case, or <code>null</code> if
+	 *         the token does not name a statement
+	 */
+	private static String getStatementKind(Token[] line, int index) {
+		if (line.length < 2)
+			return null;
+		for (int i = 0; i < statements.length; i++) {
+			if (line[index].isTextCommand(statements[i]))
+				return statements[i];
+		}
+		return null;
+	}
+
+	private InterpreterException unmatched(OpenStatement statement) {
+		String name = capitalize(statement.kind);
+		return new InterpreterException("Syntax error: \"" + name
+				+ "\" without matching \"End " + name + "\"",
+				location(statement.line));
+	}
+
+	private static String capitalize(String kind) {
+		return Character.toUpperCase(kind.charAt(0)) + kind.substring(1);
+	}
+
+	/**
+	 * @return the index of the line in the original source
+	 */
+	private int lineNumber(int line) {
+		return lineOffset + lineNumbers[line];
+	}
+
+	private CodeLocationInfo location(int line) {
+		return new CodeLocationInfo(lineNumber(line));
+	}
+}
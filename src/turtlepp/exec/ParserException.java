@@ -0,0 +1,21 @@
+package turtlepp.exec;
+
+import turtlepp.InterpreterException;
+
+/**
+ * Exception thrown while parsing a piece of code.
+ * 
+ * @author Nicolas Winkler
+ * 
+ */
+class ParserException extends InterpreterException {
+	private static final long serialVersionUID = 632797542061918768L;
+
+	public ParserException(String message) {
+		super(message);
+	}
+
+	public ParserException(String message, CodeLocationInfo cli) {
+		super(message, cli);
+	}
+}
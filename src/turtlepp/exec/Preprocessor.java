@@ -0,0 +1,158 @@
+package turtlepp.exec;
+
+import java.util.ArrayList;
+
+/**
+ * Prepares source code for the {@link Parser}: removes comments, joins lines
+ * continued with " _" and splits the code into trimmed lines.
+ *
+ * Everything is done in one pass over the code. For every resulting line, the
+ * index of the source line it starts in is recorded, so that errors can be
+ * reported at the exact line of the original code.
+ */
+class Preprocessor {
+	/**
+	 * the resulting lines
+	 */
+	private ArrayList<String> lines;
+
+	/**
+	 * for every resulting line, the index of the source line it starts in
+	 */
+	private int[] lineNumbers;
+
+	/**
+	 * scans the code
+	 *
+	 * @param code
+	 *            the source code
+	 */
+	Preprocessor(String code) {
+		lines = new ArrayList<String>();
+		lineNumbers = new int[16];
+		scan(code);
+	}
+
+	/**
+	 * @return the lines without comments and continuations
+	 */
+	String[] getLines() {
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * @return for every line, the index of the source line it starts in
+	 */
+	int[] getLineNumbers() {
+		if (lineNumbers.length != lines.size()) {
+			int[] trimmed = new int[lines.size()];
+			System.arraycopy(lineNumbers, 0, trimmed, 0, trimmed.length);
+			lineNumbers = trimmed;
+		}
+		return lineNumbers;
+	}
+
+	private void scan(String code) {
+		int length = code.length();
+		StringBuilder line = new StringBuilder();
+
+		// index of the source line currently scanned
+		int sourceLine = 0;
+		// index of the source line the current line started in
+		int firstLine = 0;
+		// if the previous source line ended with " _"
+		boolean continued = false;
+
+		int i = 0;
+		while (true) {
+			int contentStart = line.length();
+			boolean inString = false;
+
+			for (; i < length && code.charAt(i) != '\n'; i++) {
+				char chr = code.charAt(i);
+				if (inString) {
+					line.append(chr);
+					if (chr == '\\' && i + 1 < length
+							&& code.charAt(i + 1) != '\n')
+						line.append(code.charAt(++i));
+					else if (chr == '"')
+						inString = false;
+				} else if (chr == '"') {
+					line.append(chr);
+					inString = true;
+				} else if (chr == '\'') {
+					// char literals always take the two following characters
+					line.append(chr);
+					for (int j = 0; j < 2 && i + 1 < length
+							&& code.charAt(i + 1) != '\n'; j++)
+						line.append(code.charAt(++i));
+				} else if (chr == '/' && i + 1 < length
+						&& code.charAt(i + 1) == '/') {
+					while (i < length && code.charAt(i) != '\n')
+						i++;
+					break;
+				} else {
+					line.append(chr);
+				}
+			}
+
+			if (continued && isBlank(line, contentStart)) {
+				// blank lines after a continuation belong to the joined line
+			} else if (removeContinuation(line)) {
+				continued = true;
+			} else {
+				addLine(line.toString().trim(), firstLine);
+				line.setLength(0);
+				continued = false;
+			}
+
+			if (i >= length)
+				break;
+			i++;
+			sourceLine++;
+			if (!continued)
+				firstLine = sourceLine;
+		}
+
+		if (continued)
+			addLine(line.toString().trim(), firstLine);
+	}
+
+	private void addLine(String line, int lineNumber) {
+		if (lines.size() == lineNumbers.length) {
+			int[] newNumbers = new int[lineNumbers.length * 2];
+			System.arraycopy(lineNumbers, 0, newNumbers, 0, lineNumbers.length);
+			lineNumbers = newNumbers;
+		}
+		lineNumbers[lines.size()] = lineNumber;
+		lines.add(line);
+	}
+
+	/**
+	 * If the line ends with a space or tab followed by an underscore, this
+	 * ending is replaced by a single space.
+	 *
+	 * @return <code>true</code>, if the line is continued on the next line
+	 */
+	private static boolean removeContinuation(StringBuilder line) {
+		int end = line.length();
+		while (end > 0 && Character.isWhitespace(line.charAt(end - 1)))
+			end--;
+		if (end < 2 || line.charAt(end - 1) != '_')
+			return false;
+		char before = line.charAt(end - 2);
+		if (before != ' ' && before != '\t')
+			return false;
+		line.setLength(end - 2);
+		line.append(' ');
+		return true;
+	}
+
+	private static boolean isBlank(StringBuilder line, int from) {
+		for (int i = from; i < line.length(); i++) {
+			if (!Character.isWhitespace(line.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+}
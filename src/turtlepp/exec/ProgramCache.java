@@ -0,0 +1,151 @@
+package turtlepp.exec;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import turtlepp.InterpreterException;
+
+/**
+ * Keeps the most recently used {@link CompiledProgram}s, so that running an
+ * unchanged program again does not parse and optimize it a second time.
+ *
+ * Programs are found by a SHA-256 hash of their source code. Since compiled
+ * programs do not hold any runtime state, a cached program can be handed to a
+ * new {@link OrderInterpreter} directly.
+ *
+ * Programs that are not in the cache are compiled based on the most recently
+ * compiled one, so that editing a single subroutine only recompiles that
+ * subroutine.
+ */
+public final class ProgramCache {
+	/**
+	 * maximum number of programs kept
+	 */
+	private static final int CAPACITY = 8;
+
+	/**
+	 * the cached programs in order of their last use
+	 */
+	private static final LinkedHashMap<String, CompiledProgram> programs = new LinkedHashMap<String, CompiledProgram>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = -3806255373934281613L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, CompiledProgram> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+
+	/**
+	 * the most recently compiled program, which new programs are based on
+	 */
+	private static CompiledProgram latest;
+
+	/**
+	 * programs that are being compiled right now, so that a program requested
+	 * while it is compiled in the background is not compiled twice
+	 */
+	private static final HashMap<String, FutureTask<CompiledProgram>> pending = new HashMap<String, FutureTask<CompiledProgram>>();
+
+	private ProgramCache() {
+	}
+
+	/**
+	 * gets the compiled version of a program. If the program is not cached
+	 * yet, it is compiled and added to the cache. If another thread is
+	 * compiling the same program already, its result is waited for.
+	 *
+	 * @param source
+	 *            the program code
+	 * @return the compiled program
+	 */
+	public static CompiledProgram getProgram(final String source) {
+		String key = hash(source);
+		FutureTask<CompiledProgram> task;
+		boolean compile = false;
+		synchronized (programs) {
+			CompiledProgram program = programs.get(key);
+			if (program != null && program.getSource().equals(source))
+				return program;
+
+			task = pending.get(key);
+			if (task == null) {
+				final CompiledProgram base = latest;
+				task = new FutureTask<CompiledProgram>(
+						new Callable<CompiledProgram>() {
+							@Override
+							public CompiledProgram call() {
+								return new CompiledProgram(source, base);
+							}
+						});
+				pending.put(key, task);
+				compile = true;
+			}
+		}
+
+		// compile outside of the lock
+		if (compile)
+			task.run();
+
+		CompiledProgram program = null;
+		try {
+			program = task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw (RuntimeException) cause;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterpreterException("Compilation interrupted");
+		} finally {
+			if (compile) {
+				synchronized (programs) {
+					pending.remove(key);
+					if (program != null) {
+						programs.put(key, program);
+						latest = program;
+					}
+				}
+			}
+		}
+
+		if (!program.getSource().equals(source))
+			return new CompiledProgram(source);
+		return program;
+	}
+
+	/**
+	 * removes all programs from the cache
+	 */
+	public static void clear() {
+		synchronized (programs) {
+			programs.clear();
+			latest = null;
+		}
+	}
+
+	private static String hash(String source) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] digest = md.digest(source.getBytes(Charset.forName("UTF-8")));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (int i = 0; i < digest.length; i++) {
+				sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(digest[i] & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
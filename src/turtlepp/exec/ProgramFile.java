@@ -0,0 +1,333 @@
+package turtlepp.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import turtlepp.exec.Tokenizer.ArrayAccessToken;
+import turtlepp.exec.Tokenizer.FncToken;
+import turtlepp.exec.Tokenizer.NegativeToken;
+import turtlepp.exec.Tokenizer.StringToken;
+import turtlepp.exec.Tokenizer.TermToken;
+import turtlepp.exec.Tokenizer.TextToken;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * Reads and writes precompiled programs. A precompiled program contains the
+ * code after preprocessing, tokenizing and matching all statements, so
+ * loading it skips all the work done on the source text. It does not contain
+ * any instructions: they are still built, bound to the variables and calls and
+ * optimized when the program is loaded, just like for source code. The
+ * optimized instructions are not stored, since they refer to the subroutines
+ * and functions they call and to the optimizer of their subroutine, which
+ * builds the bodies of the subroutines when they are first run.
+ *
+ * The file starts with the magic number <code>"TPPC"</code> and the format
+ * version as big endian ints. All other numbers are stored as variable length
+ * integers using 7 bits per byte, so that most of them take a single byte:
+ * <ul>
+ * <li>the constant pool: the number of entries followed by every entry as
+ * length and UTF-8 bytes. Every name, number and string literal of the program
+ * is stored exactly once in the pool.</li>
+ * <li>the line offset and the number of lines</li>
+ * <li>the line table and the tokens: for every line the difference of its line
+ * number in the source code to the one of the previous line, the index of its
+ * matching "end" line and the index of its next "else" line (both plus one, 0
+ * if there is none) and its tokens</li>
+ * </ul>
+ * Every token is stored as one byte for its kind followed by the index of its
+ * text in the constant pool or by its nested tokens.
+ */
+public final class ProgramFile {
+	/**
+	 * the file name extension of precompiled programs
+	 */
+	public static final String EXTENSION = ".tppc";
+
+	private static final int MAGIC = 0x54505043; // "TPPC"
+
+	/**
+	 * increased on every incompatible change of the format
+	 */
+	private static final int VERSION = 1;
+
+	private static final byte TEXT = 0;
+	private static final byte STRING = 1;
+	private static final byte FUNCTION = 2;
+	private static final byte ARRAY_ACCESS = 3;
+	private static final byte NEGATIVE = 4;
+	private static final byte TERM = 5;
+	private static final byte PARANTHESIS_TERM = 6;
+	private static final byte EMPTY = 7;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ProgramFile() {
+	}
+
+	/**
+	 * preprocesses and tokenizes a program and writes it to a file
+	 *
+	 * @param source
+	 *            the program code
+	 * @param path
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static void write(String source, Path path) throws IOException {
+		Parser parser = new Parser(source, 0);
+		Files.write(path, toBytes(parser));
+	}
+
+	/**
+	 * loads a precompiled program
+	 *
+	 * @param path
+	 *            the file written by {@link #write(String, Path)}
+	 * @return the program, compiled out of the tokens and ready to run
+	 * @throws IOException
+	 *             if the file could not be read or is not a valid precompiled
+	 *             program
+	 */
+	public static CompiledProgram load(Path path) throws IOException {
+		return load(path, OptimizerFeature.DEFAULT_LEVEL);
+	}
+
+	/**
+	 * loads a precompiled program and optimizes it at a chosen level
+	 *
+	 * @param level
+	 *            the optimization level
+	 * @see #load(Path)
+	 * @see OptimizerFeature
+	 */
+	public static CompiledProgram load(Path path, int level)
+			throws IOException {
+		return load(path, level, false);
+	}
+
+	/**
+	 * loads a precompiled program and optimizes it at a chosen level
+	 *
+	 * @param removeUnreachable
+	 *            <code>true</code> to remove the subroutines and functions
+	 *            the program can not call
+	 * @see #load(Path, int)
+	 * @see CompiledProgram#CompiledProgram(String, int, boolean)
+	 */
+	public static CompiledProgram load(Path path, int level,
+			boolean removeUnreachable) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("file too large: " + path);
+			buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0)
+					throw new IOException("unexpected end of file: " + path);
+			}
+		}
+		buffer.flip();
+
+		try {
+			return new CompiledProgram(fromBytes(buffer), null, null, level,
+					removeUnreachable);
+		} catch (RuntimeException e) {
+			throw new IOException("invalid precompiled program: " + path, e);
+		}
+	}
+
+	private static byte[] toBytes(Parser parser) throws IOException {
+		Token[][] tokens = parser.getTokens();
+		HashMap<String, Integer> poolIndices = new HashMap<String, Integer>();
+		ArrayList<String> pool = new ArrayList<String>();
+
+		ByteArrayOutputStream lines = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(lines);
+		writeVarInt(out, parser.getLineOffset());
+		writeVarInt(out, tokens.length);
+		int lineNumber = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			writeVarInt(out, parser.getLineNumbers()[i] - lineNumber);
+			lineNumber = parser.getLineNumbers()[i];
+			writeVarInt(out, parser.getBlockEnds()[i] + 1);
+			writeVarInt(out, parser.getNextBranches()[i] + 1);
+			writeTokens(out, tokens[i], poolIndices, pool);
+		}
+		out.flush();
+
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		out = new DataOutputStream(file);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeVarInt(out, pool.size());
+		for (int i = 0; i < pool.size(); i++) {
+			byte[] bytes = pool.get(i).getBytes(UTF8);
+			writeVarInt(out, bytes.length);
+			out.write(bytes);
+		}
+		lines.writeTo(out);
+		out.flush();
+		return file.toByteArray();
+	}
+
+	private static void writeTokens(DataOutputStream out, Token[] tokens,
+			HashMap<String, Integer> poolIndices, ArrayList<String> pool)
+			throws IOException {
+		writeVarInt(out, tokens.length);
+		for (int i = 0; i < tokens.length; i++)
+			writeToken(out, tokens[i], poolIndices, pool);
+	}
+
+	private static void writeToken(DataOutputStream out, Token token,
+			HashMap<String, Integer> poolIndices, ArrayList<String> pool)
+			throws IOException {
+		if (token == null) {
+			out.writeByte(EMPTY);
+		} else if (token instanceof TextToken) {
+			out.writeByte(TEXT);
+			writeVarInt(out, poolIndex(((TextToken) token).token,
+					poolIndices, pool));
+		} else if (token instanceof StringToken) {
+			out.writeByte(STRING);
+			writeVarInt(out, poolIndex(((StringToken) token).token,
+					poolIndices, pool));
+		} else if (token instanceof FncToken) {
+			out.writeByte(FUNCTION);
+			writeTokens(out, ((FncToken) token).tokens, poolIndices, pool);
+		} else if (token instanceof ArrayAccessToken) {
+			ArrayAccessToken aat = (ArrayAccessToken) token;
+			out.writeByte(ARRAY_ACCESS);
+			writeVarInt(out, aat.getNIndices() + 1);
+			writeToken(out, aat.getArrayVariable(), poolIndices, pool);
+			for (int i = 0; i < aat.getNIndices(); i++)
+				writeToken(out, aat.getIndex(i), poolIndices, pool);
+		} else if (token instanceof NegativeToken) {
+			out.writeByte(NEGATIVE);
+			writeToken(out, ((NegativeToken) token).token, poolIndices, pool);
+		} else if (token instanceof TermToken) {
+			TermToken tt = (TermToken) token;
+			out.writeByte(tt.isParanthesisExpression() ? PARANTHESIS_TERM
+					: TERM);
+			writeVarInt(out, tt.getNTokens());
+			for (int i = 0; i < tt.getNTokens(); i++)
+				writeToken(out, tt.getToken(i), poolIndices, pool);
+		} else {
+			throw new IOException("cannot store token " + token);
+		}
+	}
+
+	/**
+	 * writes a non-negative number using as few bytes as possible
+	 */
+	private static void writeVarInt(DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("invalid number");
+	}
+
+	private static int poolIndex(String str,
+			HashMap<String, Integer> poolIndices, ArrayList<String> pool) {
+		Integer index = poolIndices.get(str);
+		if (index == null) {
+			index = pool.size();
+			pool.add(str);
+			poolIndices.put(str, index);
+		}
+		return index;
+	}
+
+	private static Parser fromBytes(ByteBuffer in) throws IOException {
+		if (in.remaining() < 8 || in.getInt() != MAGIC)
+			throw new IOException("not a precompiled program");
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("unsupported version " + version
+					+ " of precompiled program; expected " + VERSION);
+
+		String[] pool = new String[readVarInt(in)];
+		for (int i = 0; i < pool.length; i++) {
+			byte[] bytes = new byte[readVarInt(in)];
+			in.get(bytes);
+			pool[i] = new String(bytes, UTF8);
+		}
+
+		int lineOffset = readVarInt(in);
+		int nLines = readVarInt(in);
+		Token[][] tokens = new Token[nLines][];
+		int[] lineNumbers = new int[nLines];
+		int[] blockEnd = new int[nLines];
+		int[] nextBranch = new int[nLines];
+		int lineNumber = 0;
+		for (int i = 0; i < nLines; i++) {
+			lineNumber += readVarInt(in);
+			lineNumbers[i] = lineNumber;
+			blockEnd[i] = readVarInt(in) - 1;
+			nextBranch[i] = readVarInt(in) - 1;
+			tokens[i] = readTokens(in, pool);
+		}
+		return new Parser(tokens, lineNumbers, blockEnd, nextBranch,
+				lineOffset);
+	}
+
+	private static Token[] readTokens(ByteBuffer in, String[] pool)
+			throws IOException {
+		Token[] tokens = new Token[readVarInt(in)];
+		for (int i = 0; i < tokens.length; i++)
+			tokens[i] = readToken(in, pool);
+		return tokens;
+	}
+
+	private static Token readToken(ByteBuffer in, String[] pool)
+			throws IOException {
+		byte kind = in.get();
+		switch (kind) {
+		case EMPTY:
+			return null;
+		case TEXT:
+			return new TextToken(pool[readVarInt(in)]);
+		case STRING:
+			return StringToken.fromContent(pool[readVarInt(in)]);
+		case FUNCTION:
+			return new FncToken(readTokens(in, pool));
+		case ARRAY_ACCESS:
+			return new ArrayAccessToken(readTokens(in, pool));
+		case NEGATIVE:
+			NegativeToken nt = new NegativeToken();
+			nt.setToken(readToken(in, pool));
+			return nt;
+		case TERM:
+		case PARANTHESIS_TERM:
+			TermToken tt = new TermToken(readTokens(in, pool));
+			tt.setIsParanthesisExpression(kind == PARANTHESIS_TERM);
+			return tt;
+		default:
+			throw new IOException("unknown token kind " + kind);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package turtlepp.exec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import turtlepp.exec.Tokenizer.ArrayAccessToken;
+import turtlepp.exec.Tokenizer.FncToken;
+import turtlepp.exec.Tokenizer.NegativeToken;
+import turtlepp.exec.Tokenizer.StringToken;
+import turtlepp.exec.Tokenizer.TermToken;
+import turtlepp.exec.Tokenizer.TextToken;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * Finds out if a function defined in the program is pure, so that its results
+ * can be kept and taken again for equal arguments. It is found by looking at
+ * the tokens of the function and of all functions it calls.
+ *
+ * A function is pure if its lines only declare variables, assign variables
+ * declared in the function, including its arguments and return value, and
+ * control the flow with "if", "while", "repeat" and "exit". Every name read
+ * has to be such a variable or a constant, and every function called has to
+ * be pure as well. A function drawing, printing, calling a subroutine,
+ * declaring a reference or using any other variable is not pure.
+ */
+final class Purity {
+	/**
+	 * the keywords declaring a variable that is not a reference
+	 */
+	private static final String[] declarations = { "int", "float", "boolean",
+			"char", "string" };
+
+	/**
+	 * the assignment operators
+	 */
+	private static final String[] assignments = { "=", "+=", "-=", "*=",
+			"/=", "^=" };
+
+	/**
+	 * the optimizer of the function, used to find the functions called and
+	 * the constants of the program
+	 */
+	private final OrderOptimizer oo;
+
+	/**
+	 * the functions found so far, including the ones checked already
+	 */
+	private final HashSet<Function> reached;
+
+	/**
+	 * the functions found, but not checked yet
+	 */
+	private final ArrayList<Function> pending;
+
+	/**
+	 * for every open scope of the function being checked the names of the
+	 * variables declared in it in lower case
+	 */
+	private final ArrayList<HashSet<String>> scopes;
+
+	private Purity(OrderOptimizer oo) {
+		this.oo = oo;
+		reached = new HashSet<Function>();
+		pending = new ArrayList<Function>();
+		scopes = new ArrayList<HashSet<String>>();
+	}
+
+	/**
+	 * @param function
+	 *            a function defined in the program
+	 * @param oo
+	 *            the optimizer of the function
+	 * @return <code>true</code> if the function and all functions it calls
+	 *         are pure
+	 */
+	static boolean isPure(Function function, OrderOptimizer oo) {
+		Purity purity = new Purity(oo);
+		purity.reached.add(function);
+		purity.pending.add(function);
+		while (!purity.pending.isEmpty()) {
+			Function next = purity.pending.remove(purity.pending.size() - 1);
+			if (!purity.check(next))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * checks the lines of a function; the functions it calls are added to
+	 * the pending ones
+	 */
+	private boolean check(Function function) {
+		SubroutineBody body = function.getBody();
+		if (body == null)
+			return false;
+
+		scopes.clear();
+		HashSet<String> outer = new HashSet<String>();
+		for (int i = 0; i < function.arguments.length; i++)
+			outer.add(function.arguments[i].toLowerCase());
+		outer.add(function.getName().toLowerCase());
+		scopes.add(outer);
+
+		Token[][] lines = body.getTokens();
+		for (int i = 0; i < lines.length; i++) {
+			if (!checkLine(lines[i]))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean checkLine(Token[] line) {
+		if (line.length == 0)
+			return true;
+		Token first = line[0];
+		if (first.isTextCommand("end")) {
+			if (scopes.size() > 1)
+				scopes.remove(scopes.size() - 1);
+			return true;
+		} else if (first.isTextCommand("else")) {
+			if (scopes.size() > 1)
+				scopes.remove(scopes.size() - 1);
+			scopes.add(new HashSet<String>());
+			return readsOnly(line, line.length >= 2
+					&& line[1].isTextCommand("if") ? 2 : 1);
+		} else if (first.isTextCommand("if") || first.isTextCommand("while")
+				|| first.isTextCommand("repeat")) {
+			boolean pure = readsOnly(line, 1);
+			scopes.add(new HashSet<String>());
+			return pure;
+		} else if (first.isTextCommand("exit")) {
+			// a plain "exit" ends the whole program
+			return line.length == 2
+					&& (line[1].isTextCommand("function")
+							|| line[1].isTextCommand("while") || line[1]
+								.isTextCommand("repeat"));
+		} else if (isOneOf(first, declarations)) {
+			if (line.length < 2 || !readsOnly(line, 2))
+				return false;
+			declare(line[1]);
+			return true;
+		} else if (simplify(first) instanceof ArrayAccessToken
+				&& line.length == 2) {
+			// the declaration of an array; its sizes are read
+			ArrayAccessToken aat = (ArrayAccessToken) simplify(first);
+			for (int i = 0; i < aat.getNIndices(); i++) {
+				if (!reads(aat.getIndex(i)))
+					return false;
+			}
+			declare(line[1]);
+			return true;
+		} else if (line.length >= 3 && isOneOf(line[1], assignments)) {
+			return isDeclared(getVariableName(first)) && reads(first)
+					&& readsOnly(line, 2);
+		}
+		// a command or a call of a subroutine
+		return false;
+	}
+
+	private boolean readsOnly(Token[] line, int from) {
+		for (int i = from; i < line.length; i++) {
+			if (!reads(line[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * checks if a token only reads variables of the function and constants
+	 * and only calls pure functions
+	 */
+	private boolean reads(Token token) {
+		if (token instanceof TextToken) {
+			String text = token.getStringToken().toLowerCase();
+			if (text.startsWith("-"))
+				text = text.substring(1);
+			if (text.isEmpty() || Tokenizer.isOperator(text)
+					|| text.equals("=") || turtlepp.Language.isNumeric(text)
+					|| text.matches("'.'"))
+				return true;
+			return isDeclared(text) || oo.getConstant(text) != null;
+		} else if (token instanceof StringToken) {
+			return true;
+		} else if (token instanceof FncToken) {
+			Token[] tokens = ((FncToken) token).tokens;
+			if (!calls(tokens[0].getStringToken(), tokens.length - 1))
+				return false;
+			for (int i = 1; i < tokens.length; i++) {
+				if (!reads(tokens[i]))
+					return false;
+			}
+			return true;
+		} else if (token instanceof ArrayAccessToken) {
+			ArrayAccessToken aat = (ArrayAccessToken) token;
+			if (!reads(aat.getArrayVariable()))
+				return false;
+			for (int i = 0; i < aat.getNIndices(); i++) {
+				if (!reads(aat.getIndex(i)))
+					return false;
+			}
+			return true;
+		} else if (token instanceof NegativeToken) {
+			return reads(((NegativeToken) token).token);
+		} else if (token instanceof TermToken) {
+			TermToken tt = (TermToken) token;
+			for (int i = 0; i < tt.getNTokens(); i++) {
+				if (!reads(tt.getToken(i)))
+					return false;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * checks if a called function is pure. A function of the program is
+	 * checked later on.
+	 */
+	private boolean calls(String name, int nArguments) {
+		Invokeable inv = oo.getSubroutine(name, nArguments);
+		if (inv instanceof NativeFunction)
+			return ((NativeFunction) inv).isPure();
+		if (!(inv instanceof Function))
+			return false;
+		Function function = (Function) inv;
+		if (reached.add(function))
+			pending.add(function);
+		return true;
+	}
+
+	private void declare(Token name) {
+		String text = getVariableName(name);
+		if (text != null)
+			scopes.get(scopes.size() - 1).add(text);
+	}
+
+	private boolean isDeclared(String name) {
+		if (name == null)
+			return false;
+		for (int i = 0; i < scopes.size(); i++) {
+			if (scopes.get(i).contains(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the name of the variable a token stands for in lower case,
+	 *         <code>null</code> if it is not a variable
+	 */
+	private static String getVariableName(Token token) {
+		token = simplify(token);
+		while (token instanceof ArrayAccessToken)
+			token = simplify(((ArrayAccessToken) token).getArrayVariable());
+		if (token instanceof TextToken)
+			return token.getStringToken().toLowerCase();
+		return null;
+	}
+
+	private static Token simplify(Token token) {
+		while (token instanceof TermToken
+				&& ((TermToken) token).getNTokens() == 1)
+			token = ((TermToken) token).getToken(0);
+		return token;
+	}
+
+	private static boolean isOneOf(Token token, String[] keywords) {
+		for (int i = 0; i < keywords.length; i++) {
+			if (token.isTextCommand(keywords[i]))
+				return true;
+		}
+		return false;
+	}
+}
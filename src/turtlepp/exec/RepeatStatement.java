@@ -3,17 +3,42 @@ package turtlepp.exec;
 import turtlepp.InterpreterException;
 import turtlepp.LogoRenderer2D;
 import turtlepp.datatypes.Value;
-import turtlepp.exec.OrderInterpreter.InvokeableList;
+import turtlepp.datatypes.Value.ConstantValue;
 import turtlepp.exec.Tokenizer.Token;
+import turtlepp.exec.fast.Command.CreateArray;
+import turtlepp.exec.fast.Command.NewVariable;
 
 public class RepeatStatement extends Block {
+	/**
+	 * the maximum number of instructions of an unrolled loop
+	 */
+	private static final int MAX_UNROLLED_STATEMENTS = 16;
+
+	/**
+	 * the number of repetitions run in a row by a partially unrolled loop
+	 */
+	private static final int UNROLL_FACTOR = 4;
+
 	Value repeatArgument;
+
+	/**
+	 * how the variables are used in the loop, <code>null</code> if unknown
+	 */
+	private VariableUsage usage;
+
+	/**
+	 * the number of loops around this one
+	 */
+	private int depth;
+
+	/**
+	 * the number of values computed once per run of the loop
+	 */
+	private int nValues;
 	
-	public RepeatStatement(String code, InvokeableList subroutines, int lineNumber) {
+	RepeatStatement(Token[] tokens, int lineNumber) {
 		super(lineNumber);
 		
-		String first = Tokenizer.getLines(code)[0];
-		Token[] tokens = Tokenizer.tokenize(first);
 		if (tokens[0].isTextCommand("repeat")) {
 			repeatArgument = tokens[1].createValue();
 		}
@@ -21,16 +46,105 @@ public class RepeatStatement extends Block {
 			throw new InterpreterException("Check your use of the repeat statement.",
 					new CodeLocationInfo(lineOffset));
 		}
-		
-		String rest = code.substring(first.length());
-		addToBlock(rest, subroutines);
 	}
 	
+	/**
+	 * sets how the variables are used in the lines of the loop
+	 */
+	void setUsage(VariableUsage usage) {
+		this.usage = usage;
+	}
+
+	/**
+	 * A loop that is never run because its number of repetitions is a
+	 * constant below one is removed. A loop with a short body is unrolled.
+	 */
+	@Override
+	public Executable getOptimized(OrderOptimizer oo) {
+		repeatArgument = repeatArgument.getOptimized(oo).getReadOnly();
+		if (repeatArgument instanceof ConstantValue
+				&& oo.isEnabled(OptimizerFeature.DEAD_CODE)) {
+			try {
+				if (repeatArgument.getVarValue(null, null, null)
+						.getLongValue() < 1) {
+					oo.countPrunedBranch();
+					return new Block(lineOffset);
+				}
+			} catch (RuntimeException e) {
+				// an error to report when running the program
+			}
+		}
+		depth = oo.pushLoop(usage);
+		super.getOptimized(oo);
+		nValues = oo.popLoop();
+
+		if (oo.isEnabled(OptimizerFeature.UNROLLING)) {
+			long start = System.nanoTime();
+			Executable unrolled = unroll();
+			oo.addTime(OptimizerFeature.UNROLLING, start);
+			if (unrolled != null) {
+				oo.count(OptimizerFeature.UNROLLING);
+				return unrolled;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Unrolls the optimized loop. If the number of repetitions is a constant
+	 * and the body is short enough, the body is repeated that many times, so
+	 * that the loop only runs once. Otherwise, up to {@link #UNROLL_FACTOR}
+	 * repetitions run in a row.
+	 * 
+	 * @return the unrolled loop, <code>null</code> if the loop is not
+	 *         unrolled because its body is too long or declares variables
+	 */
+	private Executable unroll() {
+		int n = executables.length;
+		if (n == 0 || n * 2 > MAX_UNROLLED_STATEMENTS)
+			return null;
+		for (int i = 0; i < n; i++) {
+			if (executables[i] instanceof NewVariable
+					|| executables[i] instanceof CreateArray)
+				return null;
+		}
+
+		long count = 0;
+		if (repeatArgument instanceof ConstantValue) {
+			try {
+				count = repeatArgument.getVarValue(null, null, null)
+						.getLongValue();
+			} catch (RuntimeException e) {
+				// an error to report when running the program
+			}
+		}
+		int factor;
+		if (count >= 1 && count * n <= MAX_UNROLLED_STATEMENTS) {
+			factor = (int) count;
+		} else {
+			factor = UNROLL_FACTOR;
+			while (factor * n > MAX_UNROLLED_STATEMENTS)
+				factor /= 2;
+		}
+		return new UnrolledRepeatStatement(repeatArgument, this, factor,
+				depth, nValues);
+	}
+
 	@Override
 	public ReturnValue execute(LogoRenderer2D renderer,
 			OrderInterpreter oi) {
 		//long repetitions = oi.calculateLongValue(repeatArgument);
-		long repetitions = repeatArgument.getVarValue(renderer, oi, null).getLongValue();
+		long repetitions;
+		try {
+			repetitions = repeatArgument.getVarValue(renderer, oi, null)
+					.getLongValue();
+		} catch (InterpreterException ie) {
+			if (ie.getCodeLocationInfo() == null)
+				ie.setCodeLocationInfo(new CodeLocationInfo(lineOffset));
+			throw ie;
+		}
+		if (nValues > 0)
+			oi.clearLoopValues(depth, nValues);
 		for (long i = 0; i < repetitions; i++) {
 			ReturnValue cb = super.execute(renderer, oi);
 			if (cb == ReturnValue.EXIT_REPEAT)
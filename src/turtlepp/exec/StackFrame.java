@@ -0,0 +1,134 @@
+package turtlepp.exec;
+
+import java.util.HashMap;
+import java.util.Stack;
+
+import turtlepp.datatypes.Variable;
+
+/**
+ * Holds the local variables of one single invocation of an {@link Invokeable}.
+ * A new frame is created for every invocation, so the compiled
+ * {@link Invokeable}s themselves never change while the program runs.
+ */
+public class StackFrame {
+	/**
+	 * the invokeable this frame belongs to
+	 */
+	private Invokeable invokeable;
+
+	/**
+	 * variable stack
+	 */
+	private Stack<Variable> stack;
+
+	/**
+	 * Contains keys and indices of variable variableIndices.get("blah").
+	 * Returns the index of the variable blah in the stack (if this variable
+	 * exists)
+	 */
+	private HashMap<String, Integer> variableIndices;
+
+	/**
+	 * the values of the loops running in this invocation, <code>null</code>
+	 * until a loop needs them
+	 */
+	private LoopValues loopValues;
+
+	/**
+	 * the common subexpressions computed in this invocation,
+	 * <code>null</code> until one is computed
+	 */
+	private CommonValues commonValues;
+
+	/**
+	 * the frame of the subroutine called in tail position, <code>null</code>
+	 * if there is none
+	 */
+	private StackFrame tailCall;
+
+	public StackFrame(Invokeable invokeable) {
+		this.invokeable = invokeable;
+		this.stack = new Stack<Variable>();
+		this.variableIndices = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * @return the invokeable this frame belongs to
+	 */
+	public Invokeable getInvokeable() {
+		return invokeable;
+	}
+
+	/**
+	 * Searches for a specified variable
+	 *
+	 * @param name
+	 *            the name of the variable
+	 * @return the variable, if it exists, {@code null} otherwise
+	 */
+	public Variable getVariable(String name) {
+		Integer index = variableIndices.get(name);
+		if (index != null)
+			return stack.get(index);
+		return null;
+	}
+
+	public Variable getVariableFromStack(int fromTop) {
+		return stack.get(stack.size() - fromTop);
+	}
+
+	/**
+	 * Pushes a variable on the stack
+	 *
+	 * @param var
+	 *            the variable
+	 */
+	public void pushVariable(Variable var) {
+		stack.push(var);
+		variableIndices.put(var.getName(), stack.size() - 1);
+	}
+
+	/**
+	 * @return the values of the loops running in this invocation
+	 */
+	LoopValues getLoopValues() {
+		if (loopValues == null)
+			loopValues = new LoopValues();
+		return loopValues;
+	}
+
+	/**
+	 * @return the common subexpressions computed in this invocation
+	 */
+	CommonValues getCommonValues() {
+		if (commonValues == null)
+			commonValues = new CommonValues();
+		return commonValues;
+	}
+
+	/**
+	 * sets the frame of the subroutine to run after this invocation has
+	 * ended
+	 */
+	void setTailCall(StackFrame frame) {
+		tailCall = frame;
+	}
+
+	/**
+	 * @return the frame of the subroutine called in tail position
+	 */
+	StackFrame getTailCall() {
+		return tailCall;
+	}
+
+	/**
+	 * Removes the last pushed variable
+	 *
+	 * @return the removed variable
+	 */
+	public Variable popVariable() {
+		Variable v = stack.pop();
+		variableIndices.remove(v.getName());
+		return v;
+	}
+}
@@ -1,80 +1,80 @@
 package turtlepp.exec;
 
-import java.util.HashMap;
-import java.util.Stack;
-
-import turtlepp.InterpreterException;
 import turtlepp.LogoRenderer2D;
 import turtlepp.datatypes.Value;
-import turtlepp.datatypes.Variable;
 import turtlepp.exec.Executable.ReturnValue;
 
 public class Subroutine extends Invokeable {
-	private Block block;
+	private SubroutineBody body;
 
 	protected Subroutine() {
 		super("");
 	}
 
-	public Subroutine(String subCode, int lineOffset) {
-		super("");
-		String first = Tokenizer.getLines(subCode)[0];
-		String[] firstLine = first.split(" +");
-		if (firstLine.length >= 2 && firstLine[0].equalsIgnoreCase("sub")) {
-			name = firstLine[1].toLowerCase();
-		} else {
-			throw new InterpreterException(
-					"Check your use of the \"Sub\" statement",
-					new CodeLocationInfo(lineOffset));
-		}
-
-		arguments = new String[firstLine.length - 2];
-		for (int i = 2; i < firstLine.length; i++) {
-			arguments[i - 2] = firstLine[i];
-		}
-
-		String rest = subCode.substring(first.length());
-		block = new Block(rest, null, lineOffset);
+	/**
+	 * creates a new subroutine
+	 * 
+	 * @param name
+	 *            the name of the subroutine
+	 * @param arguments
+	 *            the names of the arguments
+	 * @param body
+	 *            the instructions to run when invoked
+	 */
+	Subroutine(String name, String[] arguments, SubroutineBody body) {
+		super(name);
+		this.arguments = arguments;
+		this.body = body;
 	}
 
+	/**
+	 * invokes the subroutine. Calls in tail position do not invoke the
+	 * subroutine they call, but let this invocation run it in their place,
+	 * so that the depth of tail recursion is not limited.
+	 */
 	@Override
 	public void invoke(LogoRenderer2D renderer, OrderInterpreter oi,
 			Value[] args, CodeLocationInfo cli) {
-		if (arguments.length != args.length)
-			throw new InterpreterException("subroutine " + name
-					+ " called with " + args.length + " arguments; "
-					+ arguments.length + " required.");
-
-		Stack<Variable> tempStack = stack; // store the old stack
-		HashMap<String, Integer> tempRef = variableIndices;
+		StackFrame frame = createFrame(renderer, oi, args, cli);
+		Subroutine subroutine = this;
 
-		variableIndices = new HashMap<String, Integer>();
-		stack = new Stack<Variable>();
-
-		for (int i = 0; i < arguments.length; i++) {
-			Stack<Variable> stTemp = stack;
-			HashMap<String, Integer> hmTemp = variableIndices;
-			stack = tempStack;
-			variableIndices = tempRef;
-			Variable v = args[i].getVarValue(renderer, oi, cli).getCopy(
-					arguments[i]);
-			stack = stTemp;
-			variableIndices = hmTemp;
-			pushVariable(v);
+		while (true) {
+			ReturnValue cb;
+			oi.pushFrame(frame);
+			try {
+				cb = subroutine.body.getBlock().execute(renderer, oi);
+				if (cb == ReturnValue.EXIT_REPEAT)
+					renderer.printErrLine("Exit Repeat without repeat");
+			} finally {
+				oi.popFrame();
+			}
+			if (cb != ReturnValue.TAIL_CALL)
+				break;
+			frame = frame.getTailCall();
+			subroutine = (Subroutine) frame.getInvokeable();
 		}
+	}
 
-		oi.pushInvokable(this);
-		ReturnValue cb = block.execute(renderer, oi);
-		if (cb == ReturnValue.EXIT_REPEAT)
-			renderer.printErrLine("Exit Repeat without repeat");
-		oi.popInvokable();
-
-		stack = tempStack;
-		variableIndices = tempRef;
+	/**
+	 * evaluates the arguments of a call in tail position of the subroutine
+	 * running at the moment. The call is run by the invocation of that
+	 * subroutine after it has ended.
+	 * 
+	 * @see ReturnValue#TAIL_CALL
+	 */
+	public void prepareTailCall(LogoRenderer2D renderer, OrderInterpreter oi,
+			Value[] args, CodeLocationInfo cli) {
+		oi.setTailCall(createFrame(renderer, oi, args, cli));
 	}
 	
 	@Override
 	public void optimize(SubroutineOptimizer so) {
-		block = (Block) block.getOptimized(so);
+		so.allowTailCalls();
+		body.setOptimizer(so);
+	}
+
+	@Override
+	SubroutineBody getBody() {
+		return body;
 	}
 }
@@ -0,0 +1,179 @@
+package turtlepp.exec;
+
+import turtlepp.exec.OrderInterpreter.InvokeableList;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * The instructions of a subroutine or function. The body is kept as the
+ * tokenized lines of its definition and is only parsed and optimized when it
+ * is run for the first time, so that subroutines that are never called cost
+ * no more than the check of their lines when the program is loaded (see
+ * {@link Parser#check()}). The lines compiled by the check are reused by the
+ * first parse, so they are not compiled twice.
+ */
+final class SubroutineBody {
+	/**
+	 * the position of the body in the source code
+	 */
+	private final int lineOffset;
+
+	/**
+	 * the lines of the body; they are kept after parsing, so that the body
+	 * can be inlined into its callers
+	 */
+	private final Parser parser;
+
+	/**
+	 * how the variables are used in the body, <code>null</code> if not
+	 * needed yet
+	 */
+	private VariableUsage usage;
+
+	/**
+	 * the parsed, but not yet optimized instructions
+	 */
+	private Block block;
+
+	/**
+	 * the optimizer to use when compiling, <code>null</code> if the body should
+	 * not be optimized
+	 */
+	private SubroutineOptimizer optimizer;
+
+	/**
+	 * the instructions ready to run, <code>null</code> if not compiled yet
+	 */
+	private volatile Block compiled;
+
+	/**
+	 * <code>true</code> if the function of the body is pure,
+	 * <code>null</code> if not known yet
+	 */
+	private Boolean pure;
+
+	/**
+	 * @param parser
+	 *            a parser containing exactly the lines of the body
+	 * @param lineOffset
+	 *            the position of the body in the source code
+	 */
+	SubroutineBody(Parser parser, int lineOffset) {
+		this.parser = parser;
+		this.lineOffset = lineOffset;
+	}
+
+	/**
+	 * sets the optimizer used when the body is compiled
+	 */
+	void setOptimizer(SubroutineOptimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * @return <code>true</code> if the body has been compiled already
+	 */
+	boolean isCompiled() {
+		return compiled != null;
+	}
+
+	/**
+	 * @return the optimizer the body has been compiled with,
+	 *         <code>null</code> if it has not been optimized yet
+	 */
+	OrderOptimizer getOptimizer() {
+		return compiled != null ? optimizer : null;
+	}
+
+	/**
+	 * determines if the compiled body is still correct in a changed program
+	 *
+	 * @see OrderOptimizer#isValid(InvokeableList, VariableUsage)
+	 */
+	boolean isValid(InvokeableList invokeables, VariableUsage usage) {
+		return optimizer == null || optimizer.isValid(invokeables, usage);
+	}
+
+	/**
+	 * @return the number of lines of the body
+	 */
+	int getLength() {
+		return getTokens().length;
+	}
+
+	/**
+	 * @return how the variables are used in the body
+	 */
+	synchronized VariableUsage getUsage() {
+		if (usage == null)
+			usage = new VariableUsage(parser.getTokens());
+		return usage;
+	}
+
+	/**
+	 * @return the tokens of every line of the body
+	 */
+	Token[][] getTokens() {
+		return parser.getTokens();
+	}
+
+	/**
+	 * determines if the function of this body is pure, so that its results
+	 * may be kept. A body that is not optimized is never pure, and neither is
+	 * one optimized at a level without {@link OptimizerFeature#MEMOIZATION}.
+	 *
+	 * @param function
+	 *            the function this body belongs to
+	 * @see Purity
+	 */
+	synchronized boolean isPure(Function function) {
+		if (pure == null) {
+			if (optimizer == null
+					|| !optimizer.isEnabled(OptimizerFeature.MEMOIZATION)) {
+				pure = false;
+			} else {
+				long start = System.nanoTime();
+				pure = Purity.isPure(function, optimizer);
+				optimizer.addTime(OptimizerFeature.MEMOIZATION, start);
+				if (pure)
+					optimizer.count(OptimizerFeature.MEMOIZATION);
+			}
+		}
+		return pure;
+	}
+
+	/**
+	 * parses the body again; the new instructions are not shared with any
+	 * other code, so they may be optimized in the context of a caller
+	 *
+	 * @return the parsed, but not yet optimized instructions
+	 */
+	Block parse() {
+		Block b = new Block(lineOffset);
+		parser.parseBody(b);
+		return b;
+	}
+
+	/**
+	 * gets the instructions of the body, compiling them if necessary
+	 *
+	 * @return the compiled instructions
+	 */
+	Block getBlock() {
+		Block b = compiled;
+		if (b != null)
+			return b;
+		return compile();
+	}
+
+	private synchronized Block compile() {
+		if (compiled == null) {
+			if (block == null)
+				block = parse();
+			if (optimizer != null)
+				compiled = optimizer.optimizeBody(block);
+			else
+				compiled = block;
+		}
+		return compiled;
+	}
+}
@@ -1,10 +1,87 @@
 package turtlepp.exec;
 
+import turtlepp.exec.Executable.ReturnValue;
+import turtlepp.exec.OrderInterpreter.InvokeableList;
+import turtlepp.exec.fast.Command.Exit;
+import turtlepp.exec.fast.Command.InvokeFast;
+
 public class SubroutineOptimizer extends OrderOptimizer {
 
-	public SubroutineOptimizer(OrderInterpreter oi) {
-		super(oi);
+	/**
+	 * <code>true</code> if the body belongs to a subroutine, so that the
+	 * calls it ends with can be run in its place
+	 */
+	private boolean tailCalls;
+
+	public SubroutineOptimizer(InvokeableList invokeables) {
+		this(invokeables, null, OptimizerFeature.DEFAULT_LEVEL);
+	}
+
+	SubroutineOptimizer(InvokeableList invokeables, VariableUsage usage,
+			int level) {
+		super(invokeables, usage, level);
 		super.callStack.push(new Subroutine());
 	}
 
+	/**
+	 * lets the optimized body end with calls in tail position. A function
+	 * still needs its frame after its last instruction to return its value,
+	 * so only subroutines allow them.
+	 * 
+	 * @see ReturnValue#TAIL_CALL
+	 */
+	void allowTailCalls() {
+		tailCalls = true;
+	}
+
+	/**
+	 * optimizes the body of the subroutine
+	 * 
+	 * @return the optimized body
+	 */
+	Block optimizeBody(Block block) {
+		Block optimized = (Block) optimize(block);
+		if (tailCalls && isEnabled(OptimizerFeature.TAIL_CALLS)) {
+			long start = System.nanoTime();
+			eliminateTailCalls(optimized, true);
+			addTime(OptimizerFeature.TAIL_CALLS, start);
+		}
+		return optimized;
+	}
+
+	/**
+	 * replaces the calls after which the subroutine ends by tail calls. A
+	 * call is in tail position if it is followed by "exit sub", or if it is
+	 * the last instruction of a block in tail position. The instructions of
+	 * an "if" statement are searched as well, but not its else branch, whose
+	 * result is not passed on, and not the body of a loop.
+	 * 
+	 * @param tail
+	 *            <code>true</code> if the subroutine ends after the block
+	 */
+	private void eliminateTailCalls(Block block, boolean tail) {
+		Executable[] executables = block.executables;
+		for (int i = 0; i < executables.length; i++) {
+			boolean last = i == executables.length - 1 ? tail
+					: isExitSub(executables[i + 1]);
+			Executable executable = executables[i];
+			if (executable instanceof InvokeFast) {
+				if (!last)
+					continue;
+				Executable tailCall = ((InvokeFast) executable).getTailCall();
+				if (tailCall != null) {
+					executables[i] = tailCall;
+					countTailCall();
+				}
+			} else if (executable.getClass() == IfStatement.class
+					|| executable.getClass() == Block.class) {
+				eliminateTailCalls((Block) executable, last);
+			}
+		}
+	}
+
+	private static boolean isExitSub(Executable executable) {
+		return executable instanceof Exit
+				&& ((Exit) executable).getReturnValue() == ReturnValue.EXIT_SUB;
+	}
 }
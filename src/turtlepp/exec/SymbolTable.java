@@ -0,0 +1,228 @@
+package turtlepp.exec;
+
+import java.util.HashMap;
+
+import turtlepp.datatypes.Variable;
+
+/**
+ * The variables the optimizer knows about at some point of a block, in the
+ * order they are pushed on a variable stack at runtime. Variables are found
+ * by a hash lookup. A variable hides an older one of the same name until the
+ * scope it was declared in is closed.
+ */
+final class SymbolTable {
+	/**
+	 * the names of the variables in lower case, in the order of their
+	 * declaration
+	 */
+	private String[] names;
+
+	/**
+	 * the values of the variables that never change, <code>null</code> for
+	 * the other ones
+	 */
+	private Variable[] constants;
+
+	/**
+	 * the classes of the variables that keep their type, <code>null</code>
+	 * for the other ones
+	 */
+	private Class<?>[] types;
+
+	/**
+	 * for every variable the index of the variable of the same name it hides,
+	 * -1 if there is none
+	 */
+	private int[] hidden;
+
+	private int size;
+
+	/**
+	 * the index of the visible variable by its name
+	 */
+	private HashMap<String, Integer> visible;
+
+	/**
+	 * the number of variables when each open scope was opened
+	 */
+	private int[] scopes;
+
+	private int nScopes;
+
+	/**
+	 * the variables from this index up to {@link #hiddenTo} can not be found
+	 * by their name
+	 */
+	private int hiddenFrom;
+
+	private int hiddenTo;
+
+	SymbolTable() {
+		names = new String[16];
+		constants = new Variable[16];
+		types = new Class<?>[16];
+		hidden = new int[16];
+		visible = new HashMap<String, Integer>();
+		scopes = new int[8];
+	}
+
+	/**
+	 * declares a new variable
+	 *
+	 * @param name
+	 *            the name of the variable in lower case
+	 */
+	void push(String name) {
+		if (size == names.length) {
+			int length = size * 2;
+			String[] newNames = new String[length];
+			Variable[] newConstants = new Variable[length];
+			Class<?>[] newTypes = new Class<?>[length];
+			int[] newHidden = new int[length];
+			System.arraycopy(names, 0, newNames, 0, size);
+			System.arraycopy(constants, 0, newConstants, 0, size);
+			System.arraycopy(types, 0, newTypes, 0, size);
+			System.arraycopy(hidden, 0, newHidden, 0, size);
+			names = newNames;
+			constants = newConstants;
+			types = newTypes;
+			hidden = newHidden;
+		}
+		Integer previous = visible.put(name, size);
+		names[size] = name;
+		constants[size] = null;
+		types[size] = null;
+		hidden[size] = previous != null ? previous : -1;
+		size++;
+	}
+
+	/**
+	 * @return the name of the variable declared last
+	 */
+	String peek() {
+		return names[size - 1];
+	}
+
+	/**
+	 * sets the value of the variable declared last, if it never changes
+	 */
+	void setConstant(Variable value) {
+		constants[size - 1] = value;
+	}
+
+	/**
+	 * sets the class of the variable declared last, if it keeps it
+	 */
+	void setType(Class<? extends Variable> type) {
+		types[size - 1] = type;
+	}
+
+	/**
+	 * searches a visible variable
+	 *
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return the position of the variable counted from the top of the stack,
+	 *         starting at 1; -1 if there is no such variable
+	 */
+	int indexFromTop(String name) {
+		Integer index = visible.get(name);
+		if (index == null)
+			return -1;
+		int i = index;
+		while (i >= hiddenFrom && i < hiddenTo)
+			i = hidden[i];
+		if (i == -1)
+			return -1;
+		return size - i;
+	}
+
+	/**
+	 * @param fromTop
+	 *            the position of the variable, as returned by
+	 *            {@link #indexFromTop(String)}
+	 * @return the value of the variable if it never changes,
+	 *         <code>null</code> otherwise
+	 */
+	Variable getConstant(int fromTop) {
+		return constants[size - fromTop];
+	}
+
+	/**
+	 * @param fromTop
+	 *            the position of the variable, as returned by
+	 *            {@link #indexFromTop(String)}
+	 * @return the class of the variable if it keeps it, <code>null</code>
+	 *         otherwise
+	 */
+	@SuppressWarnings("unchecked")
+	Class<? extends Variable> getType(int fromTop) {
+		return (Class<? extends Variable>) types[size - fromTop];
+	}
+
+	/**
+	 * @return the number of variables
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * hides some variables, e.g. while optimizing inlined code that can not
+	 * access the variables of its caller. A hidden variable does not hide
+	 * older variables of the same name either.
+	 *
+	 * @param from
+	 *            the index of the first hidden variable
+	 * @param to
+	 *            the index after the last hidden variable
+	 */
+	void hide(int from, int to) {
+		hiddenFrom = from;
+		hiddenTo = to;
+	}
+
+	/**
+	 * @return the index of the first hidden variable
+	 */
+	int getHiddenFrom() {
+		return hiddenFrom;
+	}
+
+	/**
+	 * @return the index after the last hidden variable
+	 */
+	int getHiddenTo() {
+		return hiddenTo;
+	}
+
+	/**
+	 * opens a new scope; all variables declared from now on are removed by
+	 * the matching {@link #closeScope()}
+	 */
+	void openScope() {
+		if (nScopes == scopes.length) {
+			int[] newScopes = new int[nScopes * 2];
+			System.arraycopy(scopes, 0, newScopes, 0, nScopes);
+			scopes = newScopes;
+		}
+		scopes[nScopes++] = size;
+	}
+
+	/**
+	 * removes the variables declared since the last open scope was opened
+	 */
+	void closeScope() {
+		int mark = scopes[--nScopes];
+		while (size > mark) {
+			size--;
+			if (hidden[size] != -1)
+				visible.put(names[size], hidden[size]);
+			else
+				visible.remove(names[size]);
+			names[size] = null;
+			constants[size] = null;
+			types[size] = null;
+		}
+	}
+}
@@ -3,10 +3,7 @@ package turtlepp.exec;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import turtlepp.InterpreterException;
 import turtlepp.Language;
 import turtlepp.datatypes.Array;
 import turtlepp.datatypes.Bool;
@@ -17,36 +14,10 @@ import turtlepp.datatypes.LogoString;
 import turtlepp.datatypes.Reference;
 import turtlepp.datatypes.Value;
 import turtlepp.datatypes.Variable;
-import turtlepp.datatypes.Value.BoolTermValue;
-import turtlepp.datatypes.Value.ComparisonValue;
-
-/**
- * Exception thrown while parsing a piece of code.
- * 
- * @author Nicolas Winkler
- * 
- */
-class ParserException extends InterpreterException {
-	private static final long serialVersionUID = 632797542061918768L;
-
-	public ParserException(String message) {
-		super(message);
-	}
-
-	public ParserException(String message, CodeLocationInfo cli) {
-		super(message, cli);
-	}
-}
 
 public class Tokenizer {
-	private static Pattern operatorMatch = null;
-
 	public static boolean isOperator(String token) {
-		if (operatorMatch == null)
-			operatorMatch = Pattern.compile(
-					"[\\+\\-\\*/\\^<>]|<=|>=|==|!=|and|or|xor",
-					Pattern.CASE_INSENSITIVE);
-		return operatorMatch.matcher(token).matches();
+		return ExpressionParser.getPrecedence(token) != -1;
 	}
 
 	/**
@@ -61,8 +32,6 @@ public class Tokenizer {
 
 		abstract boolean isTermOperator();
 
-		public abstract boolean matches(String regex);
-
 		public abstract Value createValue();
 
 		public boolean isTextCommand(String string) {
@@ -118,12 +87,6 @@ public class Tokenizer {
 			return "TextToken: " + token;
 		}
 
-		@Override
-		public boolean matches(String regex) {
-			return Pattern.compile(regex, Pattern.CASE_INSENSITIVE)
-					.matcher(token).matches();
-		}
-
 		@Override
 		public boolean isTextCommand(String string) {
 			return string.equalsIgnoreCase(token);
@@ -161,39 +124,58 @@ public class Tokenizer {
 			replace();
 		}
 
-		private void replace() {
-			// token = token.replaceAll("\\\\\\\\", "\\\\");
-			// token = token.replaceAll("\\\\\"", "\""); // replace
-			// \" with "
-
-			token = replaceBackslashes(token); // split at \\ and glue
-												// together again
-			// token.
-		}
-
-		private String replaceBackslashes(String text) {
-			Pattern pattern = Pattern.compile("\\\\\\\\");
-			Matcher m = pattern.matcher(text);
-			String together = "";
-
-			int lastIndex = 0;
-			while (m.find()) {
-				int start = m.start();
-				int end = m.end();
-				String last = text.substring(lastIndex, start);
-				together += replaceChars(last) + "\\";
-				lastIndex = end;
-			}
-			together += replaceChars(text.substring(lastIndex));
-			return together;
+		private StringToken() {
 		}
 
-		private String replaceChars(String last) {
-			last = last.replaceAll("\\\\n", "\n");
-			last = last.replaceAll("\\\\r", "\r");
-			last = last.replaceAll("\\\\t", "\t");
-			last = last.replaceAll("\\\\\"", "\"");
-			return last;
+		/**
+		 * creates a string token out of its content, without any quotes or
+		 * escape sequences
+		 */
+		static StringToken fromContent(String content) {
+			StringToken st = new StringToken();
+			st.token = content;
+			return st;
+		}
+
+		/**
+		 * replaces the escape sequences \\, \n, \r, \t and \" by the
+		 * characters they stand for
+		 */
+		private void replace() {
+			if (token.indexOf('\\') == -1)
+				return;
+
+			StringBuilder sb = new StringBuilder(token.length());
+			for (int i = 0; i < token.length(); i++) {
+				char chr = token.charAt(i);
+				if (chr == '\\' && i + 1 < token.length()) {
+					char escaped = getEscapedChar(token.charAt(i + 1));
+					if (escaped != 0) {
+						sb.append(escaped);
+						i++;
+						continue;
+					}
+				}
+				sb.append(chr);
+			}
+			token = sb.toString();
+		}
+
+		private static char getEscapedChar(char chr) {
+			switch (chr) {
+			case '\\':
+				return '\\';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case '"':
+				return '"';
+			default:
+				return 0;
+			}
 		}
 
 		public boolean isTextToken() {
@@ -210,11 +192,6 @@ public class Tokenizer {
 			return "StringToken: " + token;
 		}
 
-		@Override
-		public boolean matches(String regex) {
-			return false;
-		}
-
 		@Override
 		public boolean isTextCommand(String string) {
 			return false;
@@ -260,11 +237,6 @@ public class Tokenizer {
 			return false;
 		}
 
-		@Override
-		public boolean matches(String regex) {
-			return false;
-		}
-
 		@Override
 		public Value createValue() {
 			Value.FunctionValue fv = new Value.FunctionValue(
@@ -304,11 +276,6 @@ public class Tokenizer {
 			return false;
 		}
 
-		@Override
-		public boolean matches(String regex) {
-			return false;
-		}
-
 		@Override
 		public Value createValue() {
 			return new Value.ArrayAccessValue(this);
@@ -396,11 +363,6 @@ public class Tokenizer {
 			return false;
 		}
 
-		@Override
-		public boolean matches(String regex) {
-			return false;
-		}
-
 		@Override
 		public Value createValue() {
 			return new Value.NegativeVarValue(token.createValue());
@@ -483,39 +445,7 @@ public class Tokenizer {
 		}
 
 		public Value getTermValue() {
-			if (ComparisonValue.isComparison(this)) {
-				return new ComparisonValue(this);
-			} else {
-				return new BoolTermValue(this).simplify();
-			}
-		}
-
-		/**
-		 * splits the token into shorter tokens
-		 * 
-		 * @param regex
-		 *            the regular expression to determine which token is a
-		 *            delimiter (with {@link Pattern#CASE_INSENSITIVE} flag)
-		 */
-		public TermToken[] split(String regex) {
-			Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-			ArrayList<TermToken> newTokens = new ArrayList<TermToken>();
-			TermToken lastOperator = null;
-			for (int i = 0; i < tokens.length; i++) {
-				if (p.matcher(tokens[i].getStringToken()).matches()) {
-					if (lastOperator != null)
-						newTokens.add(lastOperator);
-					lastOperator = new TermToken(tokens[i]);
-				} else {
-					if (lastOperator == null)
-						lastOperator = new TermToken(tokens[i]);
-					else
-						lastOperator.addToken(tokens[i]);
-				}
-			}
-			if (lastOperator != null)
-				newTokens.add(lastOperator);
-			return newTokens.toArray(new TermToken[0]);
+			return ExpressionParser.parse(tokens);
 		}
 
 		public TermToken getNormalized() {
@@ -532,11 +462,6 @@ public class Tokenizer {
 			return this;
 		}
 
-		@Override
-		public boolean matches(String regex) {
-			return false;
-		}
-
 		@Override
 		public Value createValue() {
 			return getNormalized().getTermValue();
@@ -550,14 +475,6 @@ public class Tokenizer {
 			return tokens[i];
 		}
 
-		public boolean containsOperator(String operator) {
-			for (int i = 0; i < tokens.length; i++) {
-				if (tokens[i].matches(operator))
-					return true;
-			}
-			return false;
-		}
-
 		public void setIsParanthesisExpression(boolean b) {
 			this.isParanthesisExpression = b;
 		}
@@ -790,7 +707,9 @@ public class Tokenizer {
 	}
 
 	/**
-	 * Cuts the string into pieces, this is my last resort!
+	 * Cuts the string into pieces. The code is scanned exactly once, character
+	 * by character; every token is cut out of the code with a single substring
+	 * and the single character delimiters are shared.
 	 * 
 	 * @author Nicolas Winkler
 	 * 
@@ -800,19 +719,19 @@ public class Tokenizer {
 		private ArrayList<String> tokens;
 
 		/**
-		 * tokens that match these regular expressions get a separate token
+		 * characters that always get a separate token
 		 */
-		protected static final String[] delimitters = new String[] { "\\+",
-				"\\-", "\\*", "=", "/", "\\^", "\\-\\[", "\\-\\(", "\\-\\{",
-				"\\[", "\\]", "\\(", "\\)", "\\{", "\\}" };
+		protected static final String delimitters = "+-*=/^[](){}";
 
-		private static String regexDelim;
+		/**
+		 * the tokens for the characters in {@link #delimitters}, indexed by
+		 * character
+		 */
+		private static final String[] delimitterTokens = new String[128];
 		static {
-			regexDelim = "";
-			for (int i = 0; i < delimitters.length; i++) {
-				String delim = delimitters[i];
-				regexDelim += delim + ".*"
-						+ (i < delimitters.length - 1 ? "|" : "");
+			for (int i = 0; i < delimitters.length(); i++) {
+				char chr = delimitters.charAt(i);
+				delimitterTokens[chr] = String.valueOf(chr);
 			}
 		}
 
@@ -833,67 +752,59 @@ public class Tokenizer {
 		protected void lex() {
 			tokens = new ArrayList<String>();
 
-			String current = "";
-			String left = code;
-			for (int i = 0; i < code.length(); i++) {
+			int length = code.length();
+			// start of the word currently being read, -1 if there is none
+			int start = -1;
+			for (int i = 0; i < length; i++) {
 				char chr = code.charAt(i);
-				left = code.substring(i);
-				if (isDelimitter(left)) {
-					if (!current.isEmpty()) {
-						tokens.add(current);
-						current = "";
-					}
-					tokens.add(new String(new char[] { chr }));
-				} else if (Character.isWhitespace(chr)) {
-					if (!current.isEmpty()) {
-						tokens.add(current);
-						current = "";
-					}
+				boolean delimitter = isDelimitter(chr);
+				boolean whitespace = Character.isWhitespace(chr);
+				if (start != -1
+						&& (delimitter || whitespace || chr == '\'' || chr == '"')) {
+					tokens.add(code.substring(start, i));
+					start = -1;
+				}
+
+				if (delimitter) {
+					tokens.add(delimitterTokens[chr]);
+				} else if (whitespace) {
+					continue;
 				} else if (chr == '\'') {
-					int j = i + 2;
-					if (j >= code.length()) {
+					if (i + 2 >= length) {
 						throw new ParserException("\' without matching \'");
 					}
-					String content = code.substring(i, i + 3);
-					tokens.add(content);
-					i = j + 1;
+					tokens.add(code.substring(i, i + 3));
+					i += 2;
 				} else if (chr == '"') {
 					int j = i + 1;
-
-					if (j >= code.length()) {
-						throw new ParserException("\" without matching \"");
-					}
-
-					char chr2 = code.charAt(j);
 					int backslashes = 0;
-					while (chr2 != '"' || (backslashes & 0x01) != 0) {
+					while (true) {
+						if (j >= length) {
+							throw new ParserException("\" without matching \"");
+						}
+						char chr2 = code.charAt(j);
+						if (chr2 == '"' && (backslashes & 0x01) == 0)
+							break;
 						if (chr2 == '\\')
 							backslashes++;
 						else
 							backslashes = 0;
-
 						j++;
-						if (j >= code.length()) {
-							throw new ParserException("\" without matching \"");
-						}
-						chr2 = code.charAt(j);
 					}
-					j++;
-					String content = code.substring(i, j);
-					tokens.add(content);
-					i = j - 1;
-				} else {
-					current += chr;
+					tokens.add(code.substring(i, j + 1));
+					i = j;
+				} else if (start == -1) {
+					start = i;
 				}
 			}
-			if (!current.isEmpty()) {
-				tokens.add(current);
+			if (start != -1) {
+				tokens.add(code.substring(start));
 			}
 		}
 
-		protected boolean isDelimitter(String left) {
-			// return delimitters.indexOf(character) != -1;
-			return left.matches(regexDelim);
+		protected static boolean isDelimitter(char chr) {
+			return chr < delimitterTokens.length
+					&& delimitterTokens[chr] != null;
 		}
 
 		/**
@@ -903,12 +814,4 @@ public class Tokenizer {
 			return tokens.toArray(new String[] {});
 		}
 	}
-
-	public static String[] getLines(String code) {
-		code = code.replaceAll("\\s_\\n", " ");
-		String[] splits = code.split("\\n");
-		for (int i = 0; i < splits.length; i++)
-			splits[i] = splits[i].trim();
-		return splits;
-	}
 }
@@ -0,0 +1,130 @@
+package turtlepp.exec;
+
+import turtlepp.InterpreterException;
+import turtlepp.LogoRenderer2D;
+import turtlepp.datatypes.Value;
+
+/**
+ * A "repeat" statement whose body is run several times in one go. The
+ * instructions of the body are repeated {@link #factor} times in a row, so
+ * that the loop only runs once for every {@link #factor} repetitions; the
+ * remaining repetitions run the body alone. If the number of repetitions is a
+ * small constant, the factor is the number of repetitions and the loop runs
+ * exactly once.
+ *
+ * Only bodies that do not declare variables are unrolled, since the variables
+ * of a repetition are removed when it ends. The instructions are shared by the
+ * repetitions, which is possible since compiled code does not change while it
+ * is run.
+ *
+ * @see RepeatStatement#getOptimized(OrderOptimizer)
+ */
+final class UnrolledRepeatStatement extends Block {
+	private final Value repeatArgument;
+
+	/**
+	 * the number of repetitions in {@link #executables}
+	 */
+	private final long factor;
+
+	/**
+	 * the instructions of a single repetition and their lines
+	 */
+	private final Executable[] body;
+	private final int[] bodyLines;
+
+	/**
+	 * the number of loops around this one
+	 */
+	private final int depth;
+
+	/**
+	 * the number of values computed once per run of the loop
+	 */
+	private final int nValues;
+
+	/**
+	 * @param repeatArgument
+	 *            the optimized number of repetitions
+	 * @param body
+	 *            the optimized body of the loop
+	 * @param factor
+	 *            the number of repetitions to run in a row
+	 * @param depth
+	 *            the number of loops around this one
+	 * @param nValues
+	 *            the number of values computed once per run of the loop
+	 */
+	UnrolledRepeatStatement(Value repeatArgument, Block body, int factor,
+			int depth, int nValues) {
+		super(body.lineOffset);
+		this.repeatArgument = repeatArgument;
+		this.factor = factor;
+		this.body = body.executables;
+		this.bodyLines = body.lines;
+		this.depth = depth;
+		this.nValues = nValues;
+
+		int n = this.body.length;
+		executables = new Executable[n * factor];
+		lines = new int[n * factor];
+		for (int i = 0; i < factor; i++) {
+			System.arraycopy(this.body, 0, executables, i * n, n);
+			System.arraycopy(bodyLines, 0, lines, i * n, n);
+		}
+	}
+
+	/**
+	 * the body has been optimized by the "repeat" statement already
+	 */
+	@Override
+	public Executable getOptimized(OrderOptimizer oo) {
+		return this;
+	}
+
+	@Override
+	public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
+		long repetitions;
+		try {
+			repetitions = repeatArgument.getVarValue(renderer, oi, null)
+					.getLongValue();
+		} catch (InterpreterException ie) {
+			if (ie.getCodeLocationInfo() == null)
+				ie.setCodeLocationInfo(new CodeLocationInfo(lineOffset));
+			throw ie;
+		}
+		if (nValues > 0)
+			oi.clearLoopValues(depth, nValues);
+		for (long i = repetitions / factor; i > 0; i--) {
+			ReturnValue cb = run(executables, lines, renderer, oi);
+			if (cb != ReturnValue.NOTHING)
+				return cb == ReturnValue.EXIT_REPEAT ? ReturnValue.NOTHING : cb;
+		}
+		for (long i = repetitions % factor; i > 0; i--) {
+			ReturnValue cb = run(body, bodyLines, renderer, oi);
+			if (cb != ReturnValue.NOTHING)
+				return cb == ReturnValue.EXIT_REPEAT ? ReturnValue.NOTHING : cb;
+		}
+		return ReturnValue.NOTHING;
+	}
+
+	/**
+	 * runs instructions until one of them leaves the loop
+	 */
+	private static ReturnValue run(Executable[] executables, int[] lines,
+			LogoRenderer2D renderer, OrderInterpreter oi) {
+		int i = 0;
+		try {
+			for (; i < executables.length; i++) {
+				ReturnValue cb = executables[i].execute(renderer, oi);
+				if (cb != ReturnValue.NOTHING)
+					return cb;
+			}
+		} catch (InterpreterException ie) {
+			if (ie.getCodeLocationInfo() == null)
+				ie.setCodeLocationInfo(new CodeLocationInfo(lines[i]));
+			throw ie;
+		}
+		return ReturnValue.NOTHING;
+	}
+}
@@ -0,0 +1,425 @@
+package turtlepp.exec;
+
+import java.util.HashSet;
+
+import turtlepp.exec.Tokenizer.ArrayAccessToken;
+import turtlepp.exec.Tokenizer.FncToken;
+import turtlepp.exec.Tokenizer.NegativeToken;
+import turtlepp.exec.Tokenizer.TermToken;
+import turtlepp.exec.Tokenizer.TextToken;
+import turtlepp.exec.Tokenizer.Token;
+
+/**
+ * Tells which variable names are declared in a program and which ones may
+ * change after being declared. It is found by looking at the tokens of all
+ * lines, so it also covers the subroutines that have not been parsed yet.
+ *
+ * A variable may change if it is assigned anywhere, or if it is assigned
+ * directly to another variable, because a reference would then point to it.
+ * The optimizer may replace every other variable by the value it is declared
+ * with.
+ *
+ * The usage of a part of the lines, e.g. the body of a loop, tells which
+ * variables may change and which subroutines may be called while that part is
+ * run. The usage of an outer loop can be put together out of its own lines
+ * and the usages of the loops inside of it, so that no line has to be looked
+ * at twice.
+ */
+final class VariableUsage {
+	/**
+	 * the keywords declaring a variable
+	 */
+	private static final String[] declarations = { "int", "float", "boolean",
+			"char", "string", "ref" };
+
+	/**
+	 * the assignment operators
+	 */
+	private static final String[] assignments = { "=", "+=", "-=", "*=",
+			"/=", "^=" };
+
+	/**
+	 * the names of all variables, arguments and functions in lower case
+	 */
+	private final HashSet<String> declared;
+
+	/**
+	 * the names of the variables that may change in lower case
+	 */
+	private final HashSet<String> changed;
+
+	/**
+	 * the names of the variables a reference may point to in lower case
+	 */
+	private final HashSet<String> referenced;
+
+	/**
+	 * the names of the variables passed as a whole to a command or a
+	 * subroutine in lower case
+	 */
+	private final HashSet<String> passed;
+
+	/**
+	 * the names of the variables declared as "ref" in lower case
+	 */
+	private final HashSet<String> references;
+
+	/**
+	 * the names of all subroutines and functions in lower case
+	 */
+	private final HashSet<String> definitions;
+
+	/**
+	 * the names of all functions in lower case. Inside of a function, its
+	 * return value is a reference.
+	 */
+	private final HashSet<String> functions;
+
+	/**
+	 * the names of the arguments of all subroutines and functions in lower
+	 * case
+	 */
+	private final HashSet<String> parameters;
+
+	/**
+	 * the names of the variables assigned inside of a subroutine or function
+	 * in lower case
+	 */
+	private final HashSet<String> changedInDefinitions;
+
+	/**
+	 * every name used in the lines in lower case; everything that is called
+	 * as a subroutine or function is among them
+	 */
+	private final HashSet<String> names;
+
+	/**
+	 * the names that may be called as a subroutine or function in lower
+	 * case. Assigning the return value of a function does not call it.
+	 */
+	private final HashSet<String> called;
+
+	/**
+	 * <code>true</code> if a reference may be passed to an argument of a
+	 * subroutine or function, <code>null</code> until it is needed
+	 */
+	private Boolean passesReferences;
+
+	/**
+	 * <code>true</code> while adding the lines of a definition
+	 */
+	private boolean inDefinition;
+
+	/**
+	 * @param lines
+	 *            the tokens of every line of the program
+	 */
+	VariableUsage(Token[][] lines) {
+		this(lines, 0, lines.length);
+	}
+
+	/**
+	 * finds the usage of a part of the lines of a program
+	 *
+	 * @param lines
+	 *            the tokens of every line of the program
+	 * @param from
+	 *            the index of the first line
+	 * @param to
+	 *            the index after the last line
+	 */
+	VariableUsage(Token[][] lines, int from, int to) {
+		this();
+		for (int i = from; i < to; i++)
+			addLine(lines[i]);
+	}
+
+	/**
+	 * creates the usage of no lines at all; lines are added by
+	 * {@link #addLine(Token[])} and {@link #addAll(VariableUsage)}
+	 */
+	VariableUsage() {
+		declared = new HashSet<String>();
+		changed = new HashSet<String>();
+		referenced = new HashSet<String>();
+		passed = new HashSet<String>();
+		references = new HashSet<String>();
+		definitions = new HashSet<String>();
+		functions = new HashSet<String>();
+		parameters = new HashSet<String>();
+		changedInDefinitions = new HashSet<String>();
+		names = new HashSet<String>();
+		called = new HashSet<String>();
+	}
+
+	/**
+	 * adds the usages of a line. Lines must only be added before the usage
+	 * is asked anything.
+	 */
+	void addLine(Token[] line) {
+		for (int i = 0; i < line.length; i++)
+			addNames(line[i]);
+		if (line.length > 0
+				&& (line.length < 2 || !isOneOf(line[1], assignments)))
+			add(called, line[0]);
+		if (line.length < 2)
+			return;
+
+		Token first = line[0];
+		if (first.isTextCommand("sub") || first.isTextCommand("function")) {
+			for (int i = 1; i < line.length; i++)
+				add(declared, line[i]);
+			add(definitions, line[1]);
+			if (first.isTextCommand("function"))
+				add(functions, line[1]);
+			for (int i = 2; i < line.length; i++)
+				add(parameters, line[i]);
+			inDefinition = true;
+			return;
+		} else if (first.isTextCommand("end")) {
+			if (line[1].isTextCommand("sub")
+					|| line[1].isTextCommand("function"))
+				inDefinition = false;
+			return;
+		} else if (isOneOf(first, declarations)) {
+			add(declared, line[1]);
+			// any other variable only copies the value it is declared with
+			if (first.isTextCommand("ref")) {
+				add(references, line[1]);
+				if (line.length == 4 && line[2].isTextCommand("="))
+					addReferenced(line[3]);
+			}
+			return;
+		} else if (simplify(first) instanceof ArrayAccessToken) {
+			add(declared, line[1]);
+		}
+
+		if (line.length >= 3 && isOneOf(line[1], assignments)) {
+			add(changed, line[0]);
+			if (inDefinition)
+				add(changedInDefinitions, line[0]);
+			if (line[1].isTextCommand("="))
+				addReferenced(line[2]);
+		} else {
+			for (int i = 1; i < line.length; i++)
+				add(passed, line[i]);
+		}
+	}
+
+	/**
+	 * adds the usages of other lines, e.g. the ones of a loop inside of the
+	 * lines of this usage
+	 */
+	void addAll(VariableUsage other) {
+		declared.addAll(other.declared);
+		changed.addAll(other.changed);
+		referenced.addAll(other.referenced);
+		passed.addAll(other.passed);
+		references.addAll(other.references);
+		definitions.addAll(other.definitions);
+		functions.addAll(other.functions);
+		parameters.addAll(other.parameters);
+		changedInDefinitions.addAll(other.changedInDefinitions);
+		names.addAll(other.names);
+		called.addAll(other.called);
+	}
+
+	/**
+	 * @return <code>true</code> if a reference may be passed to an argument
+	 *         of a subroutine or function
+	 */
+	private boolean passesReferences() {
+		Boolean passes = passesReferences;
+		if (passes == null) {
+			// a function may pass its return value, which is a reference
+			boolean found = !references.isEmpty();
+			for (String function : functions) {
+				if (passed.contains(function)
+						|| referenced.contains(function))
+					found = true;
+			}
+			passesReferences = passes = found;
+		}
+		return passes;
+	}
+
+	/**
+	 * adds the variable an assigned value may consist of, since it may be
+	 * assigned to a reference. Native functions may return one of their
+	 * arguments.
+	 */
+	private void addReferenced(Token value) {
+		value = simplify(value);
+		if (value instanceof FncToken) {
+			Token[] tokens = ((FncToken) value).tokens;
+			for (int i = 1; i < tokens.length; i++)
+				addReferenced(tokens[i]);
+		} else {
+			add(changed, value);
+			add(referenced, value);
+		}
+	}
+
+	/**
+	 * adds all names used in a token and the variables passed to functions
+	 */
+	private void addNames(Token token) {
+		if (token instanceof TextToken) {
+			names.add(token.getStringToken().toLowerCase());
+		} else if (token instanceof FncToken) {
+			Token[] tokens = ((FncToken) token).tokens;
+			for (int i = 0; i < tokens.length; i++)
+				addNames(tokens[i]);
+			add(called, tokens[0]);
+			for (int i = 1; i < tokens.length; i++)
+				add(passed, tokens[i]);
+		} else if (token instanceof ArrayAccessToken) {
+			ArrayAccessToken aat = (ArrayAccessToken) token;
+			addNames(aat.getArrayVariable());
+			for (int i = 0; i < aat.getNIndices(); i++)
+				addNames(aat.getIndex(i));
+		} else if (token instanceof NegativeToken) {
+			addNames(((NegativeToken) token).token);
+		} else if (token instanceof TermToken) {
+			TermToken tt = (TermToken) token;
+			for (int i = 0; i < tt.getNTokens(); i++)
+				addNames(tt.getToken(i));
+		}
+	}
+
+	/**
+	 * adds the name of the variable a token stands for
+	 */
+	private static void add(HashSet<String> names, Token token) {
+		token = simplify(token);
+		while (token instanceof ArrayAccessToken)
+			token = simplify(((ArrayAccessToken) token).getArrayVariable());
+		if (token instanceof TextToken)
+			names.add(token.getStringToken().toLowerCase());
+	}
+
+	private static Token simplify(Token token) {
+		while (token instanceof TermToken
+				&& ((TermToken) token).getNTokens() == 1)
+			token = ((TermToken) token).getToken(0);
+		return token;
+	}
+
+	private static boolean isOneOf(Token token, String[] keywords) {
+		for (int i = 0; i < keywords.length; i++) {
+			if (token.isTextCommand(keywords[i]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param name
+	 *            the name in lower case
+	 * @return <code>true</code> if a variable, argument or function of the
+	 *         program has this name
+	 */
+	boolean isDeclared(String name) {
+		return declared.contains(name);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return <code>true</code> if a variable of this name may get a new
+	 *         value after its declaration
+	 */
+	boolean mayChange(String name) {
+		return changed.contains(name);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return <code>true</code> if a variable of this name is declared or
+	 *         assigned in the lines
+	 */
+	boolean declaresOrChanges(String name) {
+		return declared.contains(name) || changed.contains(name);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return <code>true</code> if a reference may point to a variable of
+	 *         this name
+	 */
+	boolean isReferenced(String name) {
+		return referenced.contains(name);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return <code>true</code> if a variable of this name may be a
+	 *         reference, so that assigning another variable may change it
+	 */
+	boolean mayHoldReference(String name) {
+		if (references.contains(name) || functions.contains(name))
+			return true;
+		return parameters.contains(name) && passesReferences();
+	}
+
+	/**
+	 * @param name
+	 *            the name of the variable in lower case
+	 * @return <code>true</code> if any subroutine or function assigns a
+	 *         variable of this name
+	 */
+	boolean isChangedByDefinitions(String name) {
+		return changedInDefinitions.contains(name);
+	}
+
+	/**
+	 * @param name
+	 *            a name in lower case
+	 * @return <code>true</code> if the name is used anywhere in the lines
+	 */
+	boolean uses(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * @param name
+	 *            a name in lower case
+	 * @return <code>true</code> if a subroutine or function of this name may
+	 *         be called in the lines
+	 */
+	boolean calls(String name) {
+		return called.contains(name);
+	}
+
+	/**
+	 * @param program
+	 *            the usage of the whole program
+	 * @return <code>true</code> if a subroutine or function of the program
+	 *         may be called in the lines; every use of its name counts as a
+	 *         call
+	 */
+	boolean callsDefinitions(VariableUsage program) {
+		for (String name : names) {
+			if (program.definitions.contains(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param program
+	 *            the usage of the whole program
+	 * @return <code>true</code> if the lines assign a variable that may be a
+	 *         reference or that a reference may point to
+	 */
+	boolean changesReferences(VariableUsage program) {
+		for (String name : changed) {
+			if (program.mayHoldReference(name) || program.isReferenced(name))
+				return true;
+		}
+		return false;
+	}
+}
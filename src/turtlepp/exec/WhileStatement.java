@@ -2,17 +2,27 @@ package turtlepp.exec;
 
 import turtlepp.InterpreterException;
 import turtlepp.LogoRenderer2D;
-import turtlepp.exec.OrderInterpreter.InvokeableList;
 import turtlepp.exec.Tokenizer.Token;
 
 public class WhileStatement extends IfStatement {
+	/**
+	 * how the variables are used in the loop, <code>null</code> if unknown
+	 */
+	private VariableUsage usage;
 
-	public WhileStatement(String code, InvokeableList subroutines,
-			int lineNumber) {
+	/**
+	 * the number of loops around this one
+	 */
+	private int depth;
+
+	/**
+	 * the number of values computed once per run of the loop
+	 */
+	private int nValues;
+
+	WhileStatement(Token[] tokens, int lineNumber) {
 		super(lineNumber);
 
-		String first = Tokenizer.getLines(code)[0];
-		Token[] tokens = Tokenizer.tokenize(first);
 		if (tokens.length == 2 && tokens[0].isTextCommand("while")) {
 			createComparison(tokens[1]);
 		} else {
@@ -20,13 +30,38 @@ public class WhileStatement extends IfStatement {
 					"Check your use of the while statement.",
 					new CodeLocationInfo(lineNumber));
 		}
+	}
 
-		String rest = code.substring(first.length());
-		addToBlock(rest, subroutines);
+	/**
+	 * sets how the variables are used in the lines of the loop, including
+	 * the condition
+	 */
+	void setUsage(VariableUsage usage) {
+		this.usage = usage;
+	}
+
+	/**
+	 * the condition is part of the loop. A loop whose condition is always
+	 * false is removed.
+	 */
+	@Override
+	public Executable getOptimized(OrderOptimizer oo) {
+		depth = oo.pushLoop(usage);
+		condition = condition.getOptimized(oo).getReadOnly();
+		if (Boolean.FALSE.equals(getConstantCondition(oo))) {
+			oo.popLoop();
+			oo.countPrunedBranch();
+			return new Block(lineOffset);
+		}
+		optimizeBranches(oo);
+		nValues = oo.popLoop();
+		return this;
 	}
 
 	@Override
 	public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
+		if (nValues > 0)
+			oi.clearLoopValues(depth, nValues);
 		while (checkCondition(renderer, oi)) {
 			ReturnValue cb = super.execute(renderer, oi);
 			if (cb == ReturnValue.EXIT_WHILE)
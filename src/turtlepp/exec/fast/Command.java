@@ -14,12 +14,17 @@ import turtlepp.datatypes.LogoString;
 import turtlepp.datatypes.Reference;
 import turtlepp.datatypes.Value;
 import turtlepp.datatypes.Variable;
+import turtlepp.datatypes.Value.ConstantValue;
+import turtlepp.datatypes.Value.NumberPowerValue;
+import turtlepp.datatypes.Value.NumberProductValue;
 import turtlepp.datatypes.Value.VariableValue;
 import turtlepp.exec.CodeLocationInfo;
 import turtlepp.exec.Executable;
 import turtlepp.exec.Invokeable;
 import turtlepp.exec.OrderInterpreter;
+import turtlepp.exec.OptimizerFeature;
 import turtlepp.exec.OrderOptimizer;
+import turtlepp.exec.Subroutine;
 import turtlepp.exec.Tokenizer.Token;
 
 /**
@@ -59,10 +64,227 @@ public abstract class Command extends Executable {
 			return var;
 		}
 
+		/**
+		 * @return the name of the assigned variable, <code>null</code> if it
+		 *         is not known
+		 */
+		protected String getVariableName() {
+			if (leftArgument instanceof VariableValue)
+				return ((VariableValue) leftArgument).getVariableName();
+			return null;
+		}
+
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
+			String name = getVariableName();
+			oo.beginAssignment();
 			leftArgument = leftArgument.getOptimized(oo);
-			argument = argument.getOptimized(oo);
+			argument = argument.getOptimized(oo).getReadOnly();
+			oo.endAssignment(leftArgument, name, argument);
+			return getNumeric(oo);
+		}
+
+		/**
+		 * @return an operation computing the same without creating
+		 *         variables if both the variable and the argument are known
+		 *         to be numbers, this operation otherwise
+		 */
+		protected Operation getNumeric(OrderOptimizer oo) {
+			if (NumberOperation.isNumber(leftArgument)
+					&& NumberOperation.isNumber(argument)
+					&& oo.isEnabled(OptimizerFeature.NUMBERS)) {
+				oo.count(OptimizerFeature.NUMBERS);
+				NumberOperation numeric = new NumberOperation(this);
+				if (oo.isEnabled(OptimizerFeature.STRENGTH_REDUCTION)
+						&& numeric.reduce())
+					oo.count(OptimizerFeature.STRENGTH_REDUCTION);
+				return numeric;
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * An assignment of a number to a variable that is known to be an integer
+	 * or a floating point number while optimizing. The result is converted
+	 * to the type of the variable, as it is when assigning variables.
+	 */
+	public static class NumberOperation extends Operation {
+		private static final int SET = 0;
+		private static final int ADD = 1;
+		private static final int SUB = 2;
+		private static final int MULT = 3;
+		private static final int DIV = 4;
+		private static final int POW = 5;
+
+		private int operator;
+
+		/**
+		 * <code>true</code> if the variable is an integer
+		 */
+		private final boolean integer;
+
+		/**
+		 * <code>true</code> if the argument is an integer
+		 */
+		private boolean integerArgument;
+
+		/**
+		 * the constant exponent if a power is computed by multiplications, -1
+		 * otherwise
+		 */
+		private int exponent = -1;
+
+		/**
+		 * @param operation
+		 *            the optimized operation computing the same
+		 */
+		NumberOperation(Operation operation) {
+			super(null, operation.argument, operation.cli);
+			leftArgument = operation.leftArgument;
+			if (operation instanceof Add)
+				operator = ADD;
+			else if (operation instanceof Sub)
+				operator = SUB;
+			else if (operation instanceof Mult)
+				operator = MULT;
+			else if (operation instanceof Div)
+				operator = DIV;
+			else if (operation instanceof Pow)
+				operator = POW;
+			else
+				operator = SET;
+			integer = leftArgument.getResultType() == Integer64.class;
+			integerArgument = argument.getResultType() == Integer64.class;
+		}
+
+		/**
+		 * computes a power with a small constant exponent by multiplying and
+		 * divides by a power of two by multiplying with its reciprocal, as
+		 * {@link NumberPowerValue} and {@link NumberProductValue} do
+		 * 
+		 * @return <code>true</code> if the operation has been changed
+		 */
+		boolean reduce() {
+			if (!(argument instanceof ConstantValue))
+				return false;
+			if (operator == DIV && !(integer && integerArgument)) {
+				double reciprocal = NumberProductValue
+						.getExactReciprocal(argument);
+				if (reciprocal == 0)
+					return false;
+				operator = MULT;
+				argument = new ConstantValue(new Float64(null, reciprocal))
+						.getReadOnly();
+				integerArgument = false;
+				return true;
+			} else if (operator == POW && (integerArgument || !integer)) {
+				double value = argument.getDoubleValue(null, null, cli);
+				int max = integer ? NumberPowerValue.MAX_INTEGER_EXPONENT : 2;
+				if (value != Math.rint(value) || value < 0 || value > max)
+					return false;
+				exponent = (int) value;
+				return true;
+			}
+			return false;
+		}
+
+		static boolean isNumber(Value value) {
+			Class<? extends Variable> type = value.getResultType();
+			return type == Integer64.class || type == Float64.class;
+		}
+
+		@Override
+		public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
+			Variable v = getVariable(renderer, oi);
+			if (integer && integerArgument)
+				execute((Integer64) v,
+						argument.getLongValue(renderer, oi, cli));
+			else if (integer)
+				execute((Integer64) v,
+						argument.getDoubleValue(renderer, oi, cli));
+			else
+				execute((Float64) v,
+						argument.getDoubleValue(renderer, oi, cli));
+			return ReturnValue.NOTHING;
+		}
+
+		private void execute(Integer64 v, long a) {
+			switch (operator) {
+			case SET:
+				v.value = a;
+				break;
+			case ADD:
+				v.value += a;
+				break;
+			case SUB:
+				v.value -= a;
+				break;
+			case MULT:
+				v.value *= a;
+				break;
+			case DIV:
+				v.value /= a;
+				break;
+			default:
+				if (exponent >= 0)
+					v.value = NumberPowerValue.pow(v.value, exponent);
+				else
+					v.value = (long) Math.pow(v.value, a);
+			}
+		}
+
+		private void execute(Integer64 v, double a) {
+			switch (operator) {
+			case SET:
+				v.value = (long) a;
+				break;
+			case ADD:
+				v.value += a;
+				break;
+			case SUB:
+				v.value -= a;
+				break;
+			case MULT:
+				v.value *= a;
+				break;
+			case DIV:
+				v.value /= a;
+				break;
+			default:
+				v.value = (long) Math.pow(v.value, a);
+			}
+		}
+
+		private void execute(Float64 v, double a) {
+			switch (operator) {
+			case SET:
+				v.value = a;
+				break;
+			case ADD:
+				v.value += a;
+				break;
+			case SUB:
+				v.value -= a;
+				break;
+			case MULT:
+				v.value *= a;
+				break;
+			case DIV:
+				v.value /= a;
+				break;
+			default:
+				if (exponent < 0)
+					v.value = Math.pow(v.value, a);
+				else if (exponent == 0)
+					v.value = 1;
+				else if (exponent == 2)
+					v.value *= v.value;
+			}
+		}
+
+		@Override
+		public Executable getOptimized(OrderOptimizer oo) {
 			return this;
 		}
 	}
@@ -72,6 +294,20 @@ public abstract class Command extends Executable {
 			super(varName, argument, cli);
 		}
 
+		/**
+		 * an empty reference keeps the assigned variable itself, so the
+		 * argument is not read only
+		 */
+		@Override
+		public Executable getOptimized(OrderOptimizer oo) {
+			String name = getVariableName();
+			oo.beginAssignment();
+			leftArgument = leftArgument.getOptimized(oo);
+			argument = argument.getOptimized(oo);
+			oo.endAssignment(leftArgument, name, argument);
+			return getNumeric(oo);
+		}
+
 		@Override
 		public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
 			Variable v = getVariable(renderer, oi);
@@ -174,10 +410,12 @@ public abstract class Command extends Executable {
 		public Executable getOptimized(OrderOptimizer oo) {
 			Invokeable invoke = oo.getSubroutine(invokeableName, args.length);
 
-			if (invoke != null)
+			if (invoke != null) {
+				oo.count(OptimizerFeature.RESOLUTION);
 				return new InvokeFast(invoke, args, cli).getOptimized(oo);
-			else
+			} else {
 				return this;
+			}
 		}
 	}
 
@@ -200,11 +438,53 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
+			Executable inlined = oo.getInlined(invokeable, args);
+			if (inlined != null)
+				return inlined;
 			for (int i = 0; i < args.length; i++) {
 				args[i] = args[i].getOptimized(oo);
+				if (invokeable.copiesArguments())
+					args[i] = args[i].getReadOnly();
 			}
 			return this;
 		}
+
+		/**
+		 * @return the call as the last instruction of a subroutine,
+		 *         <code>null</code> if it can not be run in place of the
+		 *         subroutine calling it
+		 */
+		public Executable getTailCall() {
+			if (invokeable instanceof Subroutine)
+				return new TailCall((Subroutine) invokeable, args, cli);
+			return null;
+		}
+	}
+
+	/**
+	 * A call of a subroutine that is the last thing a subroutine does. The
+	 * calling subroutine ends and lets its invocation run the called one, so
+	 * recursive calls in tail position do not grow the call stack.
+	 * 
+	 * @see Subroutine#invoke(LogoRenderer2D, OrderInterpreter, Value[],
+	 *      CodeLocationInfo)
+	 */
+	public static class TailCall extends Command {
+		private Subroutine subroutine;
+		private Value[] args;
+
+		public TailCall(Subroutine subroutine, Value[] args,
+				CodeLocationInfo cli) {
+			super(cli);
+			this.subroutine = subroutine;
+			this.args = args;
+		}
+
+		@Override
+		public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
+			subroutine.prepareTailCall(renderer, oi, args, cli);
+			return ReturnValue.TAIL_CALL;
+		}
 	}
 
 	public static class Line extends Command {
@@ -230,10 +510,10 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			x1 = x1.getOptimized(oo);
-			y1 = y1.getOptimized(oo);
-			x2 = x2.getOptimized(oo);
-			y2 = y2.getOptimized(oo);
+			x1 = x1.getOptimized(oo).getReadOnly();
+			y1 = y1.getOptimized(oo).getReadOnly();
+			x2 = x2.getOptimized(oo).getReadOnly();
+			y2 = y2.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -268,12 +548,12 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			x1 = x1.getOptimized(oo);
-			y1 = y1.getOptimized(oo);
-			x2 = x2.getOptimized(oo);
-			y2 = y2.getOptimized(oo);
-			x3 = x3.getOptimized(oo);
-			y3 = y3.getOptimized(oo);
+			x1 = x1.getOptimized(oo).getReadOnly();
+			y1 = y1.getOptimized(oo).getReadOnly();
+			x2 = x2.getOptimized(oo).getReadOnly();
+			y2 = y2.getOptimized(oo).getReadOnly();
+			x3 = x3.getOptimized(oo).getReadOnly();
+			y3 = y3.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -299,9 +579,9 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			r = r.getOptimized(oo);
-			g = g.getOptimized(oo);
-			b = b.getOptimized(oo);
+			r = r.getOptimized(oo).getReadOnly();
+			g = g.getOptimized(oo).getReadOnly();
+			b = b.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -318,8 +598,8 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			a = a.getOptimized(oo);
-			b = b.getOptimized(oo);
+			a = a.getOptimized(oo).getReadOnly();
+			b = b.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -414,6 +694,15 @@ public abstract class Command extends Executable {
 					w.getDoubleValue(), h.getDoubleValue());
 			return ReturnValue.NOTHING;
 		}
+
+		@Override
+		public Executable getOptimized(OrderOptimizer oo) {
+			x = x.getOptimized(oo).getReadOnly();
+			y = y.getOptimized(oo).getReadOnly();
+			w = w.getOptimized(oo).getReadOnly();
+			h = h.getOptimized(oo).getReadOnly();
+			return this;
+		}
 	}
 
 	/**
@@ -427,6 +716,12 @@ public abstract class Command extends Executable {
 		Variable newVar;
 		Value initialValue;
 
+		/**
+		 * <code>true</code> if both the variable and its initial value are
+		 * known to be numbers
+		 */
+		private boolean numeric;
+
 		public NewVariable(Variable newVar, CodeLocationInfo cli) {
 			super(cli);
 			this.newVar = newVar;
@@ -444,7 +739,14 @@ public abstract class Command extends Executable {
 		public ReturnValue execute(LogoRenderer2D renderer, OrderInterpreter oi) {
 			Variable var = newVar.getCopy(newVar.getName());
 			oi.pushVariable(var);
-			if (initialValue != null) {
+			if (numeric) {
+				if (var instanceof Integer64)
+					((Integer64) var).value = initialValue.getLongValue(
+							renderer, oi, cli);
+				else
+					((Float64) var).value = initialValue.getDoubleValue(
+							renderer, oi, cli);
+			} else if (initialValue != null) {
 				try {
 					var.set(initialValue.getVarValue(renderer, oi, cli));
 				} catch (InvalidTypecastException ite) {
@@ -462,8 +764,46 @@ public abstract class Command extends Executable {
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
 			oo.pushVariable(newVar.getName());
-			if (initialValue != null)
+			// every value assigned to a number is converted to its type
+			if (newVar.getClass() == Integer64.class
+					|| newVar.getClass() == Float64.class)
+				oo.setVariableType(newVar.getClass());
+			// the variables of an inlined body are not accessible by name
+			if (oo.isInlining())
+				newVar = newVar.getCopy(null);
+			if (initialValue == null) {
+				oo.beginAssignment();
+				oo.endAssignment(null, null, null);
+				return this;
+			}
+
+			// a reference keeps the assigned variable itself, any other
+			// variable only copies its value
+			if (newVar instanceof Reference) {
 				initialValue = initialValue.getOptimized(oo);
+				return this;
+			}
+			oo.beginAssignment();
+			initialValue = initialValue.getOptimized(oo).getReadOnly();
+			oo.endAssignment(null, null, initialValue);
+			numeric = NumberOperation.isNumber(initialValue)
+					&& (newVar.getClass() == Integer64.class
+					|| newVar.getClass() == Float64.class)
+					&& oo.isEnabled(OptimizerFeature.NUMBERS);
+			if (numeric)
+				oo.count(OptimizerFeature.NUMBERS);
+
+			if (initialValue instanceof ConstantValue) {
+				// assign the value once to find out what the variable will
+				// contain
+				try {
+					Variable var = newVar.getCopy(null);
+					var.set(initialValue.getVarValue(null, null, null));
+					oo.setInitialValue(var);
+				} catch (RuntimeException e) {
+					// an error to report when running the program
+				}
+			}
 			return this;
 		}
 	}
@@ -484,7 +824,7 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			v = v.getOptimized(oo);
+			v = v.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -511,7 +851,7 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			v = v.getOptimized(oo);
+			v = v.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -547,7 +887,7 @@ public abstract class Command extends Executable {
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
 			for (int i = 0; i < args.length; i++) {
-				args[i] = args[i].getOptimized(oo);
+				args[i] = args[i].getOptimized(oo).getReadOnly();
 			}
 			return this;
 		}
@@ -582,7 +922,7 @@ public abstract class Command extends Executable {
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
 			for (int i = 0; i < args.length; i++) {
-				args[i] = args[i].getOptimized(oo);
+				args[i] = args[i].getOptimized(oo).getReadOnly();
 			}
 			return this;
 		}
@@ -601,6 +941,9 @@ public abstract class Command extends Executable {
 			return returnValue;
 		}
 
+		public ReturnValue getReturnValue() {
+			return returnValue;
+		}
 	}
 
 	public static class ResetMatrix extends Command {
@@ -668,7 +1011,7 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			val = val.getOptimized(oo);
+			val = val.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -716,7 +1059,7 @@ public abstract class Command extends Executable {
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
 			for (int i = 0; i < args.length; i++) {
-				args[i] = args[i].getOptimized(oo);
+				args[i] = args[i].getOptimized(oo).getReadOnly();
 			}
 			return this;
 		}
@@ -743,7 +1086,7 @@ public abstract class Command extends Executable {
 
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
-			millis = millis.getOptimized(oo);
+			millis = millis.getOptimized(oo).getReadOnly();
 			return this;
 		}
 	}
@@ -824,8 +1167,11 @@ public abstract class Command extends Executable {
 		@Override
 		public Executable getOptimized(OrderOptimizer oo) {
 			for (int i = 0; i < length.length; i++)
-				length[i] = length[i].getOptimized(oo);
+				length[i] = length[i].getOptimized(oo).getReadOnly();
 			oo.pushVariable(name);
+			// the variables of an inlined body are not accessible by name
+			if (oo.isInlining())
+				name = null;
 			return this;
 		}
 	}
@@ -0,0 +1,94 @@
+package turtlepp.exec;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks that the {@link ProgramCache} hands out the same compiled program for
+ * the same source code, also to threads asking at the same time, and that a
+ * cached program runs the same every time.
+ *
+ * Usage: <code>CachedPrograms</code>. Exits with status 1 if a check fails.
+ */
+public class CachedPrograms {
+	private static final String PROGRAM = "int s = 0\n" + "repeat 4\n"
+			+ "  s = s + [square 3]\n" + "end repeat\n" + "print s\n"
+			+ "forward 20\n" + "function square x\n" + "  square = x * x\n"
+			+ "end function\n";
+
+	private static final int N_THREADS = 8;
+
+	private static int nFailed = 0;
+
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+
+		ProgramCache.clear();
+		CompiledProgram cached = ProgramCache.getProgram(PROGRAM);
+		check("same source", true, cached == ProgramCache.getProgram(PROGRAM));
+		check("other source", false,
+				cached == ProgramCache.getProgram(PROGRAM + "print 1\n"));
+		check("source", PROGRAM, cached.getSource());
+
+		Programs.Result expected = Programs.run(PROGRAM,
+				OptimizerFeature.DEFAULT_LEVEL);
+		check("first run", expected, Programs.run(cached));
+		check("second run", expected, Programs.run(cached));
+
+		// older programs are dropped
+		for (int i = 0; i < 16; i++)
+			ProgramCache.getProgram("print " + i + "\n");
+		check("dropped", false, cached == ProgramCache.getProgram(PROGRAM));
+		ProgramCache.clear();
+		check("cleared", false, cached == ProgramCache.getProgram(PROGRAM));
+
+		checkThreads();
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * lets several threads ask for a program that is not cached yet at the
+	 * same time
+	 */
+	private static void checkThreads() throws InterruptedException {
+		ProgramCache.clear();
+		final String source = PROGRAM + "print 2\n";
+		final CompiledProgram[] programs = new CompiledProgram[N_THREADS];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[N_THREADS];
+		for (int i = 0; i < N_THREADS; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					programs[index] = ProgramCache.getProgram(source);
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (int i = 0; i < N_THREADS; i++)
+			threads[i].join();
+		for (int i = 1; i < N_THREADS; i++)
+			check("thread " + i, true, programs[i] == programs[0]);
+		check("cached after threads", true,
+				programs[0] == ProgramCache.getProgram(source));
+	}
+
+	private static void check(String name, Object expected, Object actual) {
+		if (!expected.equals(actual)) {
+			System.out.println(name + ": expected " + expected + ", got "
+					+ actual);
+			nFailed++;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package turtlepp.exec;
+
+/**
+ * Compiles programs based on a previous version and checks that only what
+ * has changed is compiled again, and that the result runs the same as a
+ * program compiled from scratch.
+ *
+ * Usage: <code>ChangedSubroutines</code>. Exits with status 1 if a check
+ * fails.
+ */
+public class ChangedSubroutines {
+	private static final String MAIN = "int k = 1\n" + "first 1\n"
+			+ "second 2\n";
+
+	// recursive, so that they are not inlined
+	private static final String FIRST = "sub first n\n" + "  print k\n"
+			+ "  if n > 0\n" + "    first n - 1\n" + "  end if\n"
+			+ "end sub\n";
+
+	private static final String SECOND = "sub second n\n"
+			+ "  print n * 2\n" + "  if n > 2\n" + "    second n - 1\n"
+			+ "  end if\n" + "end sub\n";
+
+	private static final String SPARE = "sub spare\n" + "  print 0\n"
+			+ "end sub\n";
+
+	private static int nFailed = 0;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		CompiledProgram previous = compile(MAIN + FIRST + SECOND + SPARE,
+				null);
+
+		// a subroutine that is not called does not affect the others
+		CompiledProgram spare = compile(MAIN + FIRST + SECOND + "sub spare\n"
+				+ "  print 1\n" + "end sub\n", previous);
+		check("main reused", true, spare.getCode() == previous.getCode());
+		check("first reused", true, isSame("first", previous, spare));
+		check("second reused", true, isSame("second", previous, spare));
+
+		// only the changed subroutine and its callers are compiled again
+		CompiledProgram changed = compile(MAIN + FIRST
+				+ SECOND.replace("n * 2", "n * 3") + SPARE, previous);
+		check("main compiled", false, changed.getCode() == previous.getCode());
+		check("first kept", true, isSame("first", previous, changed));
+		check("second compiled", false, isSame("second", previous, changed));
+
+		// a subroutine moved to other lines reports its errors there
+		CompiledProgram moved = compile(MAIN + SECOND + FIRST + SPARE,
+				previous);
+		check("first moved", false, isSame("first", previous, moved));
+
+		// the changed variable may have been folded into the subroutine
+		compile(MAIN.replace("k = 1", "k = 5") + FIRST + SECOND + SPARE,
+				previous);
+		compile("first 1\n" + "second 2\n" + FIRST + SECOND + SPARE,
+				previous);
+
+		// the calls of a reused body have to reach the new subroutine
+		compile(MAIN + FIRST + SECOND + "sub second n m\n"
+				+ "  print n * m\n" + "end sub\n", previous);
+
+		// nothing is taken over from another optimization level
+		CompiledProgram level = new CompiledProgram(new Parser(MAIN + FIRST
+				+ SECOND + SPARE, 0), MAIN + FIRST + SECOND + SPARE, previous,
+				OptimizerFeature.MIN_LEVEL, false);
+		check("level", false, isSame("first", previous, level));
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * compiles and runs a program based on a previous version and checks
+	 * that it runs the same as the program compiled from scratch
+	 */
+	private static CompiledProgram compile(String source,
+			CompiledProgram previous) {
+		CompiledProgram program = new CompiledProgram(source, previous);
+		Programs.Result expected = Programs.run(new CompiledProgram(source));
+		Programs.Result actual = Programs.run(program);
+		if (!actual.equals(expected)) {
+			System.out.println(actual + " instead of " + expected + " in:\n"
+					+ source);
+			nFailed++;
+		}
+		return program;
+	}
+
+	/**
+	 * @return <code>true</code> if both programs share the compiled
+	 *         subroutine
+	 */
+	private static boolean isSame(String name, CompiledProgram a,
+			CompiledProgram b) {
+		return a.getSubroutine(name, 1) == b.getSubroutine(name, 1);
+	}
+
+	private static void check(String name, Object expected, Object actual) {
+		if (!expected.equals(actual)) {
+			System.out.println(name + ": expected " + expected + ", got "
+					+ actual);
+			nFailed++;
+		}
+	}
+}
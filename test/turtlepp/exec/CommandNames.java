@@ -0,0 +1,86 @@
+package turtlepp.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import turtlepp.HeadlessRunner;
+import turtlepp.exec.fast.Command;
+
+/**
+ * Checks that variables named like a keyword can be declared and assigned,
+ * and that the keyword still works as a command.
+ *
+ * Usage: <code>CommandNames</code>. Exits with status 1 if a check fails.
+ */
+public class CommandNames {
+	private static int nFailed = 0;
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		expect("int polygon = 1", Command.NewVariable.class);
+		expect("polygon = 3", Command.Set.class);
+		expect("polygon += 2", Command.Add.class);
+		expect("polygon ^= 2", Command.Pow.class);
+		expect("clear = 3", Command.Set.class);
+		expect("polygon 0 0 10 0 10 10", Command.Polygon.class);
+		expect("polygon", Command.Polygon.class);
+
+		expectOutput("int polygon = 1\n" + "polygon = 3\n"
+				+ "polygon += 2\n" + "float line = 0.5\n" + "line *= 4\n"
+				+ "print polygon line\n" + "polygon 0 0 10 0 10 10\n",
+				"5, 2.0");
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * compiles a line and checks the class of the command
+	 */
+	private static void expect(String line, Class<?> expected) {
+		Executable command = Compiler.compile(line, new CodeLocationInfo(0));
+		if (command.getClass() != expected) {
+			System.out.println("\"" + line + "\": expected "
+					+ expected.getSimpleName() + ", got "
+					+ command.getClass().getSimpleName());
+			nFailed++;
+		}
+	}
+
+	/**
+	 * runs a program and checks what it prints
+	 */
+	private static void expectOutput(String program, String expected)
+			throws IOException {
+		Path file = Files.createTempFile("commandNames", ".txt");
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		try {
+			Files.write(file, program.getBytes(StandardCharsets.UTF_8));
+			System.setOut(new PrintStream(printed, true, "UTF-8"));
+			HeadlessRunner.run(file, 100, 100);
+		} catch (RuntimeException e) {
+			System.setOut(out);
+			System.out.println("program failed: " + e.getMessage());
+			nFailed++;
+			return;
+		} finally {
+			System.setOut(out);
+			Files.delete(file);
+		}
+		String actual = new String(printed.toByteArray(), "UTF-8").trim();
+		if (!actual.equals(expected)) {
+			System.out.println("program printed \"" + actual
+					+ "\", expected \"" + expected + "\"");
+			nFailed++;
+		}
+	}
+}
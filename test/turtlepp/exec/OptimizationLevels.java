@@ -0,0 +1,53 @@
+package turtlepp.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Runs every program in a directory without a window at every optimization
+ * level and checks that it prints and draws the same as without any
+ * optimization.
+ *
+ * Usage: <code>OptimizationLevels [directory]</code>; the directory defaults
+ * to the bundled examples. Exits with status 1 if a check fails.
+ */
+public class OptimizationLevels {
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		File directory = new File(args.length > 0 ? args[0]
+				: "src/turtlepp/examples");
+		File[] files = directory.listFiles();
+		if (files == null) {
+			System.err.println("no such directory: " + directory);
+			System.exit(2);
+		}
+		Arrays.sort(files);
+
+		int nPrograms = 0;
+		int nFailed = 0;
+		for (File file : files) {
+			if (!file.getName().endsWith(".txt"))
+				continue;
+			String source = Programs.read(file.toPath());
+			if (Programs.isRandom(source))
+				continue;
+			Programs.Result expected = Programs.run(source,
+					OptimizerFeature.MIN_LEVEL);
+			for (int level = OptimizerFeature.MIN_LEVEL + 1; level <= OptimizerFeature.MAX_LEVEL; level++) {
+				Programs.Result actual = Programs.run(source, level);
+				if (!actual.equals(expected)) {
+					System.out.println(file.getName() + " at -O" + level
+							+ ": " + actual + " instead of " + expected);
+					nFailed++;
+				}
+			}
+			nPrograms++;
+		}
+
+		System.out.println(nPrograms + " programs compared, " + nFailed
+				+ " different");
+		if (nFailed > 0)
+			System.exit(1);
+	}
+}
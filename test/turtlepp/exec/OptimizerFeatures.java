@@ -0,0 +1,184 @@
+package turtlepp.exec;
+
+/**
+ * Runs small programs that the features of the optimizer change, and checks
+ * that they print the same at every optimization level. At the highest level,
+ * the feature a program is written for has to change it, so that the check
+ * does not pass just because the code has been left alone.
+ *
+ * Usage: <code>OptimizerFeatures</code>. Exits with status 1 if a check
+ * fails.
+ */
+public class OptimizerFeatures {
+	private static int nFailed = 0;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		expect(OptimizerFeature.FOLDING, "int k = 3\n" + "print k * 2 + 1\n",
+				"7\n");
+		// a variable changed through a reference is not a constant
+		expect(OptimizerFeature.FOLDING, "int x = 1\n" + "ref r = x\n"
+				+ "bump r\n" + "print x * 2\n" + "print 2 + 3\n"
+				+ "sub bump p\n" + "  p = p + 1\n" + "end sub\n", "4\n5\n");
+		expect(OptimizerFeature.FOLDING, "int k = 3\n" + "change\n"
+				+ "print k + 1\n" + "print 2 * 4\n" + "sub change\n"
+				+ "  k = 4\n" + "end sub\n", "5\n8\n");
+
+		// only the first loop is left alone by the called subroutines
+		expect(OptimizerFeature.HOISTING, "int k = 2\n" + "k = k + 1\n"
+				+ "int s = 0\n" + "repeat 2\n" + "  s = s + k * k\n"
+				+ "end repeat\n" + "int i = 0\n" + "while i < 3\n"
+				+ "  s = s + k * k\n" + "  grow 0\n" + "  i = i + 1\n"
+				+ "end while\n" + "print s\n" + "sub grow n\n"
+				+ "  k = k + 1\n" + "  if n > 0\n" + "    grow n - 1\n"
+				+ "  end if\n" + "end sub\n", "68\n");
+		expect(OptimizerFeature.HOISTING, "int k = 2\n" + "k = k + 1\n"
+				+ "ref r = k\n" + "int s = 0\n" + "repeat 2\n"
+				+ "  s = s + k * 3\n" + "end repeat\n" + "repeat 3\n"
+				+ "  s = s + k * 3\n" + "  bump r 0\n" + "end repeat\n"
+				+ "print s\n" + "sub bump p n\n" + "  p = p + 1\n"
+				+ "  if n > 0\n" + "    bump p n - 1\n" + "  end if\n"
+				+ "end sub\n", "54\n");
+		// the inlined body changes the value in the loop
+		expect(OptimizerFeature.INLINING, "int k = 2\n" + "k = k + 1\n"
+				+ "int s = 0\n" + "int i = 0\n" + "while i < 3\n"
+				+ "  s = s + k * k\n" + "  grow\n" + "  i = i + 1\n"
+				+ "end while\n" + "print s\n" + "sub grow\n"
+				+ "  k = k + 1\n" + "end sub\n", "50\n");
+
+		// the return value is a copy of the argument, not the argument
+		expect(OptimizerFeature.INLINING, "function same x\n"
+				+ "  same = x\n" + "end function\n" + "int a = 1\n"
+				+ "a = a + 0\n" + "int b = [same a]\n" + "b = b + 1\n"
+				+ "print a\n" + "print b\n" + "ref r = a\n"
+				+ "int c = [same r]\n" + "c = c + 5\n" + "print a\n"
+				+ "print c\n", "1\n2\n1\n6\n");
+		expect(OptimizerFeature.INLINING, "function inc x\n"
+				+ "  x = x + 1\n" + "  inc = x\n" + "end function\n"
+				+ "int a = 1\n" + "a = a + 0\n" + "print [inc a]\n"
+				+ "print a\n", "2\n1\n");
+
+		expect(OptimizerFeature.DEAD_CODE, "print 1\n" + "if 1 > 2\n"
+				+ "  print 2\n" + "else\n" + "  print 5\n" + "end if\n"
+				+ "repeat 2\n" + "  print 3\n" + "  exit repeat\n"
+				+ "  print 4\n" + "end repeat\n" + "while 2 < 1\n"
+				+ "  print 6\n" + "end while\n" + "stop 7\n" + "sub stop n\n"
+				+ "  print n\n" + "  exit sub\n" + "  print 8\n" + "end sub\n",
+				"1\n5\n3\n7\n");
+
+		// the subroutine and the assignment change the subexpressions
+		expect(OptimizerFeature.COMMON_SUBEXPRESSIONS, "int a = 2\n"
+				+ "a = a + 1\n" + "print (a + 1) * (a + 1)\n"
+				+ "print a * 2 + a * 2\n" + "change 0\n"
+				+ "print a * 2 + a * 2\n" + "a = a + 1\n"
+				+ "print a * 2 + a * 2\n" + "sub change n\n" + "  a = 10\n"
+				+ "  if n > 0\n" + "    change n - 1\n" + "  end if\n"
+				+ "end sub\n", "16\n12\n40\n44\n");
+
+		expect(OptimizerFeature.TAIL_CALLS, "sub ping n\n"
+				+ "  int v = n * 2\n" + "  if n > 0\n" + "    pong v\n"
+				+ "    exit sub\n" + "  end if\n" + "  print v\n"
+				+ "end sub\n" + "sub pong m\n" + "  print m\n"
+				+ "  ping m / 2 - 1\n" + "end sub\n" + "ping 3\n"
+				+ "sub count n\n" + "  repeat 2\n" + "    if n > 0\n"
+				+ "      count n - 1\n" + "      exit sub\n"
+				+ "    end if\n" + "  end repeat\n" + "  print n\n"
+				+ "end sub\n" + "count 2\n", "6\n4\n2\n0\n0\n");
+		// too deep for the stack without tail calls
+		expect(OptimizerFeature.TAIL_CALLS, "int depth = 0\n"
+				+ "sub down n\n" + "  if n > 0\n"
+				+ "    depth = depth + 1\n" + "    down n - 1\n"
+				+ "    exit sub\n" + "  end if\n" + "  print depth\n"
+				+ "end sub\n" + "down 100000\n", "100000\n",
+				OptimizerFeature.TAIL_CALLS.getLevel());
+
+		// only the first function is pure; the others change or read a
+		// global variable
+		expect(OptimizerFeature.MEMOIZATION, "function fib n\n"
+				+ "  if n < 2\n" + "    fib = n\n" + "    exit function\n"
+				+ "  end if\n" + "  fib = [fib n - 1] + [fib n - 2]\n"
+				+ "end function\n" + "print [fib 20]\n" + "int calls = 0\n"
+				+ "function next x\n" + "  calls = calls + 1\n"
+				+ "  next = x + calls\n" + "end function\n"
+				+ "print [next 1]\n" + "print [next 1]\n" + "int base = 1\n"
+				+ "function plus x\n" + "  plus = x + base\n"
+				+ "  if x > 5\n" + "    plus = [plus x - 1]\n" + "  end if\n"
+				+ "end function\n" + "print [plus 7]\n" + "base = 5\n"
+				+ "print [plus 7]\n", "6765\n2\n3\n6\n10\n");
+
+		expect(OptimizerFeature.UNROLLING, "int s = 0\n" + "repeat 5\n"
+				+ "  s = s + 2\n" + "end repeat\n" + "print s\n"
+				+ "int n = 7\n" + "n = n + 3\n" + "repeat n\n"
+				+ "  s = s + 1\n" + "  if s > 16\n" + "    exit repeat\n"
+				+ "  end if\n" + "end repeat\n" + "print s\n" + "repeat n\n"
+				+ "  s = s + 1\n" + "end repeat\n" + "print s\n"
+				+ "n = 0 - 2\n" + "repeat n\n" + "  s = 0\n" + "end repeat\n"
+				+ "repeat 3\n" + "  repeat 2\n" + "    s = s * 2\n"
+				+ "  end repeat\n" + "end repeat\n" + "print s\n",
+				"10\n17\n27\n1728\n");
+
+		// integer powers are computed with doubles, so they saturate and
+		// are rounded where a product would overflow or be exact
+		expect(OptimizerFeature.STRENGTH_REDUCTION, "int b = 3\n"
+				+ "b = b + 0\n" + "print b ^ 2\n" + "print b ^ 3\n"
+				+ "print b ^ -1\n" + "print b ^ 0\n" + "int big = 3037000500\n"
+				+ "big = big + 0\n" + "print big ^ 2\n"
+				+ "print (0 - big) ^ 3\n" + "big = big - 1\n"
+				+ "print big ^ 2\n" + "int half = 2 ^ 62\n"
+				+ "half = half + 0\n" + "print half * 2\n"
+				+ "print 2 * half\n" + "int m = 0 - 7\n" + "m = m + 0\n"
+				+ "print m / 4\n" + "print m / 2\n" + "float f = 10\n"
+				+ "f = f + 0\n" + "print f / 4\n" + "print f ^ 2\n"
+				+ "print f * 2\n", "9\n27\n0\n1\n9223372036854775807\n"
+				+ "-9223372036854775808\n9223372030926248960\n"
+				+ "-9223372036854775808\n-9223372036854775808\n-1\n-3\n"
+				+ "2.5\n100.0\n20.0\n");
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * runs a program at every optimization level and checks what it prints
+	 *
+	 * @param feature
+	 *            the feature that has to change the program at the highest
+	 *            level
+	 */
+	private static void expect(OptimizerFeature feature, String source,
+			String expected) {
+		expect(feature, source, expected, OptimizerFeature.MIN_LEVEL);
+	}
+
+	/**
+	 * runs a program at the optimization levels from a level on and checks
+	 * what it prints
+	 *
+	 * @param feature
+	 *            the feature that has to change the program at the highest
+	 *            level
+	 * @param from
+	 *            the lowest level to run the program at
+	 */
+	private static void expect(OptimizerFeature feature, String source,
+			String expected, int from) {
+		for (int level = from; level <= OptimizerFeature.MAX_LEVEL; level++) {
+			CompiledProgram program = new CompiledProgram(source, level);
+			String actual = Programs.run(program).output;
+			if (!actual.equals(expected)) {
+				System.out.println("-O" + level + " printed \"" + actual
+						+ "\" instead of \"" + expected + "\" in:\n" + source);
+				nFailed++;
+			}
+			if (level == OptimizerFeature.MAX_LEVEL
+					&& program.getStatistics().getFeatureNodes(feature) == 0) {
+				System.out.println(feature + " has not changed:\n" + source);
+				nFailed++;
+			}
+		}
+	}
+}
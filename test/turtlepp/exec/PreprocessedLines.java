@@ -0,0 +1,89 @@
+package turtlepp.exec;
+
+import java.util.Arrays;
+
+import turtlepp.InterpreterException;
+
+/**
+ * Checks the lines the {@link Preprocessor} splits source code into and the
+ * source lines they are mapped to, and that errors are reported in the line
+ * of the source code.
+ *
+ * Usage: <code>PreprocessedLines</code>. Exits with status 1 if a check
+ * fails.
+ */
+public class PreprocessedLines {
+	private static int nFailed = 0;
+
+	public static void main(String[] args) {
+		// the last line break is followed by an empty line
+		expect("print 1 // a comment\n" + "\n" + "  print \"a // b\"\n",
+				new String[] { "print 1", "", "print \"a // b\"", "" }, 0, 1,
+				2, 3);
+		expect("print \"a \\\" // b\" // c\n" + "char c = '/' // d",
+				new String[] { "print \"a \\\" // b\"", "char c = '/'" }, 0,
+				1);
+		expect("print 1 + _\n" + "  2\n" + "print 3", new String[] {
+				"print 1 +   2", "print 3" }, 0, 2);
+		// blank lines and comments may follow a continued line
+		expect("print 1 + _ // e\n" + "\n" + "  2 _\n" + "  + 3\n" + "print 4",
+				new String[] { "print 1 +   2   + 3", "print 4" }, 0, 4);
+		// an underscore is only a continuation after a space
+		expect("print a_\n" + "print \"_\"", new String[] { "print a_",
+				"print \"_\"" }, 0, 1);
+		expect("print 1 _", new String[] { "print 1" }, 0);
+
+		expectError("print 1 + _\n" + "  2\n" + "\n" + "print 3 *\n", 4);
+		expectError("// a comment\n" + "print _\n" + "  3 +\n", 2);
+		expectError("sub s\n" + "  print _\n" + "    1\n" + "  print 2 -\n"
+				+ "end sub\n", 4);
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * preprocesses code and checks the lines and their line numbers
+	 */
+	private static void expect(String code, String[] lines,
+			int... lineNumbers) {
+		Preprocessor preprocessor = new Preprocessor(code);
+		String[] actualLines = preprocessor.getLines();
+		int[] actualNumbers = preprocessor.getLineNumbers();
+		if (!Arrays.equals(lines, actualLines)
+				|| !Arrays.equals(lineNumbers, actualNumbers)) {
+			System.out.println("expected " + Arrays.toString(lines) + " "
+					+ Arrays.toString(lineNumbers) + ", got "
+					+ Arrays.toString(actualLines) + " "
+					+ Arrays.toString(actualNumbers) + " for:\n" + code);
+			nFailed++;
+		}
+	}
+
+	/**
+	 * compiles a program that must fail to compile
+	 *
+	 * @param line
+	 *            the line of the source code the error must be reported in,
+	 *            starting at 1
+	 */
+	private static void expectError(String source, int line) {
+		try {
+			new CompiledProgram(source);
+			System.out.println("no error in:\n" + source);
+			nFailed++;
+		} catch (InterpreterException ie) {
+			CodeLocationInfo cli = ie.getCodeLocationInfo();
+			int reported = cli != null ? cli.getLineNumber() + 1 : -1;
+			if (reported != line) {
+				System.out.println("error \"" + ie.getMessage()
+						+ "\" reported in line " + reported + " instead of "
+						+ line + " in:\n" + source);
+				nFailed++;
+			}
+		}
+	}
+}
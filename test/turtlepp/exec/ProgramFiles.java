@@ -0,0 +1,99 @@
+package turtlepp.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes every program in a directory as a precompiled program, loads it
+ * again and checks that it prints and draws the same as the source code, at
+ * the lowest and the highest optimization level. Errors must be reported in
+ * the same lines as well.
+ *
+ * Usage: <code>ProgramFiles [directory]</code>; the directory defaults to the
+ * bundled examples. Exits with status 1 if a check fails.
+ */
+public class ProgramFiles {
+	private static final int[] LEVELS = { OptimizerFeature.MIN_LEVEL,
+			OptimizerFeature.MAX_LEVEL };
+
+	private static int nFailed = 0;
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		File directory = new File(args.length > 0 ? args[0]
+				: "src/turtlepp/examples");
+		File[] files = directory.listFiles();
+		if (files == null) {
+			System.err.println("no such directory: " + directory);
+			System.exit(2);
+		}
+		Arrays.sort(files);
+
+		int nPrograms = 0;
+		for (File file : files) {
+			if (!file.getName().endsWith(".txt"))
+				continue;
+			String source = Programs.read(file.toPath());
+			if (Programs.isRandom(source))
+				continue;
+			check(file.getName(), source);
+			nPrograms++;
+		}
+		check("subroutine error", "sub fail n\n" + "  print n\n"
+				+ "  print {n 1}\n" + "end sub\n" + "\n" + "fail 3\n");
+		check("line continuation", "print 1 + _\n" + "  2\n"
+				+ "print [sqrt -1]\n");
+		checkInvalid();
+
+		System.out.println(nPrograms + " programs compared, " + nFailed
+				+ " different");
+		if (nFailed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * runs a program from the source code and from a precompiled file
+	 */
+	private static void check(String name, String source) throws IOException {
+		Path file = Files.createTempFile("programFiles",
+				ProgramFile.EXTENSION);
+		try {
+			ProgramFile.write(source, file);
+			for (int level : LEVELS) {
+				Programs.Result expected = Programs.run(source, level);
+				Programs.Result actual = Programs.run(ProgramFile.load(file,
+						level));
+				if (!actual.equals(expected)) {
+					System.out.println(name + " at -O" + level + ": "
+							+ actual + " instead of " + expected);
+					nFailed++;
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * checks that a damaged file is not loaded
+	 */
+	private static void checkInvalid() throws IOException {
+		Path file = Files.createTempFile("programFiles",
+				ProgramFile.EXTENSION);
+		try {
+			ProgramFile.write("print 1\n", file);
+			byte[] bytes = Files.readAllBytes(file);
+			Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+			ProgramFile.load(file);
+			System.out.println("a truncated file has been loaded");
+			nFailed++;
+		} catch (IOException e) {
+			// expected
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package turtlepp.exec;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import turtlepp.ConsolePanel;
+import turtlepp.InterpreterException;
+import turtlepp.LogoRenderer2D;
+
+/**
+ * Runs programs without opening any window, for the checks in this directory.
+ */
+final class Programs {
+	static final int WIDTH = 320;
+	static final int HEIGHT = 240;
+
+	/**
+	 * the lines read by the programs, in this order; an empty line after
+	 * them. The first one is a program for the brainfuck example.
+	 */
+	private static final String[] INPUT = { "++++++++[>++++++++<-]>+.+.", "6" };
+
+	/**
+	 * What a program has printed and drawn.
+	 */
+	static final class Result {
+		/**
+		 * the printed lines, including the errors
+		 */
+		final String output;
+
+		/**
+		 * a hash of the pixels of the image
+		 */
+		final int image;
+
+		Result(String output, int image) {
+			this.output = output;
+			this.image = image;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Result))
+				return false;
+			Result other = (Result) obj;
+			return output.equals(other.output) && image == other.image;
+		}
+
+		@Override
+		public int hashCode() {
+			return output.hashCode() * 31 + image;
+		}
+
+		@Override
+		public String toString() {
+			return "\"" + output.trim().replace("\n", "\\n") + "\", image "
+					+ Integer.toHexString(image);
+		}
+	}
+
+	/**
+	 * console keeping everything printed
+	 */
+	private static class RecordingConsole extends ConsolePanel {
+		private static final long serialVersionUID = -1526838740372947129L;
+
+		private final StringBuilder output = new StringBuilder();
+		private int nRead = 0;
+
+		@Override
+		public void printLine(String str) {
+			output.append(str).append('\n');
+		}
+
+		@Override
+		public void print(String str) {
+			output.append(str).append('\n');
+		}
+
+		@Override
+		public void printErrLine(String errStr) {
+			output.append("error: ").append(errStr).append('\n');
+		}
+
+		@Override
+		public String popInputString() {
+			return nRead < INPUT.length ? INPUT[nRead++] : "";
+		}
+
+		@Override
+		public void clear() {
+		}
+	}
+
+	private Programs() {
+	}
+
+	/**
+	 * compiles and runs a program
+	 *
+	 * @param source
+	 *            the program code
+	 * @param level
+	 *            the optimization level
+	 */
+	static Result run(String source, int level) {
+		return run(new CompiledProgram(source, level));
+	}
+
+	/**
+	 * runs a compiled program. Errors at runtime are part of the output.
+	 */
+	static Result run(CompiledProgram program) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		LogoRenderer2D renderer = new LogoRenderer2D(null);
+		RecordingConsole console = new RecordingConsole();
+		renderer.setOutputPanel(console);
+		renderer.setImage(image);
+		renderer.reset();
+
+		try {
+			new OrderInterpreter(program).run(renderer);
+		} catch (InterpreterException ie) {
+			CodeLocationInfo cli = ie.getCodeLocationInfo();
+			console.output.append("error");
+			if (cli != null)
+				console.output.append(" in line ").append(
+						cli.getLineNumber() + 1);
+			console.output.append(": ").append(ie.getMessage()).append('\n');
+		}
+		int[] pixels = image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+		return new Result(console.output.toString(), Arrays.hashCode(pixels));
+	}
+
+	/**
+	 * @return the code of a program file
+	 */
+	static String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return <code>true</code> if a program draws or prints something
+	 *         different on every run
+	 */
+	static boolean isRandom(String source) {
+		return source.toLowerCase().contains("[rand");
+	}
+}
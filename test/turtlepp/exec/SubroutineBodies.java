@@ -0,0 +1,102 @@
+package turtlepp.exec;
+
+import turtlepp.InterpreterException;
+
+/**
+ * Checks that errors in the bodies of subroutines are reported when the
+ * program is compiled, even though the bodies are only built when they are
+ * run, and that bodies that are run behave the same at every optimization
+ * level.
+ *
+ * Usage: <code>SubroutineBodies</code>. Exits with status 1 if a check fails.
+ */
+public class SubroutineBodies {
+	private static int nFailed = 0;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		expectError("print 1\n" + "sub unused\n" + "  int a = 1\n"
+				+ "  a = a +\n" + "end sub\n", 4);
+		expectError("function unused n\n" + "  repeat n\n"
+				+ "    if n > 2\n" + "      unused = n *\n" + "    end if\n"
+				+ "  end repeat\n" + "end function\n" + "print 2\n", 4);
+		expectError("sub unused\n" + "  if true\n" + "  else print 3\n"
+				+ "  end if\n" + "end sub\n", 3);
+		expectError("sub unused\n" + "  while true\n" + "    print 1 +\n"
+				+ "  end while\n" + "end sub\n", 3);
+		// large enough to be compiled in parallel; the first error in the
+		// code is reported
+		expectError("sub a\n" + lines(20) + "  print 1 +\n" + "end sub\n"
+				+ "sub b\n" + "  print 2 *\n" + lines(20) + "end sub\n", 22);
+		expectError("print 3 -\n" + "sub a\n" + lines(20)
+				+ "  print 1 +\n" + "end sub\n" + "sub b\n" + lines(20)
+				+ "end sub\n", 1);
+
+		expectOutput("sub twice n\n" + "  repeat 2\n"
+				+ "    if n > 1\n" + "      print n\n" + "    else\n"
+				+ "      print 0\n" + "    end if\n" + "  end repeat\n"
+				+ "end sub\n" + "twice 1\n" + "twice 2\n", "0\n0\n2\n2\n");
+		// inlined into the main block and into a subroutine from -O2 on
+		expectOutput("function square x\n" + "  square = x * x\n"
+				+ "end function\n" + "sub show x\n" + "  print [square x]\n"
+				+ "end sub\n" + "print [square 3] + [square 4]\n" + "show 5\n",
+				"25\n25\n");
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * @return <code>n</code> lines that can be part of any body
+	 */
+	private static String lines(int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++)
+			sb.append("  forward ").append(i).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * compiles a program that must fail to compile
+	 *
+	 * @param line
+	 *            the line the error must be reported in, starting at 1
+	 */
+	private static void expectError(String source, int line) {
+		for (int level = OptimizerFeature.MIN_LEVEL; level <= OptimizerFeature.MAX_LEVEL; level++) {
+			try {
+				new CompiledProgram(source, level);
+				System.out.println("no error at -O" + level + " in:\n"
+						+ source);
+				nFailed++;
+			} catch (InterpreterException ie) {
+				CodeLocationInfo cli = ie.getCodeLocationInfo();
+				int reported = cli != null ? cli.getLineNumber() + 1 : -1;
+				if (reported != line) {
+					System.out.println("error \"" + ie.getMessage()
+							+ "\" reported in line " + reported
+							+ " instead of " + line + " in:\n" + source);
+					nFailed++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * runs a program at every optimization level and checks what it prints
+	 */
+	private static void expectOutput(String source, String expected) {
+		for (int level = OptimizerFeature.MIN_LEVEL; level <= OptimizerFeature.MAX_LEVEL; level++) {
+			String actual = Programs.run(source, level).output;
+			if (!actual.equals(expected)) {
+				System.out.println("-O" + level + " printed \"" + actual
+						+ "\" instead of \"" + expected + "\" in:\n" + source);
+				nFailed++;
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package turtlepp.exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the tokens of {@link Tokenizer.Lexer} with the ones of the regex
+ * based lexer it replaced, line by line, on every program in a directory.
+ * Lines that the old lexer got wrong are not compared: a word directly
+ * followed by a literal, which the old lexer emitted after the literal, and
+ * a char literal followed by another character, which it dropped.
+ *
+ * Usage: <code>TokenizerParity [directory]</code>; the directory defaults to
+ * the bundled examples. Exits with status 1 if any line differs.
+ */
+public class TokenizerParity {
+	public static void main(String[] args) throws IOException {
+		File directory = new File(args.length > 0 ? args[0]
+				: "src/turtlepp/examples");
+		File[] files = directory.listFiles();
+		if (files == null) {
+			System.err.println("no such directory: " + directory);
+			System.exit(2);
+		}
+		Arrays.sort(files);
+
+		int nLines = 0;
+		int nSkipped = 0;
+		int nDifferent = 0;
+		for (File file : files) {
+			if (!file.getName().endsWith(".txt"))
+				continue;
+			String code = new String(Files.readAllBytes(file.toPath()),
+					StandardCharsets.UTF_8);
+			String[] lines = getLines(code);
+			for (int i = 0; i < lines.length; i++) {
+				if (hasOldQuirk(lines[i])) {
+					nSkipped++;
+					continue;
+				}
+				nLines++;
+				String expected = lex(lines[i], true);
+				String actual = lex(lines[i], false);
+				if (!expected.equals(actual)) {
+					nDifferent++;
+					System.out.println(file.getName() + ":" + (i + 1));
+					System.out.println("  old: " + expected);
+					System.out.println("  new: " + actual);
+				}
+			}
+		}
+		System.out.println(nLines + " lines compared, " + nSkipped
+				+ " skipped, " + nDifferent + " different");
+		if (nDifferent > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * @return the tokens of a line or the message of the exception thrown
+	 */
+	private static String lex(String line, boolean old) {
+		try {
+			String[] tokens = old ? new RegexLexer(line).getTokens()
+					: new Tokenizer.Lexer(line).getTokens();
+			return Arrays.toString(tokens);
+		} catch (ParserException pe) {
+			return "error: " + pe.getMessage();
+		}
+	}
+
+	/**
+	 * splits a program into lines as the old tokenizer did
+	 */
+	private static String[] getLines(String code) {
+		code = code.replaceAll("\\s_\\n", " ");
+		String[] splits = code.split("\\n");
+		for (int i = 0; i < splits.length; i++)
+			splits[i] = splits[i].trim();
+		return splits;
+	}
+
+	/**
+	 * @return <code>true</code> if the line has a literal the old lexer did
+	 *         not read correctly
+	 */
+	private static boolean hasOldQuirk(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			char chr = line.charAt(i);
+			if ((chr == '\'' || chr == '"') && i > 0
+					&& !Character.isWhitespace(line.charAt(i - 1))
+					&& RegexLexer.delimitterChars.indexOf(line.charAt(i - 1)) == -1)
+				return true;
+			if (chr == '\'') {
+				if (i + 3 < line.length()
+						&& !Character.isWhitespace(line.charAt(i + 3)))
+					return true;
+				i += 2;
+			} else if (chr == '"') {
+				int end = line.indexOf('"', i + 1);
+				while (end != -1 && isEscaped(line, end))
+					end = line.indexOf('"', end + 1);
+				if (end == -1)
+					return false;
+				i = end;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isEscaped(String line, int index) {
+		int backslashes = 0;
+		while (index - backslashes - 1 >= 0
+				&& line.charAt(index - backslashes - 1) == '\\')
+			backslashes++;
+		return (backslashes & 0x01) != 0;
+	}
+
+	/**
+	 * The lexer as it was before it was replaced by a single pass scanner.
+	 */
+	private static class RegexLexer {
+		private String code;
+		private ArrayList<String> tokens;
+
+		/**
+		 * tokens that match these regular expressions get a separate token
+		 */
+		protected static final String[] delimitters = new String[] { "\\+",
+				"\\-", "\\*", "=", "/", "\\^", "\\-\\[", "\\-\\(", "\\-\\{",
+				"\\[", "\\]", "\\(", "\\)", "\\{", "\\}" };
+
+		/**
+		 * the characters starting one of the {@link #delimitters}
+		 */
+		static final String delimitterChars = "+-*=/^[](){}";
+
+		private static Pattern regexDelim;
+		static {
+			String regex = "";
+			for (int i = 0; i < delimitters.length; i++) {
+				String delim = delimitters[i];
+				regex += delim + ".*" + (i < delimitters.length - 1 ? "|" : "");
+			}
+			regexDelim = Pattern.compile(regex);
+		}
+
+		RegexLexer(String code) {
+			this.code = code;
+			this.lex();
+		}
+
+		protected void lex() {
+			tokens = new ArrayList<String>();
+
+			String current = "";
+			String left = code;
+			for (int i = 0; i < code.length(); i++) {
+				char chr = code.charAt(i);
+				left = code.substring(i);
+				if (regexDelim.matcher(left).matches()) {
+					if (!current.isEmpty()) {
+						tokens.add(current);
+						current = "";
+					}
+					tokens.add(new String(new char[] { chr }));
+				} else if (Character.isWhitespace(chr)) {
+					if (!current.isEmpty()) {
+						tokens.add(current);
+						current = "";
+					}
+				} else if (chr == '\'') {
+					int j = i + 2;
+					if (j >= code.length()) {
+						throw new ParserException("\' without matching \'");
+					}
+					String content = code.substring(i, i + 3);
+					tokens.add(content);
+					i = j + 1;
+				} else if (chr == '"') {
+					int j = i + 1;
+
+					if (j >= code.length()) {
+						throw new ParserException("\" without matching \"");
+					}
+
+					char chr2 = code.charAt(j);
+					int backslashes = 0;
+					while (chr2 != '"' || (backslashes & 0x01) != 0) {
+						if (chr2 == '\\')
+							backslashes++;
+						else
+							backslashes = 0;
+
+						j++;
+						if (j >= code.length()) {
+							throw new ParserException("\" without matching \"");
+						}
+						chr2 = code.charAt(j);
+					}
+					j++;
+					String content = code.substring(i, j);
+					tokens.add(content);
+					i = j - 1;
+				} else {
+					current += chr;
+				}
+			}
+			if (!current.isEmpty()) {
+				tokens.add(current);
+			}
+		}
+
+		String[] getTokens() {
+			return tokens.toArray(new String[] {});
+		}
+	}
+}
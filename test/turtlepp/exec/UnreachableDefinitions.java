@@ -0,0 +1,70 @@
+package turtlepp.exec;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks which subroutines and functions are found to be unreachable, that
+ * they are removed only if asked to and that removing them does not change
+ * what the program does.
+ *
+ * Usage: <code>UnreachableDefinitions</code>. Exits with status 1 if a check
+ * fails.
+ */
+public class UnreachableDefinitions {
+	private static final String PROGRAM = "int spare = 2\n" + "used\n"
+			+ "print spare\n" + "sub used\n" + "  helper 2\n" + "end sub\n"
+			+ "sub helper n\n" + "  print [twice n]\n" + "end sub\n"
+			+ "function twice n\n" + "  twice = 2 * n\n" + "end function\n"
+			+ "sub unused\n" + "  lonely\n" + "end sub\n" + "sub lonely\n"
+			+ "  print 9\n" + "end sub\n" + "sub spare\n" + "  print 8\n"
+			+ "end sub\n" + "sub draw\n" + "  forward 1\n" + "end sub\n";
+
+	private static int nFailed = 0;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		CompiledProgram kept = new CompiledProgram(PROGRAM,
+				OptimizerFeature.MAX_LEVEL);
+		CompiledProgram removed = new CompiledProgram(PROGRAM,
+				OptimizerFeature.MAX_LEVEL, true);
+
+		List<String> unreachable = Arrays.asList("unused", "lonely");
+		check("unreachable definitions", unreachable, kept.getStatistics()
+				.getUnreachableDefinitions());
+		check("removed definitions", unreachable, removed.getStatistics()
+				.getUnreachableDefinitions());
+		check("kept flag", false, kept.getStatistics().isUnreachableRemoved());
+		check("removed flag", true, removed.getStatistics()
+				.isUnreachableRemoved());
+
+		String[] names = { "used", "helper", "twice", "unused", "lonely",
+				"spare", "draw" };
+		int[] nArguments = { 0, 1, 1, 0, 0, 0, 0 };
+		for (int i = 0; i < names.length; i++) {
+			check(names[i] + " kept", true, kept.getSubroutine(names[i],
+					nArguments[i]) != null);
+			check(names[i] + " left", !unreachable.contains(names[i]),
+					removed.getSubroutine(names[i], nArguments[i]) != null);
+		}
+
+		check("output", Programs.run(kept), Programs.run(removed));
+		check("output at -O0", Programs.run(PROGRAM,
+				OptimizerFeature.MIN_LEVEL), Programs.run(removed));
+
+		if (nFailed > 0) {
+			System.out.println(nFailed + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	private static void check(String name, Object expected, Object actual) {
+		if (!expected.equals(actual)) {
+			System.out.println(name + ": expected " + expected + ", got "
+					+ actual);
+			nFailed++;
+		}
+	}
+}